@@ -0,0 +1,338 @@
+package com.crossover.trial.weather;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The access log of the HTTP server: one json line per request, with its
+ * time, method, path, status, latency in microseconds and response size in
+ * bytes, null when the size is not known up front.
+ *
+ * The request threads only append an entry to a bounded ring, claiming a
+ * slot with a compare and set, and never wait: when the ring is full the
+ * entry is dropped and counted. A background thread drains the ring every
+ * <code>weather.&lt;name&gt;.flush</code> milliseconds (100 by default),
+ * formats the entries and writes them in one go. Once the file passes
+ * <code>weather.&lt;name&gt;.maxBytes</code> (10 MB) it is renamed
+ * <code>.1</code>, the older ones shifted up to
+ * <code>weather.&lt;name&gt;.files</code> (5).
+ *
+ * The other system properties are <code>weather.&lt;name&gt;.file</code>,
+ * the log file (<code>access.log</code>, empty to turn the log off),
+ * <code>weather.&lt;name&gt;.sample</code>, the fraction of the requests
+ * logged (1 by default), <code>weather.&lt;name&gt;.slow</code>, when set
+ * only the requests taking more milliseconds are logged, all of them, and
+ * <code>weather.&lt;name&gt;.buffer</code>, the ring capacity (8192).
+ *
+ * @author Erik Pereira Alves
+ */
+public class AccessLog {
+
+	public final static Logger LOGGER = Logger.getLogger(AccessLog.class.getName());
+
+	private final File file;
+
+	/** fraction of the requests logged */
+	private final double sample;
+
+	/** only the requests slower than this are logged, in nanoseconds, or -1 */
+	private final long slowNanos;
+
+	private final long maxBytes;
+
+	/** log files kept, the current one included */
+	private final int files;
+
+	private final long flushNanos;
+
+	private final AtomicReferenceArray<Entry> ring;
+
+	private final int mask;
+
+	/** the next slot claimed by a request thread */
+	private final AtomicLong tail = new AtomicLong();
+
+	/** the next slot drained, written by the writer thread only */
+	private volatile long head;
+
+	private final LongAdder dropped = new LongAdder();
+
+	private volatile boolean closed;
+
+	private final Thread writer;
+
+	private OutputStream out;
+
+	private long size;
+
+	/**
+	 * An access log configured from the system properties of the given name.
+	 *
+	 * @param name
+	 *            the name of the properties configuring the log
+	 * @return the log, null if turned off
+	 */
+	public static AccessLog configure(String name) {
+		String path = System.getProperty("weather." + name + ".file", "access.log");
+		if (path.trim().isEmpty()) {
+			return null;
+		}
+		return new AccessLog(new File(path),
+				Double.parseDouble(System.getProperty("weather." + name + ".sample", "1")),
+				Long.getLong("weather." + name + ".slow", -1),
+				Integer.getInteger("weather." + name + ".buffer", 8192),
+				Long.getLong("weather." + name + ".maxBytes", 10 << 20),
+				Integer.getInteger("weather." + name + ".files", 5),
+				Long.getLong("weather." + name + ".flush", 100));
+	}
+
+	/**
+	 * @param file
+	 *            the log file
+	 * @param sample
+	 *            the fraction of the requests logged
+	 * @param slowMillis
+	 *            only the requests taking more milliseconds are logged, -1 to
+	 *            log the sampled requests whatever their latency
+	 * @param capacity
+	 *            the entries waiting to be written, rounded up to a power of
+	 *            two
+	 * @param maxBytes
+	 *            the size past which the file is rotated
+	 * @param files
+	 *            the log files kept, the current one included
+	 * @param flushMillis
+	 *            the delay between two writes
+	 */
+	public AccessLog(File file, double sample, long slowMillis, int capacity, long maxBytes, int files,
+			long flushMillis) {
+		this.file = file;
+		this.sample = sample;
+		this.slowNanos = slowMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(slowMillis);
+		this.maxBytes = maxBytes;
+		this.files = Math.max(1, files);
+		this.flushNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushMillis));
+		int rounded = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this.ring = new AtomicReferenceArray<>(rounded);
+		this.mask = rounded - 1;
+		this.writer = new Thread(this::drainLoop, "weather-access");
+		writer.setDaemon(true);
+		writer.start();
+		LOGGER.info("access log " + file + ", sample " + sample
+				+ (slowMillis < 0 ? "" : ", only over " + slowMillis + " ms"));
+	}
+
+	/**
+	 * Log a request, unless it is sampled out or not slow enough. Never
+	 * blocks.
+	 *
+	 * @param method
+	 *            the HTTP method
+	 * @param path
+	 *            the request path
+	 * @param status
+	 *            the response status
+	 * @param nanos
+	 *            the request latency
+	 * @param bytes
+	 *            the response size, -1 if not known
+	 * @return whether it was queued
+	 */
+	public boolean record(String method, String path, int status, long nanos, long bytes) {
+		if (slowNanos >= 0 ? nanos <= slowNanos : sample < 1 && ThreadLocalRandom.current().nextDouble() >= sample) {
+			return false;
+		}
+		long t;
+		do {
+			t = tail.get();
+			if (t - head >= ring.length() || closed) {
+				dropped.increment();
+				return false;
+			}
+		} while (!tail.compareAndSet(t, t + 1));
+		ring.lazySet((int) t & mask, new Entry(System.currentTimeMillis(), method, path, status, nanos, bytes));
+		return true;
+	}
+
+	/** @return the number of entries dropped because the ring was full */
+	public long droppedCount() {
+		return dropped.sum();
+	}
+
+	/** write what is queued and close the file */
+	public void close() {
+		closed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(TimeUnit.NANOSECONDS.toMillis(flushNanos) + 5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void drainLoop() {
+		StringBuilder batch = new StringBuilder(16384);
+		long reportedDrops = 0;
+		while (true) {
+			boolean last = closed;
+			int drained = drain(batch);
+			if (batch.length() > 0) {
+				try {
+					write(batch);
+				} catch (IOException e) {
+					LOGGER.log(Level.WARNING, "couldn't write the access log " + file, e);
+				}
+				batch.setLength(0);
+			}
+			long drops = dropped.sum();
+			if (drops > reportedDrops) {
+				LOGGER.warning("access log full, dropped " + (drops - reportedDrops) + " entries");
+				reportedDrops = drops;
+			}
+			if (last) {
+				break;
+			}
+			if (drained < ring.length() / 2) {
+				// else the ring fills faster than the delay, drain it again
+				LockSupport.parkNanos(this, flushNanos);
+			}
+		}
+		try {
+			if (out != null) {
+				out.close();
+			}
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "couldn't close the access log " + file, e);
+		}
+	}
+
+	/**
+	 * Format the queued entries, up to the first one still being queued.
+	 *
+	 * @return the number of entries formatted
+	 */
+	private int drain(StringBuilder batch) {
+		long start = head;
+		long h = start;
+		while (true) {
+			int at = (int) h & mask;
+			Entry entry = ring.get(at);
+			if (entry == null) {
+				break;
+			}
+			ring.lazySet(at, null);
+			h++;
+			entry.format(batch);
+		}
+		head = h;
+		return (int) (h - start);
+	}
+
+	private void write(StringBuilder batch) throws IOException {
+		byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+		if (out != null && size > 0 && size + bytes.length > maxBytes) {
+			out.close();
+			out = null;
+			rotate();
+		}
+		if (out == null) {
+			File parent = file.getAbsoluteFile().getParentFile();
+			if (parent != null) {
+				parent.mkdirs();
+			}
+			out = new FileOutputStream(file, true);
+			size = file.length();
+		}
+		out.write(bytes);
+		out.flush();
+		size += bytes.length;
+	}
+
+	/** shift the log files up by one, dropping the oldest */
+	private void rotate() throws IOException {
+		for (int i = files - 1; i > 0; i--) {
+			File from = i == 1 ? file : new File(file.getPath() + "." + (i - 1));
+			if (from.exists()) {
+				Files.move(from.toPath(), new File(file.getPath() + "." + i).toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		if (files == 1) {
+			Files.deleteIfExists(file.toPath());
+		}
+	}
+
+	/** a request as seen by the request thread, formatted by the writer */
+	private static final class Entry {
+
+		final long time;
+
+		final String method;
+
+		final String path;
+
+		final int status;
+
+		final long nanos;
+
+		final long bytes;
+
+		Entry(long time, String method, String path, int status, long nanos, long bytes) {
+			this.time = time;
+			this.method = method;
+			this.path = path;
+			this.status = status;
+			this.nanos = nanos;
+			this.bytes = bytes;
+		}
+
+		void format(StringBuilder line) {
+			line.append("{\"time\":\"").append(Instant.ofEpochMilli(time)).append("\",\"method\":");
+			quote(line, method);
+			line.append(",\"path\":");
+			quote(line, path);
+			line.append(",\"status\":").append(status);
+			line.append(",\"micros\":").append(TimeUnit.NANOSECONDS.toMicros(nanos));
+			line.append(",\"bytes\":");
+			if (bytes < 0) {
+				line.append("null");
+			} else {
+				line.append(bytes);
+			}
+			line.append("}\n");
+		}
+
+		private static void quote(StringBuilder line, String value) {
+			if (value == null) {
+				line.append("null");
+				return;
+			}
+			line.append('"');
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c == '"' || c == '\\') {
+					line.append('\\').append(c);
+				} else if (c < 0x20) {
+					line.append(String.format("\\u%04x", (int) c));
+				} else {
+					line.append(c);
+				}
+			}
+			line.append('"');
+		}
+	}
+}
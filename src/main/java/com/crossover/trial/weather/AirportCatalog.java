@@ -0,0 +1,188 @@
+package com.crossover.trial.weather;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One version of the airport catalog: the airports, the registry resolving
+ * their codes to slots, the spatial index and the coordinates of the radius
+ * queries, all consistent with each other.
+ *
+ * A version is never changed once published. A change copies the current
+ * version into a {@link Builder} and the result is published as the next
+ * version, see {@link AirportLoader#changeCatalog(java.util.function.Function)}.
+ * Readers take the current version once per request and use it throughout,
+ * they never lock and never see a change half made. Slots carry over from a
+ * version to the next, so the state kept by slot elsewhere stays valid.
+ *
+ * @author Erik Pereira Alves
+ */
+public final class AirportCatalog {
+
+	/** the catalog before anything is loaded */
+	static final AirportCatalog EMPTY = new AirportCatalog(0, Collections.<AirportData> emptyList(),
+			new AirportRegistry(), new AirportSpatialIndex(), new AirportCoordinates());
+
+	private final long version;
+
+	private final List<AirportData> airports;
+
+	private final AirportRegistry registry;
+
+	private final AirportSpatialIndex index;
+
+	private final AirportCoordinates coordinates;
+
+	private AirportCatalog(long version, List<AirportData> airports, AirportRegistry registry,
+			AirportSpatialIndex index, AirportCoordinates coordinates) {
+		this.version = version;
+		this.airports = airports;
+		this.registry = registry;
+		this.index = index;
+		this.coordinates = coordinates;
+	}
+
+	/**
+	 * Build a catalog from scratch, the airports get their slots in list
+	 * order.
+	 *
+	 * @param version
+	 *            the version number
+	 * @param airports
+	 *            the airports
+	 * @return the catalog
+	 */
+	static AirportCatalog of(long version, List<AirportData> airports) {
+		AirportRegistry registry = new AirportRegistry();
+		registry.rebuild(airports);
+		AirportSpatialIndex index = new AirportSpatialIndex();
+		index.rebuild(registry);
+		AirportCoordinates coordinates = new AirportCoordinates();
+		coordinates.rebuild(registry);
+		return new AirportCatalog(version, Collections.unmodifiableList(new ArrayList<>(airports)), registry, index,
+				coordinates);
+	}
+
+	/** @return the version number, one more than the version it was made from */
+	public long version() {
+		return version;
+	}
+
+	/** @return all known airports, read only */
+	public List<AirportData> airports() {
+		return airports;
+	}
+
+	/** @return resolves airport codes to their slot */
+	public AirportRegistry registry() {
+		return registry;
+	}
+
+	/** @return spatial index over the airports, for radius queries */
+	public AirportSpatialIndex index() {
+		return index;
+	}
+
+	/** @return airport positions by slot, for the distance computations */
+	public AirportCoordinates coordinates() {
+		return coordinates;
+	}
+
+	/** @return a builder of the next version, starting from this one */
+	Builder edit() {
+		return new Builder(this);
+	}
+
+	/**
+	 * The next version in the making. Several changes can go into one
+	 * builder, the copy of the structures is paid once for all of them.
+	 */
+	static final class Builder {
+
+		private final long version;
+
+		private final List<AirportData> airports;
+
+		private final AirportRegistry registry;
+
+		private final AirportSpatialIndex index;
+
+		private final AirportCoordinates coordinates;
+
+		private Builder(AirportCatalog base) {
+			version = base.version + 1;
+			airports = new ArrayList<>(base.airports);
+			registry = base.registry.copy();
+			index = base.index.copy();
+			coordinates = base.coordinates.edit();
+		}
+
+		/**
+		 * @return the airport known by an IATA code so far, or null; the
+		 *         admin changes don't go by the ICAO code
+		 */
+		AirportData find(String code) {
+			AirportData ad = registry.find(code);
+			return ad != null && ad.getIata().equals(code) ? ad : null;
+		}
+
+		/** @return the number of airports so far */
+		int size() {
+			return airports.size();
+		}
+
+		/** @return the slot the next added airport gets */
+		int nextSlot() {
+			return registry.slotCount();
+		}
+
+		/**
+		 * Add an airport.
+		 *
+		 * @return its slot
+		 */
+		int add(AirportData ad) {
+			int slot = registry.register(ad);
+			coordinates.set(slot, ad.getLatitude(), ad.getLongitude());
+			index.add(slot, ad);
+			airports.add(ad);
+			return slot;
+		}
+
+		/**
+		 * Replace an airport by an updated copy, the codes staying the same.
+		 *
+		 * @return its slot
+		 */
+		int replace(AirportData old, AirportData updated) {
+			int slot = registry.slotOf(old.getIata());
+			index.remove(slot, old);
+			registry.replace(slot, updated);
+			coordinates.set(slot, updated.getLatitude(), updated.getLongitude());
+			index.add(slot, updated);
+			airports.set(airports.indexOf(old), updated);
+			return slot;
+		}
+
+		/**
+		 * Remove an airport.
+		 *
+		 * @return the slot it was in, or {@link AirportRegistry#NO_SLOT}
+		 */
+		int remove(AirportData ad) {
+			int slot = registry.remove(ad.getIata());
+			if (slot != AirportRegistry.NO_SLOT) {
+				airports.remove(ad);
+				index.remove(slot, ad);
+				coordinates.remove(slot);
+			}
+			return slot;
+		}
+
+		AirportCatalog build() {
+			coordinates.seal();
+			return new AirportCatalog(version, Collections.unmodifiableList(airports), registry, index, coordinates);
+		}
+	}
+}
@@ -0,0 +1,245 @@
+package com.crossover.trial.weather;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persists the changes to the airport catalog without rewriting airports.dat
+ * each time.
+ *
+ * Each added, updated or removed airport appends one line to a journal next
+ * to the data file. A background task compacts the journal
+ * <code>weather.catalog.compact</code> milliseconds after a change: it writes
+ * the in-memory catalog to a fresh data file, moved over the old one, and
+ * drops the journal lines it covers. Loading the data file replays what is
+ * left of the journal, so a crash at any point loses no change.
+ *
+ * The in-memory catalog stays the source of truth: nothing is read back from
+ * disk after a change.
+ *
+ * @author Erik Pereira Alves
+ */
+public class AirportCatalogJournal {
+
+	public final static Logger LOGGER = Logger.getLogger(AirportCatalogJournal.class.getName());
+
+	private static final long COMPACT_DELAY_MILLIS = Long.getLong("weather.catalog.compact", 5000);
+
+	private static final char ADDED = '+';
+
+	private static final char REMOVED = '-';
+
+	private final File dataFile;
+
+	private final File journal;
+
+	/** the journal being compacted, replayed too if a compaction died */
+	private final File compacting;
+
+	/** held by the changes to the catalog, and by a compaction taking its copy */
+	private final Object catalogLock;
+
+	/** a copy of the catalog to write, taken under the catalog lock */
+	private final Supplier<List<AirportData>> catalog;
+
+	private final ScheduledExecutorService compactor;
+
+	private Writer writer;
+
+	private boolean scheduled;
+
+	/**
+	 * @param dataFile
+	 *            the airports.dat file
+	 * @param catalogLock
+	 *            the lock the changes to the catalog hold; taken before the
+	 *            journal lock, never after it
+	 * @param catalog
+	 *            a copy of the current catalog, for compactions; a reload of
+	 *            the catalog holds the journal lock, see
+	 *            {@link #replay(Map)}
+	 */
+	public AirportCatalogJournal(File dataFile, Object catalogLock, Supplier<List<AirportData>> catalog) {
+		this.dataFile = dataFile;
+		this.journal = new File(dataFile.getPath() + ".journal");
+		this.compacting = new File(dataFile.getPath() + ".journal.compacting");
+		this.catalogLock = catalogLock;
+		this.catalog = catalog;
+		this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "weather-catalog-compactor");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/** @return the data file this journal belongs to */
+	public File dataFile() {
+		return dataFile;
+	}
+
+	/**
+	 * Record an added or updated airport.
+	 *
+	 * @param ad
+	 *            the airport, as it is now
+	 */
+	public void added(AirportData ad) {
+		append(ADDED + "," + ad.writeToFile(ad.getPk()));
+	}
+
+	/**
+	 * Record a removed airport.
+	 *
+	 * @param iataCode
+	 *            the airport code
+	 */
+	public void removed(String iataCode) {
+		append(REMOVED + ",\"" + iataCode + "\"");
+	}
+
+	/** @return whether there are changes to replay */
+	public synchronized boolean hasChanges() {
+		return compacting.isFile() || journal.isFile();
+	}
+
+	/**
+	 * Apply the journal left since the last compaction to airports loaded from
+	 * the data file. The caller holds the journal lock from reading the data
+	 * file to installing the result, so no compaction runs in between.
+	 *
+	 * @param byIata
+	 *            the loaded airports by code, updated in place
+	 * @throws IOException
+	 *             if the journal can't be read
+	 */
+	public synchronized void replay(Map<String, AirportData> byIata) throws IOException {
+		int replayed = 0;
+		for (File file : new File[] { compacting, journal }) {
+			if (!file.isFile()) {
+				continue;
+			}
+			for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+				if (line.length() < 2) {
+					continue;
+				}
+				String record = line.substring(2);
+				if (line.charAt(0) == ADDED) {
+					AirportData ad = AirportFileParser.parseLine(record);
+					if (ad != null) {
+						byIata.put(ad.getIata(), ad);
+						replayed++;
+					}
+				} else if (line.charAt(0) == REMOVED) {
+					byIata.remove(record.replace("\"", ""));
+					replayed++;
+				}
+			}
+		}
+		if (replayed > 0) {
+			LOGGER.info("replayed " + replayed + " catalog changes from " + journal);
+		}
+	}
+
+	/**
+	 * Write the catalog to the data file and drop the journal it covers.
+	 *
+	 * @throws IOException
+	 *             if the data file can't be written
+	 */
+	public void compact() throws IOException {
+		List<AirportData> airports;
+		// no change between setting the journal aside and taking the copy:
+		// the copy has every line set aside, and the lines after it go to a
+		// new journal
+		synchronized (catalogLock) {
+			synchronized (this) {
+				scheduled = false;
+				if (!journal.isFile()) {
+					return;
+				}
+				close();
+				if (compacting.isFile()) {
+					// a previous compaction failed, keep its changes in order
+					Files.write(compacting.toPath(), Files.readAllBytes(journal.toPath()),
+							StandardOpenOption.APPEND);
+					Files.delete(journal.toPath());
+				} else {
+					Files.move(journal.toPath(), compacting.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				}
+				airports = catalog.get();
+			}
+		}
+
+		File tmp = new File(dataFile.getPath() + ".tmp");
+		try (FileOutputStream out = new FileOutputStream(tmp);
+				Writer file = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+			for (int i = 0; i < airports.size(); i++) {
+				file.write(airports.get(i).writeToFile(i + 1));
+				if (i < airports.size() - 1) {
+					file.write(System.getProperty("line.separator"));
+				}
+			}
+			file.flush();
+			out.getChannel().force(true);
+		}
+
+		synchronized (this) {
+			Files.move(tmp.toPath(), dataFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			Files.delete(compacting.toPath());
+		}
+		LOGGER.fine("compacted " + airports.size() + " airports into " + dataFile);
+	}
+
+	/** stop writing, a later change opens the journal again */
+	public synchronized void close() throws IOException {
+		if (writer != null) {
+			writer.close();
+			writer = null;
+		}
+	}
+
+	private synchronized void append(String line) {
+		try {
+			if (writer == null) {
+				FileOutputStream out = new FileOutputStream(journal, true);
+				writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+			}
+			writer.write(line);
+			writer.write('\n');
+			// one change at a time, straight to the operating system
+			writer.flush();
+		} catch (IOException e) {
+			LOGGER.log(Level.SEVERE, "couldn't journal the catalog change " + line, e);
+			return;
+		}
+		if (!scheduled) {
+			scheduled = true;
+			compactor.schedule(this::compactQuietly, COMPACT_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void compactQuietly() {
+		try {
+			compact();
+		} catch (IOException | RuntimeException e) {
+			LOGGER.log(Level.SEVERE, "couldn't compact " + journal, e);
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package com.crossover.trial.weather;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A binary copy of airports.dat next to it, so a restart reads the airports
+ * without parsing text. airports.dat stays the file to edit: the copy records
+ * its modification time and size and is written again when they change.
+ * <code>weather.catalog.snapshot=false</code> turns it off.
+ *
+ * The copy is memory mapped. After a header come fixed width columns, one
+ * value per airport: the key, latitude, longitude, altitude, timezone, then
+ * the name, city, country, iata, icao and dst as indexes in a table of
+ * distinct strings. Each distinct string is decoded once and shared by the
+ * airports that hold it. A CRC closes the file.
+ *
+ * @author Erik Pereira Alves
+ */
+public class AirportCatalogSnapshot {
+
+	public final static Logger LOGGER = Logger.getLogger(AirportCatalogSnapshot.class.getName());
+
+	private static final boolean ENABLED = Boolean
+			.parseBoolean(System.getProperty("weather.catalog.snapshot", "true"));
+
+	private static final int MAGIC = 0x57434154;
+
+	private static final int VERSION = 1;
+
+	/** magic, version, source time and size, airports, strings, string bytes */
+	private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 4 + 4 + 4;
+
+	/** pk, latitude, longitude, altitude, timezone and six string indexes */
+	private static final int ROW_BYTES = 4 + 8 + 8 + 8 + 4 + 6 * 4;
+
+	private AirportCatalogSnapshot() {
+	}
+
+	/**
+	 * Read the airports of a data file, from its binary copy when it is up to
+	 * date, else by parsing it and writing the copy.
+	 *
+	 * @param dataFile
+	 *            airports.dat
+	 * @return the airports in file order, duplicates included
+	 * @throws IOException
+	 *             if the data file can't be read
+	 */
+	public static List<AirportData> load(File dataFile) throws IOException {
+		File copy = copyOf(dataFile);
+		if (ENABLED && copy.isFile()) {
+			try {
+				List<AirportData> airports = read(copy, dataFile);
+				if (airports != null) {
+					return airports;
+				}
+			} catch (IOException | RuntimeException e) {
+				LOGGER.log(Level.WARNING, "ignoring unreadable " + copy, e);
+			}
+		}
+
+		long modified = dataFile.lastModified();
+		long size = dataFile.length();
+		AirportFileParser.Result parsed = AirportFileParser.parse(dataFile);
+		if (!parsed.rejected.isEmpty()) {
+			LOGGER.warning(dataFile + ": rejected " + parsed.rejected.size() + " of " + parsed.lines + " lines "
+					+ parsed.rejected.subList(0, Math.min(10, parsed.rejected.size())));
+		}
+		if (ENABLED) {
+			try {
+				write(copy, parsed.airports, modified, size);
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "couldn't write " + copy, e);
+			}
+		}
+		return parsed.airports;
+	}
+
+	/** @return the binary copy of a data file */
+	static File copyOf(File dataFile) {
+		return new File(dataFile.getPath() + ".bin");
+	}
+
+	/**
+	 * @return the airports, or null if the copy is not the one of the data
+	 *         file as it is now
+	 */
+	static List<AirportData> read(File copy, File dataFile) throws IOException {
+		MappedByteBuffer in;
+		try (FileChannel channel = FileChannel.open(copy.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_BYTES + 8) {
+				return null;
+			}
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (in.getInt(0) != MAGIC || in.getInt(4) != VERSION || in.getLong(8) != dataFile.lastModified()
+				|| in.getLong(16) != dataFile.length()) {
+			return null;
+		}
+		int count = in.getInt(24);
+		int strings = in.getInt(28);
+		int stringBytes = in.getInt(32);
+		long expected = HEADER_BYTES + (long) count * ROW_BYTES + 4L * (strings + 1) + stringBytes + 8;
+		if (count < 0 || strings < 0 || stringBytes < 0 || expected != in.limit()) {
+			return null;
+		}
+		CRC32 crc = new CRC32();
+		ByteBuffer covered = in.duplicate();
+		covered.limit(in.limit() - 8);
+		crc.update(covered);
+		if (crc.getValue() != in.getLong(in.limit() - 8)) {
+			return null;
+		}
+
+		// the columns
+		int pks = HEADER_BYTES;
+		int latitudes = pks + 4 * count;
+		int longitudes = latitudes + 8 * count;
+		int altitudes = longitudes + 8 * count;
+		int timezones = altitudes + 8 * count;
+		int texts = timezones + 4 * count;
+		int offsets = texts + 6 * 4 * count;
+		int bytes = offsets + 4 * (strings + 1);
+
+		String[] table = new String[strings];
+		byte[] buffer = new byte[256];
+		for (int i = 0; i < strings; i++) {
+			int from = in.getInt(offsets + 4 * i);
+			int length = in.getInt(offsets + 4 * i + 4) - from;
+			if (buffer.length < length) {
+				buffer = new byte[Math.max(length, 2 * buffer.length)];
+			}
+			ByteBuffer source = in.duplicate();
+			source.position(bytes + from);
+			source.get(buffer, 0, length);
+			table[i] = new String(buffer, 0, length, StandardCharsets.UTF_8);
+		}
+
+		List<AirportData> airports = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			int text = texts + 4 * i;
+			int column = 4 * count;
+			airports.add(new AirportData(in.getInt(pks + 4 * i), table[in.getInt(text)],
+					table[in.getInt(text + column)], table[in.getInt(text + 2 * column)],
+					table[in.getInt(text + 3 * column)], table[in.getInt(text + 4 * column)],
+					in.getDouble(latitudes + 8 * i), in.getDouble(longitudes + 8 * i), in.getDouble(altitudes + 8 * i),
+					in.getFloat(timezones + 4 * i), table[in.getInt(text + 5 * column)]));
+		}
+		return airports;
+	}
+
+	/** write the copy of a data file, moved in place once complete */
+	static void write(File copy, List<AirportData> airports, long modified, long size) throws IOException {
+		int count = airports.size();
+		Map<String, Integer> index = new HashMap<>();
+		List<byte[]> strings = new ArrayList<>();
+		int stringBytes = 0;
+		int[][] texts = new int[6][count];
+		for (int i = 0; i < count; i++) {
+			AirportData ad = airports.get(i);
+			String[] values = { ad.getName(), ad.getCity(), ad.getCountry(), ad.getIata(), ad.getIcao(), ad.getDst() };
+			for (int c = 0; c < values.length; c++) {
+				String value = values[c] == null ? "" : values[c];
+				Integer id = index.get(value);
+				if (id == null) {
+					id = strings.size();
+					index.put(value, id);
+					byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+					strings.add(encoded);
+					stringBytes += encoded.length;
+				}
+				texts[c][i] = id;
+			}
+		}
+
+		long total = HEADER_BYTES + (long) count * ROW_BYTES + 4L * (strings.size() + 1) + stringBytes + 8;
+		if (total > Integer.MAX_VALUE) {
+			throw new IOException("too many airports for a snapshot");
+		}
+		ByteBuffer out = ByteBuffer.allocate((int) total);
+		out.putInt(MAGIC).putInt(VERSION).putLong(modified).putLong(size).putInt(count).putInt(strings.size())
+				.putInt(stringBytes);
+		for (AirportData ad : airports) {
+			out.putInt(ad.getPk());
+		}
+		for (AirportData ad : airports) {
+			out.putDouble(ad.getLatitude());
+		}
+		for (AirportData ad : airports) {
+			out.putDouble(ad.getLongitude());
+		}
+		for (AirportData ad : airports) {
+			out.putDouble(ad.getAltitude());
+		}
+		for (AirportData ad : airports) {
+			out.putFloat(ad.getTimezone());
+		}
+		for (int[] column : texts) {
+			for (int id : column) {
+				out.putInt(id);
+			}
+		}
+		int offset = 0;
+		for (byte[] string : strings) {
+			out.putInt(offset);
+			offset += string.length;
+		}
+		out.putInt(offset);
+		for (byte[] string : strings) {
+			out.put(string);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(out.array(), 0, out.position());
+		out.putLong(crc.getValue());
+
+		File tmp = new File(copy.getPath() + ".tmp");
+		try (FileOutputStream file = new FileOutputStream(tmp)) {
+			file.write(out.array());
+		}
+		Files.move(tmp.toPath(), copy.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+}
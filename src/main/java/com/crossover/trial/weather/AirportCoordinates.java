@@ -0,0 +1,226 @@
+package com.crossover.trial.weather;
+
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.R;
+
+import java.util.Arrays;
+
+/**
+ * The position of every airport as a unit vector on the sphere, stored as
+ * three primitive columns addressed by the airport slot.
+ *
+ * The trigonometry is done once, when an airport is placed. The haversine of
+ * the angle between two airports is a quarter of their squared chord, so a
+ * radius test is a difference, three multiplications and a compare against a
+ * bound computed once per query: {@link #filter(int, double, int[], int, int, int[])}
+ * is the one distance kernel of the radius queries.
+ *
+ * The columns are copy-on-write: writers, the airport admin path, are
+ * serialized and publish new columns with the position in place, so readers
+ * never lock and never see half a position. They see an unplaced slot as
+ * infinitely far away. The coordinates of a catalog version in the making,
+ * see {@link #edit()}, are read by nobody yet: they copy the columns on their
+ * first write only and write in place afterwards, until {@link #seal()}.
+ *
+ * @author Erik Pereira Alves
+ */
+public class AirportCoordinates {
+
+	/** the columns, replaced (never shrunk) by every write unless owned */
+	private volatile Columns columns = new Columns(1024);
+
+	/** unpublished, nobody reads the columns yet */
+	private boolean editing;
+
+	/** the columns were copied for the edit, and are written in place */
+	private boolean owned;
+
+	/**
+	 * Place every airport of the registry, dropping the previous positions.
+	 *
+	 * @param registry
+	 *            the airport registry
+	 */
+	public synchronized void rebuild(AirportRegistry registry) {
+		Columns rebuilt = new Columns(Math.max(1024, registry.slotCount()));
+		for (int slot = 0; slot < registry.slotCount(); slot++) {
+			AirportData ad = registry.airport(slot);
+			if (ad != null) {
+				rebuilt.set(slot, ad.getLatitude(), ad.getLongitude());
+			}
+		}
+		columns = rebuilt;
+	}
+
+	/**
+	 * @return coordinates holding the same positions, for a version nobody
+	 *         reads until {@link #seal()}; they share the columns until their
+	 *         first write
+	 */
+	public synchronized AirportCoordinates edit() {
+		AirportCoordinates edit = new AirportCoordinates();
+		edit.columns = columns;
+		edit.editing = true;
+		return edit;
+	}
+
+	/** the coordinates are published, copy-on-write from now on */
+	public synchronized void seal() {
+		editing = false;
+		owned = false;
+	}
+
+	/**
+	 * Place or move an airport.
+	 *
+	 * @param slot
+	 *            the airport slot
+	 * @param latitude
+	 *            in degrees
+	 * @param longitude
+	 *            in degrees
+	 */
+	public synchronized void set(int slot, double latitude, double longitude) {
+		Columns current = columns;
+		Columns updated = writable(slot < current.x.length ? current.x.length
+				: Math.max(slot + 1, current.x.length * 2));
+		updated.set(slot, latitude, longitude);
+		columns = updated;
+	}
+
+	/**
+	 * Forget the position of a removed airport.
+	 *
+	 * @param slot
+	 *            the airport slot
+	 */
+	public synchronized void remove(int slot) {
+		Columns current = columns;
+		if (slot >= 0 && slot < current.x.length) {
+			Columns updated = writable(current.x.length);
+			updated.x[slot] = Double.NaN;
+			columns = updated;
+		}
+	}
+
+	/**
+	 * @param capacity
+	 *            the capacity the write needs
+	 * @return the columns to write, copied unless the edit owns them already
+	 */
+	private Columns writable(int capacity) {
+		Columns current = columns;
+		if (owned && capacity == current.x.length) {
+			return current;
+		}
+		owned = editing;
+		return current.grow(capacity);
+	}
+
+	/**
+	 * @param slot
+	 *            the airport slot
+	 * @return the unit vector of the airport position, null if unplaced
+	 */
+	double[] position(int slot) {
+		Columns c = columns;
+		if (slot < 0 || slot >= c.x.length || Double.isNaN(c.x[slot])) {
+			return null;
+		}
+		return new double[] { c.x[slot], c.y[slot], c.z[slot] };
+	}
+
+	/**
+	 * Keep the candidates within a radius of an airport.
+	 *
+	 * @param center
+	 *            the slot of the airport at the center
+	 * @param radius
+	 *            the radius in km
+	 * @param candidates
+	 *            candidate slots
+	 * @param from
+	 *            first candidate, inclusive
+	 * @param to
+	 *            last candidate, exclusive
+	 * @param out
+	 *            receives the slots within the radius, in candidate order
+	 * @return the number of slots written to out
+	 */
+	public int filter(int center, double radius, int[] candidates, int from, int to, int[] out) {
+		Columns c = columns;
+		if (center < 0 || center >= c.x.length) {
+			return 0;
+		}
+		double[] x = c.x;
+		double[] y = c.y;
+		double[] z = c.z;
+		double cx = x[center];
+		double cy = y[center];
+		double cz = z[center];
+		double bound = chordSquared(radius);
+		int count = 0;
+		for (int i = from; i < to; i++) {
+			int slot = candidates[i];
+			if (slot >= x.length) {
+				continue;
+			}
+			double dx = x[slot] - cx;
+			double dy = y[slot] - cy;
+			double dz = z[slot] - cz;
+			// false for NaN, an unplaced slot is never within the radius
+			if (dx * dx + dy * dy + dz * dz <= bound) {
+				out[count++] = slot;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the squared chord of the unit sphere spanned by an arc of radius
+	 *         km, greater than any chord once the arc reaches half the earth
+	 */
+	static double chordSquared(double radius) {
+		double angle = radius / R;
+		if (angle >= Math.PI) {
+			return Double.MAX_VALUE;
+		}
+		double chord = 2 * Math.sin(angle / 2);
+		return chord * chord;
+	}
+
+	private static final class Columns {
+
+		private final double[] x;
+
+		private final double[] y;
+
+		private final double[] z;
+
+		Columns(int capacity) {
+			x = new double[capacity];
+			y = new double[capacity];
+			z = new double[capacity];
+			Arrays.fill(x, Double.NaN);
+		}
+
+		private Columns(double[] x, double[] y, double[] z) {
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+
+		Columns grow(int capacity) {
+			double[] grownX = Arrays.copyOf(x, capacity);
+			Arrays.fill(grownX, x.length, capacity, Double.NaN);
+			return new Columns(grownX, Arrays.copyOf(y, capacity), Arrays.copyOf(z, capacity));
+		}
+
+		void set(int slot, double latitude, double longitude) {
+			double lat = Math.toRadians(latitude);
+			double lon = Math.toRadians(longitude);
+			x[slot] = Math.cos(lat) * Math.cos(lon);
+			y[slot] = Math.cos(lat) * Math.sin(lon);
+			z[slot] = Math.sin(lat);
+		}
+	}
+}
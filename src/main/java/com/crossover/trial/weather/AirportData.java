@@ -168,12 +168,18 @@ public class AirportData {
 
 		// 1,"General Edward Lawrence Logan Intl","Boston","United
 		// States","BOS","KBOS",42.364347,-71.005181,19,-5,"A"
-		String line = pk + ",\"" + name + "\",\"" + city + "\",\"" + country + "\",\"" + iata + "\",\"" + icao + "\",\""
-				+ latitude + "\",\"" + longitude + "\",\"" + altitude + "\",\"" + timezone + "\",\"" + dst + "\"";
+		String line = pk + "," + quote(name) + "," + quote(city) + "," + quote(country) + "," + quote(iata) + ","
+				+ quote(icao) + ",\"" + latitude + "\",\"" + longitude + "\",\"" + altitude + "\",\"" + timezone + "\","
+				+ quote(dst);
 
 		return line;
 	}
 
+	/** a csv field, quotes doubled, see {@link AirportFileParser} */
+	private static String quote(String value) {
+		return "\"" + (value == null ? "" : value.replace("\"", "\"\"")) + "\"";
+	}
+
 	public boolean equals(Object other) {
 		if (other instanceof AirportData) {
 			return ((AirportData) other).getIata().equals(this.getIata());
@@ -181,4 +187,8 @@ public class AirportData {
 
 		return false;
 	}
+
+	public int hashCode() {
+		return iata == null ? 0 : iata.hashCode();
+	}
 }
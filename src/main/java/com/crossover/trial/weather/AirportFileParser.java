@@ -0,0 +1,446 @@
+package com.crossover.trial.weather;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Parses airports.dat, a csv file of one airport a line:
+ *
+ * <pre>
+ * 1,"General Edward Lawrence Logan Intl","Boston","United States","BOS","KBOS",42.364347,-71.005181,19,-5,"A"
+ * </pre>
+ *
+ * Fields may be quoted, a quoted field may hold commas and doubled quotes.
+ * Extra trailing columns, like those of the OpenFlights dataset, are ignored
+ * and \N reads as an empty field.
+ *
+ * The file is memory mapped and split into line aligned chunks of
+ * <code>weather.loader.chunk</code> bytes, parsed in parallel. Fields are
+ * tokenized straight from the bytes and numbers parsed without building
+ * strings, falling back to the JDK parsers beyond the exact fast path, so the
+ * values are the same as {@link Double#parseDouble(String)} gives. Lines that
+ * can't be read are reported with their reason.
+ *
+ * @author Erik Pereira Alves
+ */
+public class AirportFileParser {
+
+	/** the columns of an airport line */
+	public static final int COLUMNS = 11;
+
+	private static final int CHUNK_BYTES = Integer.getInteger("weather.loader.chunk", 1 << 20);
+
+	/** the longest value shared between lines, see Chunk#shared */
+	private static final int SHARED_LENGTH = 48;
+
+	/** the exact powers of ten of a double */
+	private static final double[] POW10 = new double[23];
+
+	/** the exact powers of ten of a float */
+	private static final float[] POW10F = new float[11];
+
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++) {
+			POW10[i] = POW10[i - 1] * 10;
+		}
+		POW10F[0] = 1;
+		for (int i = 1; i < POW10F.length; i++) {
+			POW10F[i] = POW10F[i - 1] * 10;
+		}
+	}
+
+	/** a line that couldn't be read */
+	public static final class Rejection {
+
+		/** the line number, from 1 */
+		public final int line;
+
+		public final String reason;
+
+		Rejection(int line, String reason) {
+			this.line = line;
+			this.reason = reason;
+		}
+
+		@Override
+		public String toString() {
+			return "line " + line + ": " + reason;
+		}
+	}
+
+	/** the outcome of a parse */
+	public static final class Result {
+
+		/** the airports, in file order */
+		public final List<AirportData> airports;
+
+		/** the rejected lines, in file order */
+		public final List<Rejection> rejected;
+
+		/** the lines read, blank ones included */
+		public final int lines;
+
+		Result(List<AirportData> airports, List<Rejection> rejected, int lines) {
+			this.airports = airports;
+			this.rejected = rejected;
+			this.lines = lines;
+		}
+	}
+
+	/**
+	 * Parse an airports file.
+	 *
+	 * @param file
+	 *            the file
+	 * @return the airports and the rejected lines
+	 * @throws IOException
+	 *             if the file can't be read
+	 */
+	public static Result parse(File file) throws IOException {
+		ByteBuffer data;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		// chunk boundaries, each moved past the end of the line it falls in
+		int size = data.limit();
+		int count = Math.max(1, size / Math.max(1, CHUNK_BYTES));
+		int[] bounds = new int[count + 1];
+		bounds[count] = size;
+		for (int i = 1; i < count; i++) {
+			int at = Math.max(bounds[i - 1], (int) ((long) size * i / count));
+			while (at < size && data.get(at - 1) != '\n') {
+				at++;
+			}
+			bounds[i] = at;
+		}
+
+		List<Chunk> chunks = IntStream.range(0, count).parallel().mapToObj(i -> {
+			ByteBuffer slice = data.duplicate();
+			slice.position(bounds[i]);
+			byte[] bytes = new byte[bounds[i + 1] - bounds[i]];
+			slice.get(bytes);
+			return new Chunk(bytes).parse();
+		}).collect(Collectors.toList());
+
+		List<AirportData> airports = new ArrayList<>();
+		List<Rejection> rejected = new ArrayList<>();
+		int lines = 0;
+		for (Chunk chunk : chunks) {
+			airports.addAll(chunk.airports);
+			for (Rejection r : chunk.rejected) {
+				rejected.add(new Rejection(lines + r.line, r.reason));
+			}
+			lines += chunk.lines;
+		}
+		return new Result(airports, rejected, lines);
+	}
+
+	/**
+	 * Parse a single airport line.
+	 *
+	 * @param line
+	 *            the line
+	 * @return the airport, or null if the line can't be read
+	 */
+	public static AirportData parseLine(String line) {
+		Chunk chunk = new Chunk(line.getBytes(StandardCharsets.UTF_8)).parse();
+		return chunk.airports.isEmpty() ? null : chunk.airports.get(0);
+	}
+
+	/** whole lines, parsed by one thread */
+	private static final class Chunk {
+
+		private final byte[] data;
+
+		private final List<AirportData> airports = new ArrayList<>();
+
+		/** the rejections, numbered from 1 within the chunk */
+		private final List<Rejection> rejected = new ArrayList<>();
+
+		private int lines;
+
+		/** the unquoted fields of the current line */
+		private byte[] fields = new byte[512];
+
+		/** recent values of the repeating columns, by hash */
+		private final String[] shared = new String[1024];
+
+		private final int[] starts = new int[COLUMNS + 1];
+
+		private final int[] ends = new int[COLUMNS + 1];
+
+		Chunk(byte[] data) {
+			this.data = data;
+		}
+
+		Chunk parse() {
+			int at = 0;
+			while (at < data.length) {
+				int end = at;
+				while (end < data.length && data[end] != '\n') {
+					end++;
+				}
+				lines++;
+				int last = end > at && data[end - 1] == '\r' ? end - 1 : end;
+				if (last > at) {
+					String reason = parseLine(at, last);
+					if (reason != null) {
+						rejected.add(new Rejection(lines, reason));
+					}
+				}
+				at = end + 1;
+			}
+			return this;
+		}
+
+		/** @return null if parsed, else why the line was rejected */
+		private String parseLine(int at, int end) {
+			if (fields.length < end - at) {
+				fields = new byte[Math.max(end - at, 2 * fields.length)];
+			}
+			int columns = 0;
+			int length = 0;
+			while (true) {
+				int start = length;
+				if (at < end && data[at] == '"') {
+					at++;
+					while (true) {
+						if (at == end) {
+							return "unterminated quote in column " + (columns + 1);
+						}
+						byte b = data[at++];
+						if (b == '"') {
+							if (at < end && data[at] == '"') {
+								at++;
+							} else {
+								break;
+							}
+						}
+						fields[length++] = b;
+					}
+					if (at < end && data[at] != ',') {
+						return "text after the closing quote in column " + (columns + 1);
+					}
+				} else {
+					while (at < end && data[at] != ',') {
+						fields[length++] = data[at++];
+					}
+				}
+				if (columns < starts.length) {
+					// \N is a missing value
+					boolean missing = length - start == 2 && fields[start] == '\\' && fields[start + 1] == 'N';
+					starts[columns] = start;
+					ends[columns] = missing ? start : length;
+				}
+				columns++;
+				if (at == end) {
+					break;
+				}
+				// the comma
+				at++;
+			}
+
+			if (columns < COLUMNS) {
+				return "expected " + COLUMNS + " columns, found " + columns;
+			}
+			if (starts[4] == ends[4]) {
+				return "no iata code";
+			}
+			int pk;
+			double latitude;
+			double longitude;
+			double altitude;
+			float timezone;
+			try {
+				pk = parseInt(0);
+			} catch (NumberFormatException e) {
+				return "bad id";
+			}
+			try {
+				latitude = parseDouble(6);
+				longitude = parseDouble(7);
+			} catch (NumberFormatException e) {
+				return "bad coordinates";
+			}
+			try {
+				altitude = parseDouble(8);
+			} catch (NumberFormatException e) {
+				return "bad altitude";
+			}
+			try {
+				timezone = parseFloat(9);
+			} catch (NumberFormatException e) {
+				return "bad timezone";
+			}
+			airports.add(new AirportData(pk, text(1), shared(2), shared(3), text(4), text(5), latitude, longitude,
+					altitude, timezone, shared(10)));
+			return null;
+		}
+
+		private String text(int column) {
+			return new String(fields, starts[column], ends[column] - starts[column], StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * The text of a column whose values repeat a lot, like the country,
+		 * shared with the previous lines that had the same ascii value.
+		 */
+		private String shared(int column) {
+			int start = starts[column];
+			int length = ends[column] - start;
+			if (length > SHARED_LENGTH) {
+				return text(column);
+			}
+			int hash = 0;
+			for (int i = start; i < start + length; i++) {
+				if (fields[i] < 0) {
+					return text(column);
+				}
+				hash = 31 * hash + fields[i];
+			}
+			int index = (hash ^ hash >>> 16) & (shared.length - 1);
+			String cached = shared[index];
+			if (cached != null && cached.length() == length) {
+				int i = 0;
+				while (i < length && cached.charAt(i) == fields[start + i]) {
+					i++;
+				}
+				if (i == length) {
+					return cached;
+				}
+			}
+			cached = new String(fields, start, length, StandardCharsets.ISO_8859_1);
+			shared[index] = cached;
+			return cached;
+		}
+
+		private int parseInt(int column) {
+			int at = starts[column];
+			int end = ends[column];
+			boolean negative = at < end && fields[at] == '-';
+			if (negative) {
+				at++;
+			}
+			long value = 0;
+			if (at < end && end - at <= 9) {
+				for (; at < end && fields[at] >= '0' && fields[at] <= '9'; at++) {
+					value = value * 10 + fields[at] - '0';
+				}
+				if (at == end) {
+					return (int) (negative ? -value : value);
+				}
+			}
+			return Integer.parseInt(latin1(column));
+		}
+
+		private double parseDouble(int column) {
+			// beyond these bounds a single multiplication or division may round
+			if (scanDecimal(column) >= 0 && scratchDigits <= 15 && scratchExponent >= -22 && scratchExponent <= 22) {
+				double value = scratchExponent >= 0 ? scratchMantissa * POW10[scratchExponent]
+						: scratchMantissa / POW10[-scratchExponent];
+				return fields[starts[column]] == '-' ? -value : value;
+			}
+			return Double.parseDouble(latin1(column));
+		}
+
+		private float parseFloat(int column) {
+			if (scanDecimal(column) >= 0 && scratchDigits <= 7 && scratchExponent >= -10 && scratchExponent <= 10) {
+				float value = scratchExponent >= 0 ? scratchMantissa * POW10F[scratchExponent]
+						: scratchMantissa / POW10F[-scratchExponent];
+				return fields[starts[column]] == '-' ? -value : value;
+			}
+			return Float.parseFloat(latin1(column));
+		}
+
+		/** the decimal read by the last scanDecimal */
+		private long scratchMantissa;
+
+		private int scratchDigits;
+
+		private int scratchExponent;
+
+		/**
+		 * Read a plain decimal, [-]digits[.digits][e[-+]digits].
+		 *
+		 * @return the end of the decimal, or -1 if the field is not one
+		 */
+		private int scanDecimal(int column) {
+			int at = starts[column];
+			int end = ends[column];
+			if (at < end && fields[at] == '-') {
+				at++;
+			}
+			long mantissa = 0;
+			int digits = 0;
+			int exponent = 0;
+			int start = at;
+			for (; at < end && fields[at] >= '0' && fields[at] <= '9'; at++) {
+				if (digits > 0 || fields[at] != '0') {
+					if (++digits > 18) {
+						return -1;
+					}
+				}
+				mantissa = mantissa * 10 + fields[at] - '0';
+			}
+			boolean any = at > start;
+			if (at < end && fields[at] == '.') {
+				at++;
+				int fraction = at;
+				for (; at < end && fields[at] >= '0' && fields[at] <= '9'; at++) {
+					if (digits > 0 || fields[at] != '0') {
+						if (++digits > 18) {
+							return -1;
+						}
+					}
+					mantissa = mantissa * 10 + fields[at] - '0';
+					exponent--;
+				}
+				any |= at > fraction;
+			}
+			if (!any) {
+				return -1;
+			}
+			if (at < end && (fields[at] == 'e' || fields[at] == 'E')) {
+				at++;
+				boolean negative = at < end && fields[at] == '-';
+				if (at < end && (fields[at] == '-' || fields[at] == '+')) {
+					at++;
+				}
+				int value = 0;
+				int digitsStart = at;
+				for (; at < end && fields[at] >= '0' && fields[at] <= '9'; at++) {
+					value = value * 10 + fields[at] - '0';
+					if (value > 1000) {
+						return -1;
+					}
+				}
+				if (at == digitsStart) {
+					return -1;
+				}
+				exponent += negative ? -value : value;
+			}
+			if (at != end) {
+				return -1;
+			}
+			scratchMantissa = mantissa;
+			scratchDigits = digits;
+			scratchExponent = exponent;
+			return at;
+		}
+
+		/** the field as a string, for the JDK parsers */
+		private String latin1(int column) {
+			return new String(fields, starts[column], ends[column] - starts[column], StandardCharsets.ISO_8859_1);
+		}
+	}
+}
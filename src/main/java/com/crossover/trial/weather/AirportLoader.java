@@ -4,23 +4,25 @@ import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.WebTarget;
 
-import static com.crossover.trial.weather.AirportLoader.airports;
-import static com.crossover.trial.weather.AirportLoader.getAirports;
 import static com.crossover.trial.weather.RestWeatherQueryEndpoint.atmosphericInformation;
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.responseCache;
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.weatherHistory;
 
 import java.io.*;
 import java.net.URL;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.logging.Logger;
 
 /**
@@ -43,14 +45,42 @@ public class AirportLoader {
 
 	private String host = "http://localhost:8080/";
 
-	private static final String DEFAULT_SEPARATOR = ",";
+	private static File airportDataFile;
 
-	private static final int DEFAULT_FILE_COLUMN_SIZE = 11;
+	/** the published version of the catalog */
+	private static final AtomicReference<AirportCatalog> catalog = new AtomicReference<>(AirportCatalog.EMPTY);
 
-	private static File airportDataFile;
+	/** changes waiting for the next version, in arrival order */
+	private static final Queue<CatalogChange<?>> pendingChanges = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * All known airports, a read only view of the published version. An
+	 * iteration stays on the version it started on, a change published
+	 * meanwhile doesn't disturb it.
+	 */
+	protected static final List<AirportData> airports = new AbstractList<AirportData>() {
 
-	/** all known airports */
-	protected static List<AirportData> airports = new ArrayList<>();
+		@Override
+		public AirportData get(int index) {
+			return catalog().airports().get(index);
+		}
+
+		@Override
+		public int size() {
+			return catalog().airports().size();
+		}
+
+		@Override
+		public Iterator<AirportData> iterator() {
+			return catalog().airports().iterator();
+		}
+	};
+
+	/** the changes to the airports since the file was written */
+	private static AirportCatalogJournal catalogJournal;
+
+	/** guards the journal, see {@link #catalogJournal()} */
+	private static final Object journalLock = new Object();
 
 	/** if collection of airports in memory are up to date */
 	private static boolean upToDateFlag = true;
@@ -87,10 +117,6 @@ public class AirportLoader {
 
 		airportDataFile = file;
 
-		// auxiliary map to prevent repeated values being added to the arraylist
-		// of airports.
-		Map<String, AirportData> map = new LinkedHashMap<String, AirportData>();
-
 		if (isUpToDateFlag() && null != airports && airports.size() > 0) {
 			// if true, collection is in memory and up to date, no need to
 			// re-scan file for
@@ -99,29 +125,47 @@ public class AirportLoader {
 			return;
 		}
 
-		// get the latest airports in memory
-		String[] l;
-		Scanner scanner = new Scanner(airportDataFile);
-		airports.clear();// reset it
-		while (scanner.hasNext()) {
-			l = scanner.nextLine().replaceAll("\"", "").split(DEFAULT_SEPARATOR);
-			if (null != l && l.length == DEFAULT_FILE_COLUMN_SIZE) {
-				map.put(l[5],
-						new AirportData(Integer.parseInt(l[0]), l[1], l[2], l[3], l[4], l[5], Double.parseDouble(l[6]),
-								Double.parseDouble(l[7]), Double.parseDouble(l[8]), Float.parseFloat(l[9]), l[10]));
+		AirportCatalogJournal journal = catalogJournal();
+		// no change nor compaction between reading the file and replaying
+		// the journal, the catalog lock first like the compactions take it
+		synchronized (pendingChanges) {
+			synchronized (journal) {
+				List<AirportData> read = AirportCatalogSnapshot.load(airportDataFile);
+
+				// the last line of an airport wins, in the place of the first
+				List<AirportData> loaded = new ArrayList<>(read.size());
+				Map<String, Integer> seen = new HashMap<>(read.size() * 2);
+				for (AirportData ad : read) {
+					// airports added through the api have no icao code
+					Integer at = seen.putIfAbsent(ad.getIcao().isEmpty() ? ad.getIata() : ad.getIcao(), loaded.size());
+					if (null == at) {
+						loaded.add(ad);
+					} else {
+						loaded.set(at, ad);
+					}
+				}
 
-			}
+				// then the changes made since the file was last written
+				if (journal.hasChanges()) {
+					Map<String, AirportData> byIata = new LinkedHashMap<String, AirportData>();
+					for (AirportData ad : loaded) {
+						byIata.put(ad.getIata(), ad);
+					}
+					journal.replay(byIata);
+					loaded = new ArrayList<>(byIata.values());
+				}
 
+				// the airports get new slots
+				catalog.set(AirportCatalog.of(catalog.get().version() + 1, loaded));
+				atmosphericInformation.reset(loaded.size());
+				responseCache.invalidateAll();
+				weatherHistory.clear();
+			}
 		}
 
-		airports.addAll(map.values());
-		atmosphericInformation = new LinkedList<>(Collections.nCopies(airports.size(), new AtmosphericInformation()));
-
 		// collection of airports in memory are up to date now..
 		setUpToDateFlag(true);
 
-		scanner.close();
-
 	}
 
 	/*
@@ -149,6 +193,11 @@ public class AirportLoader {
 	// just in case tester didn't pass the airport.dat file as argument.
 	// disregard this method.
 	public static File getAirportsDatFile() {
+		if (null != System.getProperty("weather.airports.file")) {
+			airportDataFile = new File(System.getProperty("weather.airports.file"));
+			return airportDataFile;
+		}
+
 		File dir = new File(new AirportLoader().getClass().getResource(".").getPath());
 		String path = dir.toString();
 
@@ -171,37 +220,110 @@ public class AirportLoader {
 			getAirports();
 		}
 
-		for (AirportData data : airports) {
-			if (data.getIata().equalsIgnoreCase(iataCode)) {
-				return data;
-			}
+		return catalog().registry().find(iataCode);
+	}
+
+	/** @return the published version of the catalog, to use for a whole request */
+	public static AirportCatalog catalog() {
+		return catalog.get();
+	}
 
+	/**
+	 * Change the catalog and publish the result as a new version. Changes made
+	 * while a version is being built wait for it and then go together into the
+	 * next one, so a burst of admin calls copies the catalog once.
+	 *
+	 * @param change
+	 *            applies the change to the next version, it may run on the
+	 *            thread of another change
+	 * @return the result of the change
+	 */
+	public static <T> T changeCatalog(Function<AirportCatalog.Builder, T> change) {
+		CatalogChange<T> pending = new CatalogChange<>(change);
+		pendingChanges.add(pending);
+		synchronized (pendingChanges) {
+			if (!pending.done) {
+				AirportCatalog.Builder next = catalog.get().edit();
+				List<CatalogChange<?>> batch = new ArrayList<>();
+				for (CatalogChange<?> queued; null != (queued = pendingChanges.poll());) {
+					queued.apply(next);
+					batch.add(queued);
+				}
+				catalog.set(next.build());
+				for (CatalogChange<?> applied : batch) {
+					applied.done = true;
+				}
+			}
 		}
-		return null;
+		if (null != pending.error) {
+			throw pending.error;
+		}
+		return pending.result;
+	}
 
+	/**
+	 * Persist an added or updated airport, see {@link AirportCatalogJournal}.
+	 * The airports in memory stay up to date. Called within the change, see
+	 * {@link #changeCatalog(Function)}, so the journal has the changes in the
+	 * order of the versions.
+	 *
+	 * @param ad
+	 *            the airport
+	 */
+	public static void journalAirport(AirportData ad) {
+		catalogJournal().added(ad);
 	}
 
-	// if it were a real database i wouldnt have to worry about DML concurrency.
-	// but since it's a file..
-	public synchronized static void updateAirportDataFile() {
+	/**
+	 * Persist a removed airport, see {@link AirportCatalogJournal}. Called
+	 * within the change too.
+	 *
+	 * @param iataCode
+	 *            the airport code
+	 */
+	public static void journalRemoval(String iataCode) {
+		catalogJournal().removed(iataCode);
+	}
 
-		Path path = airportDataFile.toPath();
+	/**
+	 * @return the journal of the current data file; taken within the changes,
+	 *         so not under the lock of a reload
+	 */
+	private static AirportCatalogJournal catalogJournal() {
+		synchronized (journalLock) {
+			if (null == airportDataFile) {
+				airportDataFile = getAirportsDatFile();
+			}
+			if (null == catalogJournal || !catalogJournal.dataFile().equals(airportDataFile)) {
+				catalogJournal = new AirportCatalogJournal(airportDataFile, pendingChanges,
+						() -> catalog().airports());
+			}
+			return catalogJournal;
+		}
+	}
 
-		try (BufferedWriter writer = Files.newBufferedWriter(path)) {
-			for (int i = 0; i < airports.size(); i++) {
+	/** a change waiting for its version, see {@link #changeCatalog(Function)} */
+	private static final class CatalogChange<T> {
 
-				writer.write(airports.get(i).writeToFile(i + 1));
-				if (i < airports.size() - 1) {
-					writer.write(System.getProperty("line.separator"));
-				}
+		private final Function<AirportCatalog.Builder, T> change;
 
-			}
+		/** guarded by the pending changes */
+		private boolean done;
+
+		private T result;
 
-		} catch (IOException e) {
-			LOGGER.warning("IOException when trying to write to airports.dat");
+		private RuntimeException error;
+
+		CatalogChange(Function<AirportCatalog.Builder, T> change) {
+			this.change = change;
+		}
+
+		void apply(AirportCatalog.Builder next) {
+			try {
+				result = change.apply(next);
+			} catch (RuntimeException e) {
+				error = e;
+			}
 		}
-		// flat "out date" the current List found in memory. So that next client
-		// refreshes it for everyone.
-		setUpToDateFlag(false);
 	}
 }
@@ -0,0 +1,336 @@
+package com.crossover.trial.weather;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The one place where airport codes are resolved. Every known airport gets a
+ * stable integer slot, and both its IATA and its 4 letter ICAO codes map to
+ * that slot. Like the lookup it replaces, the match is exact, case
+ * sensitive. An airport is removed by its IATA code only.
+ *
+ * Codes are packed into an int, one byte per character, so a lookup neither
+ * hashes a String nor allocates. Codes of 1 to 4 printable ascii characters
+ * pack without colliding, so a 3 letter IATA code never resolves to an ICAO
+ * entry nor the other way round. Other codes are never resolved. The keys live in an open addressing table with linear
+ * probing, a deletion shifts back the entries of its probe sequence so no
+ * tombstone is left behind. Slots are handed out in registration order and
+ * never reused, a reader holding the slot of a removed airport can't end up
+ * looking at another airport.
+ *
+ * Readers are optimistic and lock free, writers (the airport admin path) take
+ * the write lock.
+ *
+ * @author Erik Pereira Alves
+ */
+public class AirportRegistry {
+
+	/** returned for unknown or malformed codes */
+	public static final int NO_SLOT = -1;
+
+	/** packed key of an empty bucket, no valid code packs to 0 */
+	private static final int EMPTY = 0;
+
+	static final int INITIAL_CAPACITY = 1 << 11;
+
+	private final StampedLock lock = new StampedLock();
+
+	/** open addressing table, key at 2 * bucket and slot at 2 * bucket + 1 */
+	private int[] table = new int[2 * INITIAL_CAPACITY];
+
+	/** number of keys in the table */
+	private int keys;
+
+	/** the airports indexed by slot, null once removed */
+	private AirportData[] airports = new AirportData[INITIAL_CAPACITY];
+
+	/** the next slot to hand out */
+	private int slots;
+
+	/**
+	 * Pack a code of up to 4 characters in an int.
+	 *
+	 * @param code
+	 *            the airport code
+	 * @return the packed key, or {@link #EMPTY} if the code can't be packed
+	 */
+	static int pack(String code) {
+		if (code == null || code.isEmpty() || code.length() > 4) {
+			return EMPTY;
+		}
+		int key = 0;
+		for (int i = 0; i < code.length(); i++) {
+			char c = code.charAt(i);
+			if (c <= ' ' || c > '~') {
+				return EMPTY;
+			}
+			key = key << 8 | c;
+		}
+		return key;
+	}
+
+	/**
+	 * Resolve an IATA or ICAO code.
+	 *
+	 * @param code
+	 *            the airport code
+	 * @return the slot of the airport or {@link #NO_SLOT}
+	 */
+	public int slotOf(String code) {
+		int key = pack(code);
+		if (key == EMPTY) {
+			return NO_SLOT;
+		}
+		long stamp = lock.tryOptimisticRead();
+		int slot = find(table, key);
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				slot = find(table, key);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		return slot;
+	}
+
+	/**
+	 * Resolve an IATA or ICAO code to its airport.
+	 *
+	 * @param code
+	 *            the airport code
+	 * @return airport data or null if not found
+	 */
+	public AirportData find(String code) {
+		int slot = slotOf(code);
+		return slot == NO_SLOT ? null : airport(slot);
+	}
+
+	/**
+	 * @return the airport in the given slot, null if it has been removed
+	 */
+	public AirportData airport(int slot) {
+		long stamp = lock.tryOptimisticRead();
+		AirportData[] current = airports;
+		AirportData ad = slot >= 0 && slot < current.length ? current[slot] : null;
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				ad = slot >= 0 && slot < slots ? airports[slot] : null;
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		return ad;
+	}
+
+	/** @return the number of slots handed out so far, removed airports included */
+	public int slotCount() {
+		long stamp = lock.tryOptimisticRead();
+		int count = slots;
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				count = slots;
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Give an airport the next free slot and index its codes. A code that is
+	 * already known keeps pointing at the airport registered first.
+	 *
+	 * @return the slot of the airport
+	 */
+	public int register(AirportData ad) {
+		long stamp = lock.writeLock();
+		try {
+			int slot = slots++;
+			if (slot == airports.length) {
+				airports = Arrays.copyOf(airports, 2 * airports.length);
+			}
+			airports[slot] = ad;
+			insert(pack(ad.getIata()), slot);
+			insert(icaoKey(ad), slot);
+			return slot;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Forget an airport, its slot is not handed out again.
+	 *
+	 * @param iataCode
+	 *            the IATA code of the airport, an ICAO code removes nothing
+	 * @return the slot the airport was in, or {@link #NO_SLOT}
+	 */
+	public int remove(String iataCode) {
+		long stamp = lock.writeLock();
+		try {
+			int key = pack(iataCode);
+			int slot = key == EMPTY ? NO_SLOT : find(table, key);
+			if (slot != NO_SLOT && !airports[slot].getIata().equals(iataCode)) {
+				slot = NO_SLOT;
+			}
+			if (slot != NO_SLOT) {
+				AirportData ad = airports[slot];
+				delete(pack(ad.getIata()), slot);
+				delete(icaoKey(ad), slot);
+				airports[slot] = null;
+			}
+			return slot;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Put an updated copy of an airport in its slot. The codes must not change.
+	 *
+	 * @param slot
+	 *            the slot of the airport
+	 * @param ad
+	 *            the updated airport
+	 */
+	public void replace(int slot, AirportData ad) {
+		long stamp = lock.writeLock();
+		try {
+			airports[slot] = ad;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/** @return a registry resolving the same codes to the same slots */
+	public AirportRegistry copy() {
+		AirportRegistry copy = new AirportRegistry();
+		long stamp = lock.readLock();
+		try {
+			copy.table = table.clone();
+			copy.keys = keys;
+			copy.airports = airports.clone();
+			copy.slots = slots;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+		return copy;
+	}
+
+	/** forget every airport and register the given ones, slot 0 first */
+	public void rebuild(Collection<AirportData> all) {
+		long stamp = lock.writeLock();
+		try {
+			int capacity = INITIAL_CAPACITY;
+			while (capacity < 4 * all.size()) {
+				capacity <<= 1;
+			}
+			table = new int[2 * capacity];
+			airports = new AirportData[capacity];
+			keys = 0;
+			slots = 0;
+			for (AirportData ad : all) {
+				int slot = slots++;
+				airports[slot] = ad;
+				insert(pack(ad.getIata()), slot);
+				insert(icaoKey(ad), slot);
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/** @return the packed ICAO code, {@link #EMPTY} unless it has 4 characters */
+	private static int icaoKey(AirportData ad) {
+		String icao = ad.getIcao();
+		return icao != null && icao.length() == 4 ? pack(icao) : EMPTY;
+	}
+
+	/**
+	 * Linear probing lookup, bounded so that a torn optimistic read can't loop
+	 * forever.
+	 */
+	private static int find(int[] table, int key) {
+		int mask = table.length / 2 - 1;
+		for (int i = 0, bucket = hash(key) & mask; i <= mask; i++, bucket = (bucket + 1) & mask) {
+			int k = table[2 * bucket];
+			if (k == key) {
+				return table[2 * bucket + 1];
+			}
+			if (k == EMPTY) {
+				return NO_SLOT;
+			}
+		}
+		return NO_SLOT;
+	}
+
+	private void insert(int key, int slot) {
+		if (key == EMPTY || find(table, key) != NO_SLOT) {
+			return;
+		}
+		if (2 * (keys + 1) > table.length / 2) {
+			resize();
+		}
+		int mask = table.length / 2 - 1;
+		int bucket = hash(key) & mask;
+		while (table[2 * bucket] != EMPTY) {
+			bucket = (bucket + 1) & mask;
+		}
+		table[2 * bucket + 1] = slot;
+		table[2 * bucket] = key;
+		keys++;
+	}
+
+	/** remove a key, shifting back the entries of its probe sequence */
+	private void delete(int key, int slot) {
+		if (key == EMPTY) {
+			return;
+		}
+		int[] t = table;
+		int mask = t.length / 2 - 1;
+		int bucket = hash(key) & mask;
+		while (t[2 * bucket] != key) {
+			if (t[2 * bucket] == EMPTY) {
+				return;
+			}
+			bucket = (bucket + 1) & mask;
+		}
+		if (t[2 * bucket + 1] != slot) {
+			// the code belongs to another airport registered first
+			return;
+		}
+		int hole = bucket;
+		for (int next = (hole + 1) & mask; t[2 * next] != EMPTY; next = (next + 1) & mask) {
+			int home = hash(t[2 * next]) & mask;
+			// move the entry back unless its home lies cyclically in (hole, next]
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				t[2 * hole] = t[2 * next];
+				t[2 * hole + 1] = t[2 * next + 1];
+				hole = next;
+			}
+		}
+		t[2 * hole] = EMPTY;
+		keys--;
+	}
+
+	private void resize() {
+		int[] old = table;
+		table = new int[2 * old.length];
+		keys = 0;
+		for (int i = 0; i < old.length; i += 2) {
+			if (old[i] != EMPTY) {
+				insert(old[i], old[i + 1]);
+			}
+		}
+	}
+
+	/** @return the home bucket of a key, before masking */
+	static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
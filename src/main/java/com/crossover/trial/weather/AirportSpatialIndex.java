@@ -0,0 +1,216 @@
+package com.crossover.trial.weather;
+
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.R;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A latitude/longitude grid over the known airports, used to answer radius
+ * queries without measuring the distance to every airport in the catalog. A
+ * query only visits the cells overlapping the bounding box of the search
+ * circle on the sphere, so its cost follows the size of the circle and not the
+ * size of the catalog.
+ *
+ * Cells are copy-on-write arrays of airport slots (see
+ * {@link AirportRegistry}): writers, the airport admin path, are serialized
+ * and readers never lock.
+ *
+ * @author Erik Pereira Alves
+ */
+public class AirportSpatialIndex {
+
+	/** width and height of a grid cell, in degrees */
+	static final double CELL_DEGREES = 2.0;
+
+	static final int LAT_BANDS = (int) (180 / CELL_DEGREES);
+
+	static final int LON_CELLS = (int) (360 / CELL_DEGREES);
+
+	static final int CELLS = LAT_BANDS * LON_CELLS;
+
+	private static final int[] EMPTY = new int[0];
+
+	private final AtomicReferenceArray<int[]> cells = new AtomicReferenceArray<>(CELLS);
+
+	public AirportSpatialIndex() {
+		clear();
+	}
+
+	/** drop every airport and index the ones known to the registry */
+	public synchronized void rebuild(AirportRegistry registry) {
+		clear();
+		for (int slot = 0; slot < registry.slotCount(); slot++) {
+			AirportData ad = registry.airport(slot);
+			if (ad != null) {
+				add(slot, ad);
+			}
+		}
+	}
+
+	/** @return an index holding the same airports, sharing the cells */
+	public synchronized AirportSpatialIndex copy() {
+		AirportSpatialIndex copy = new AirportSpatialIndex();
+		for (int i = 0; i < cells.length(); i++) {
+			copy.cells.set(i, cells.get(i));
+		}
+		return copy;
+	}
+
+	public synchronized void clear() {
+		for (int i = 0; i < cells.length(); i++) {
+			cells.set(i, EMPTY);
+		}
+	}
+
+	/** index the airport in the given slot at its current latitude and longitude */
+	public synchronized void add(int slot, AirportData ad) {
+		int cell = cellOf(ad.getLatitude(), ad.getLongitude());
+		int[] current = cells.get(cell);
+		int[] updated = Arrays.copyOf(current, current.length + 1);
+		updated[current.length] = slot;
+		cells.set(cell, updated);
+	}
+
+	/**
+	 * Remove an airport from the index. Must be called before the airport
+	 * coordinates are changed, the cell is looked up from them.
+	 */
+	public synchronized void remove(int slot, AirportData ad) {
+		int cell = cellOf(ad.getLatitude(), ad.getLongitude());
+		int[] current = cells.get(cell);
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == slot) {
+				int[] updated = new int[current.length - 1];
+				System.arraycopy(current, 0, updated, 0, i);
+				System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+				cells.set(cell, updated);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Slots of the airports in the cells overlapping the circle of the given
+	 * radius around the center airport. The result is a superset of the
+	 * airports in the circle, callers still have to check the exact distance.
+	 *
+	 * @param center
+	 *            the airport at the center of the search
+	 * @param radius
+	 *            the search radius in km
+	 * @return the candidate slots, in no particular order
+	 */
+	public int[] candidates(AirportData center, double radius) {
+		return candidates(cells(center, radius));
+	}
+
+	/**
+	 * @param cells
+	 *            cells of this index, see {@link #cells(AirportData, double)}
+	 * @return the slots of the airports in the cells, in no particular order
+	 */
+	public int[] candidates(int[] cells) {
+		SlotBuffer retval = new SlotBuffer();
+		for (int cell : cells) {
+			retval.addAll(this.cells.get(cell));
+		}
+		return retval.toArray();
+	}
+
+	/**
+	 * The cells holding airports that overlap the circle of the given radius
+	 * around the center airport.
+	 *
+	 * @param center
+	 *            the airport at the center of the search
+	 * @param radius
+	 *            the search radius in km
+	 * @return the cells, see {@link #cellOf(double, double)}
+	 */
+	public int[] cells(AirportData center, double radius) {
+		SlotBuffer retval = new SlotBuffer();
+		double angle = radius / R;
+		if (angle >= Math.PI) {
+			for (int i = 0; i < cells.length(); i++) {
+				addIfOccupied(retval, i);
+			}
+			return retval.toArray();
+		}
+
+		double lat = Math.toRadians(center.getLatitude());
+		double minLat = lat - angle;
+		double maxLat = lat + angle;
+		double minLon = -Math.PI;
+		double maxLon = Math.PI;
+		double sinDeltaLon = Math.sin(angle) / Math.cos(lat);
+		boolean allLongitudes = minLat <= -Math.PI / 2 || maxLat >= Math.PI / 2 || sinDeltaLon >= 1;
+		if (!allLongitudes) {
+			// widest longitude span of the circle, reached at the tangent
+			// points and not at the center latitude
+			double deltaLon = Math.asin(sinDeltaLon);
+			double lon = Math.toRadians(center.getLongitude());
+			minLon = lon - deltaLon;
+			maxLon = lon + deltaLon;
+		}
+
+		int fromBand = latBand(Math.toDegrees(minLat));
+		int toBand = latBand(Math.toDegrees(maxLat));
+		int fromCell = lonCell(Math.toDegrees(minLon));
+		int span = allLongitudes ? LON_CELLS
+				: Math.min(LON_CELLS, lonCell(Math.toDegrees(maxLon)) - fromCell + 1);
+		for (int band = fromBand; band <= toBand; band++) {
+			for (int i = 0; i < span; i++) {
+				addIfOccupied(retval, band * LON_CELLS + Math.floorMod(fromCell + i, LON_CELLS));
+			}
+		}
+		return retval.toArray();
+	}
+
+	private void addIfOccupied(SlotBuffer buffer, int cell) {
+		if (cells.get(cell).length > 0) {
+			buffer.add(cell);
+		}
+	}
+
+	/** @return the cell of a position, in [0, {@link #CELLS}) */
+	static int cellOf(double latitude, double longitude) {
+		return latBand(latitude) * LON_CELLS + Math.floorMod(lonCell(longitude), LON_CELLS);
+	}
+	private static int latBand(double latitude) {
+		int band = (int) Math.floor((latitude + 90) / CELL_DEGREES);
+		return Math.max(0, Math.min(LAT_BANDS - 1, band));
+	}
+
+	/** unwrapped longitude cell, may fall outside [0, LON_CELLS) */
+	private static int lonCell(double longitude) {
+		return (int) Math.floor((longitude + 180) / CELL_DEGREES);
+	}
+
+	/** a growable int array, to collect slots without boxing them */
+	private static class SlotBuffer {
+
+		private int[] slots = new int[64];
+
+		private int size;
+
+		void add(int slot) {
+			if (size == slots.length) {
+				slots = Arrays.copyOf(slots, 2 * slots.length);
+			}
+			slots[size++] = slot;
+		}
+
+		void addAll(int[] more) {
+			if (size + more.length > slots.length) {
+				slots = Arrays.copyOf(slots, Math.max(2 * slots.length, size + more.length));
+			}
+			System.arraycopy(more, 0, slots, size, more.length);
+			size += more.length;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(slots, size);
+		}
+	}
+}
@@ -1,99 +1,173 @@
 package com.crossover.trial.weather;
 
 /**
- * encapsulates sensor information for a particular location
+ * encapsulates sensor information for a particular location.
+ *
+ * Instances are immutable snapshots: an update builds a new snapshot with
+ * {@link #with(DataPointType, DataPoint, long)} and publishes it in the
+ * {@link AtmosphericStateTable}, so readers always see a consistent view. Each
+ * snapshot is encoded to json once, by its first reader, see
+ * {@link AtmosphericInformationWriter}; one replaced before anyone reads it
+ * is never encoded.
  */
 class AtmosphericInformation {
 
 	/** temperature in degrees celsius */
-	private DataPoint temperature;
+	private final DataPoint temperature;
 
 	/** wind speed in km/h */
-	private DataPoint wind;
+	private final DataPoint wind;
 
 	/** humidity in percent */
-	private DataPoint humidity;
+	private final DataPoint humidity;
 
 	/** precipitation in cm */
-	private DataPoint precipitation;
+	private final DataPoint precipitation;
 
 	/** pressure in mmHg */
-	private DataPoint pressure;
+	private final DataPoint pressure;
 
 	/** cloud cover percent from 0 - 100 (integer) */
-	private DataPoint cloudCover;
+	private final DataPoint cloudCover;
 
 	/** the last time this data was updated, in milliseconds since UTC epoch */
-	private long lastUpdateTime;
+	private final long lastUpdateTime;
 
-	public AtmosphericInformation() {
+	/** the json encoding of this snapshot, null until first read */
+	private volatile byte[] json;
 
+	public AtmosphericInformation() {
+		this(null, null, null, null, null, null, 0);
 	}
 
 	protected AtmosphericInformation(DataPoint temperature, DataPoint wind, DataPoint humidity, DataPoint percipitation,
 			DataPoint pressure, DataPoint cloudCover) {
+		this(temperature, wind, humidity, percipitation, pressure, cloudCover, System.currentTimeMillis());
+	}
+
+	private AtmosphericInformation(DataPoint temperature, DataPoint wind, DataPoint humidity, DataPoint percipitation,
+			DataPoint pressure, DataPoint cloudCover, long lastUpdateTime) {
 		this.temperature = temperature;
 		this.wind = wind;
 		this.humidity = humidity;
 		this.precipitation = percipitation;
 		this.pressure = pressure;
 		this.cloudCover = cloudCover;
-		this.lastUpdateTime = System.currentTimeMillis();
+		this.lastUpdateTime = lastUpdateTime;
 	}
 
-	public DataPoint getTemperature() {
-		return temperature;
+	/**
+	 * A copy of this snapshot with the data point of the given type replaced.
+	 *
+	 * @param type
+	 *            the point type to replace
+	 * @param dp
+	 *            the new data point
+	 * @param updateTime
+	 *            the update time, in milliseconds since UTC epoch
+	 * @return the new snapshot
+	 */
+	public AtmosphericInformation with(DataPointType type, DataPoint dp, long updateTime) {
+		switch (type) {
+		case TEMPERATURE:
+			return new AtmosphericInformation(dp, wind, humidity, precipitation, pressure, cloudCover, updateTime);
+		case WIND:
+			return new AtmosphericInformation(temperature, dp, humidity, precipitation, pressure, cloudCover,
+					updateTime);
+		case HUMIDTY:
+			return new AtmosphericInformation(temperature, wind, dp, precipitation, pressure, cloudCover, updateTime);
+		case PRECIPITATION:
+			return new AtmosphericInformation(temperature, wind, humidity, dp, pressure, cloudCover, updateTime);
+		case PRESSURE:
+			return new AtmosphericInformation(temperature, wind, humidity, precipitation, dp, cloudCover, updateTime);
+		case CLOUDCOVER:
+			return new AtmosphericInformation(temperature, wind, humidity, precipitation, pressure, dp, updateTime);
+		}
+		throw new IllegalArgumentException("unknown point type " + type);
+	}
+
+	/**
+	 * Rebuild a snapshot, for instance from persisted state.
+	 *
+	 * @param points
+	 *            the data points indexed by {@link DataPointType} ordinal, null
+	 *            where missing
+	 * @param lastUpdateTime
+	 *            the last update time, in milliseconds since UTC epoch
+	 * @return the snapshot
+	 */
+	static AtmosphericInformation of(DataPoint[] points, long lastUpdateTime) {
+		return new AtmosphericInformation(points[DataPointType.TEMPERATURE.ordinal()],
+				points[DataPointType.WIND.ordinal()], points[DataPointType.HUMIDTY.ordinal()],
+				points[DataPointType.PRECIPITATION.ordinal()], points[DataPointType.PRESSURE.ordinal()],
+				points[DataPointType.CLOUDCOVER.ordinal()], lastUpdateTime);
+	}
+
+	/**
+	 * @param type
+	 *            a point type
+	 * @return the data point of the given type, null if never collected
+	 */
+	DataPoint get(DataPointType type) {
+		switch (type) {
+		case TEMPERATURE:
+			return temperature;
+		case WIND:
+			return wind;
+		case HUMIDTY:
+			return humidity;
+		case PRECIPITATION:
+			return precipitation;
+		case PRESSURE:
+			return pressure;
+		case CLOUDCOVER:
+			return cloudCover;
+		}
+		throw new IllegalArgumentException("unknown point type " + type);
+	}
+
+	/** @return true if at least one data point was collected */
+	boolean hasReadings() {
+		return temperature != null || wind != null || humidity != null || precipitation != null || pressure != null
+				|| cloudCover != null;
 	}
 
-	public void setTemperature(DataPoint temperature) {
-		this.temperature = temperature;
+	public DataPoint getTemperature() {
+		return temperature;
 	}
 
 	public DataPoint getWind() {
 		return wind;
 	}
 
-	public void setWind(DataPoint wind) {
-		this.wind = wind;
-	}
-
 	public DataPoint getHumidity() {
 		return humidity;
 	}
 
-	public void setHumidity(DataPoint humidity) {
-		this.humidity = humidity;
-	}
-
 	public DataPoint getPrecipitation() {
 		return precipitation;
 	}
 
-	public void setPrecipitation(DataPoint precipitation) {
-		this.precipitation = precipitation;
-	}
-
 	public DataPoint getPressure() {
 		return pressure;
 	}
 
-	public void setPressure(DataPoint pressure) {
-		this.pressure = pressure;
-	}
-
 	public DataPoint getCloudCover() {
 		return cloudCover;
 	}
 
-	public void setCloudCover(DataPoint cloudCover) {
-		this.cloudCover = cloudCover;
-	}
-
 	protected long getLastUpdateTime() {
 		return this.lastUpdateTime;
 	}
 
-	protected void setLastUpdateTime(long lastUpdateTime) {
-		this.lastUpdateTime = lastUpdateTime;
+	/** @return the json encoding of this snapshot, not to be modified */
+	byte[] json() {
+		byte[] retval = json;
+		if (retval == null) {
+			// racing readers encode the same bytes, either copy will do
+			retval = AtmosphericInformationWriter.encode(this);
+			json = retval;
+		}
+		return retval;
 	}
 }
@@ -0,0 +1,31 @@
+package com.crossover.trial.weather;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An unmodifiable query result. Its own type lets
+ * {@link AtmosphericInformationWriter} write it from the pre-serialized
+ * snapshots instead of walking the object graph.
+ *
+ * @author Erik Pereira Alves
+ */
+class AtmosphericInformationList extends AbstractList<AtmosphericInformation> implements RandomAccess {
+
+	private final AtmosphericInformation[] elements;
+
+	public AtmosphericInformationList(List<AtmosphericInformation> elements) {
+		this.elements = elements.toArray(new AtmosphericInformation[elements.size()]);
+	}
+
+	@Override
+	public AtmosphericInformation get(int index) {
+		return elements[index];
+	}
+
+	@Override
+	public int size() {
+		return elements.length;
+	}
+}
@@ -0,0 +1,119 @@
+package com.crossover.trial.weather;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Writes query results by concatenating the json encoding each
+ * {@link AtmosphericInformation} snapshot computed once, when it was
+ * first read, instead of serializing the object graph on every read.
+ *
+ * The encoding is the one Jackson produces for these classes: properties in
+ * declaration order, null for missing data points and {@link Double#toString}
+ * for the means.
+ *
+ * @author Erik Pereira Alves
+ */
+@Provider
+@Produces(MediaType.APPLICATION_JSON)
+public class AtmosphericInformationWriter implements MessageBodyWriter<AtmosphericInformationList> {
+
+	private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+
+	/** one buffer per thread encoding snapshots, only the encoding is kept */
+	private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return AtmosphericInformationList.class.isAssignableFrom(type);
+	}
+
+	@Override
+	public long getSize(AtmosphericInformationList list, Class<?> type, Type genericType, Annotation[] annotations,
+			MediaType mediaType) {
+		long size = 2 + Math.max(0, list.size() - 1);
+		for (AtmosphericInformation ai : list) {
+			size += ai == null ? NULL.length : ai.json().length;
+		}
+		return size;
+	}
+
+	@Override
+	public void writeTo(AtmosphericInformationList list, Class<?> type, Type genericType, Annotation[] annotations,
+			MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
+			throws IOException, WebApplicationException {
+		entityStream.write('[');
+		long written = 2;
+		for (int i = 0; i < list.size(); i++) {
+			if (i > 0) {
+				entityStream.write(',');
+				written++;
+			}
+			AtmosphericInformation ai = list.get(i);
+			byte[] json = ai == null ? NULL : ai.json();
+			entityStream.write(json);
+			written += json.length;
+		}
+		entityStream.write(']');
+		WeatherMetrics.WEATHER_PAYLOAD.record(written);
+	}
+
+	/**
+	 * Encode a snapshot.
+	 *
+	 * @param ai
+	 *            the snapshot
+	 * @return its json encoding, ascii only
+	 */
+	static byte[] encode(AtmosphericInformation ai) {
+		StringBuilder json = BUFFER.get();
+		json.setLength(0);
+		json.append("{\"temperature\":");
+		append(json, ai.getTemperature());
+		json.append(",\"wind\":");
+		append(json, ai.getWind());
+		json.append(",\"humidity\":");
+		append(json, ai.getHumidity());
+		json.append(",\"precipitation\":");
+		append(json, ai.getPrecipitation());
+		json.append(",\"pressure\":");
+		append(json, ai.getPressure());
+		json.append(",\"cloudCover\":");
+		append(json, ai.getCloudCover());
+		json.append('}');
+		byte[] retval = new byte[json.length()];
+		for (int i = 0; i < retval.length; i++) {
+			retval[i] = (byte) json.charAt(i);
+		}
+		return retval;
+	}
+
+	private static void append(StringBuilder json, DataPoint dp) {
+		if (dp == null) {
+			json.append("null");
+			return;
+		}
+		json.append("{\"mean\":");
+		double mean = dp.getMean();
+		if (Double.isNaN(mean) || Double.isInfinite(mean)) {
+			// Jackson quotes the non numeric values
+			json.append('"').append(mean).append('"');
+		} else {
+			json.append(mean);
+		}
+		json.append(",\"first\":").append(dp.getFirst());
+		json.append(",\"second\":").append(dp.getSecond());
+		json.append(",\"third\":").append(dp.getThird());
+		json.append(",\"count\":").append(dp.getCount());
+		json.append('}');
+	}
+}
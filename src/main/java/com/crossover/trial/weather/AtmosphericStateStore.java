@@ -0,0 +1,552 @@
+package com.crossover.trial.weather;
+
+import static com.crossover.trial.weather.AirportLoader.catalog;
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.atmosphericInformation;
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.getAirportDataIdx;
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.weatherHistory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the {@link AtmosphericStateTable} across restarts, off unless
+ * <code>weather.&lt;name&gt;.dir</code> names a directory.
+ *
+ * Applied updates are appended to a write-ahead log of memory mapped segments
+ * of <code>weather.&lt;name&gt;.segment</code> bytes. Each ingest consumer
+ * stages the records of a batch in its own {@link Batch} and commits them at
+ * once: one lock and one copy per batch, and with
+ * <code>weather.&lt;name&gt;.sync</code> one flush to disk. Every
+ * <code>weather.&lt;name&gt;.snapshot</code> seconds the whole table is
+ * written to a compact binary snapshot, which makes the older segments
+ * obsolete. A full segment triggers a snapshot too, taken by the committing
+ * consumer itself when there is no periodic one, so the log never grows past
+ * a couple of segments.
+ *
+ * On startup {@link #recover()} loads the latest snapshot and replays the log
+ * written after it. Airports are recorded by code, as slots change between
+ * runs; the readings of airports no longer known are dropped.
+ *
+ * @author Erik Pereira Alves
+ */
+public class AtmosphericStateStore {
+
+	public final static Logger LOGGER = Logger.getLogger(AtmosphericStateStore.class.getName());
+
+	private static final int DEFAULT_SEGMENT_BYTES = 64 << 20;
+
+	private static final int DEFAULT_SNAPSHOT_SECONDS = 60;
+
+	private static final int SNAPSHOT_MAGIC = 0x57534e50;
+
+	private static final int SNAPSHOT_VERSION = 1;
+
+	private static final int TYPES = DataPointType.values().length;
+
+	/** the directory, null when disabled */
+	private final File dir;
+
+	private final int segmentBytes;
+
+	private final long snapshotSeconds;
+
+	private final boolean sync;
+
+	/** the segment being written and its number, guarded by this */
+	private MappedByteBuffer segment;
+
+	private long sequence;
+
+	/** records committed since the last snapshot, guarded by this */
+	private long dirty;
+
+	private ScheduledExecutorService snapshots;
+
+	/** serializes snapshots, taken by the timer, a full segment or close */
+	private final Object snapshotLock = new Object();
+
+	private final LongAdder records = new LongAdder();
+
+	private final LongAdder commits = new LongAdder();
+
+	private final LongAdder failures = new LongAdder();
+
+	private volatile long lastSnapshot;
+
+	private volatile int recovered;
+
+	/**
+	 * A store configured from the system properties of the given name.
+	 *
+	 * @param name
+	 *            the store name
+	 */
+	public AtmosphericStateStore(String name) {
+		this(System.getProperty("weather." + name + ".dir") == null ? null
+				: new File(System.getProperty("weather." + name + ".dir")),
+				Integer.getInteger("weather." + name + ".segment", DEFAULT_SEGMENT_BYTES),
+				Integer.getInteger("weather." + name + ".snapshot", DEFAULT_SNAPSHOT_SECONDS),
+				Boolean.getBoolean("weather." + name + ".sync"));
+	}
+
+	/**
+	 * @param dir
+	 *            the directory of the log and snapshots, null to disable
+	 * @param segmentBytes
+	 *            the size of a log segment
+	 * @param snapshotSeconds
+	 *            the seconds between snapshots, 0 for no periodic snapshot
+	 * @param sync
+	 *            whether each commit is flushed to disk
+	 */
+	public AtmosphericStateStore(File dir, int segmentBytes, long snapshotSeconds, boolean sync) {
+		this.dir = dir;
+		this.segmentBytes = Math.max(1 << 20, segmentBytes);
+		this.snapshotSeconds = snapshotSeconds;
+		this.sync = sync;
+	}
+
+	/** @return whether the state is persisted at all */
+	public boolean isEnabled() {
+		return dir != null;
+	}
+
+	/**
+	 * Load the latest snapshot, replay the log written after it and open a
+	 * new segment. Call once the airports are loaded and before serving.
+	 *
+	 * @return the number of airports and records restored
+	 * @throws IOException
+	 *             if the directory can't be read or written
+	 */
+	public synchronized int recover() throws IOException {
+		if (!isEnabled()) {
+			return 0;
+		}
+		long start = System.nanoTime();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("couldn't create " + dir);
+		}
+
+		TreeMap<Long, File> snapshotFiles = list("snapshot-", ".bin");
+		TreeMap<Long, File> segmentFiles = list("wal-", ".log");
+		long covered = -1;
+		int restored = 0;
+		for (Map.Entry<Long, File> snapshot : snapshotFiles.descendingMap().entrySet()) {
+			int loaded = loadSnapshot(snapshot.getValue());
+			if (loaded >= 0) {
+				covered = snapshot.getKey();
+				restored += loaded;
+				break;
+			}
+			LOGGER.warning("ignoring corrupt snapshot " + snapshot.getValue());
+		}
+		int replayed = 0;
+		for (Map.Entry<Long, File> wal : segmentFiles.tailMap(covered, false).entrySet()) {
+			replayed += replay(wal.getValue());
+		}
+		recovered = restored += replayed;
+		// the next snapshot compacts the replayed log
+		dirty = replayed;
+
+		sequence = Math.max(covered, segmentFiles.isEmpty() ? -1 : segmentFiles.lastKey());
+		roll();
+		if (snapshotSeconds > 0) {
+			snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "weather-store-snapshot");
+				thread.setDaemon(true);
+				return thread;
+			});
+			snapshots.scheduleWithFixedDelay(this::snapshotQuietly, snapshotSeconds, snapshotSeconds,
+					TimeUnit.SECONDS);
+		}
+		LOGGER.info("recovered " + restored + " airports and records from " + dir + " in "
+				+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+		return restored;
+	}
+
+	/** @return an empty batch, for one consumer */
+	public Batch batch() {
+		return new Batch();
+	}
+
+	/**
+	 * Append the records of a batch to the log and empty it. Failures are
+	 * logged: the updates are applied in memory either way. If the batch fills
+	 * the segment and there is no periodic snapshot, the snapshot is taken
+	 * before returning.
+	 *
+	 * @param batch
+	 *            the staged records
+	 */
+	public void commit(Batch batch) {
+		if (batch.count == 0) {
+			return;
+		}
+		ByteBuffer staged = batch.buffer;
+		staged.flip();
+		boolean snapshotNow = false;
+		try {
+			synchronized (this) {
+				if (segment == null) {
+					// not recovered yet, or closed
+					return;
+				}
+				if (segment.remaining() < staged.remaining() + 4) {
+					roll();
+					if (snapshots != null && !snapshots.isShutdown()) {
+						snapshots.execute(this::snapshotQuietly);
+					} else {
+						snapshotNow = true;
+					}
+				}
+				segment.put(staged);
+				if (sync) {
+					segment.force();
+				}
+				dirty += batch.count;
+			}
+			records.add(batch.count);
+			commits.increment();
+		} catch (IOException | BufferOverflowException e) {
+			failures.increment();
+			LOGGER.log(Level.SEVERE, "couldn't log " + batch.count + " updates", e);
+		} finally {
+			staged.clear();
+			batch.count = 0;
+		}
+		if (snapshotNow) {
+			// outside the lock, a snapshot takes it after the snapshot lock
+			snapshotQuietly();
+		}
+	}
+
+	/**
+	 * Write the whole table to a new snapshot and drop the log it covers.
+	 *
+	 * @throws IOException
+	 *             if the snapshot can't be written
+	 */
+	public void snapshot() throws IOException {
+		synchronized (snapshotLock) {
+			long covered;
+			synchronized (this) {
+				if (segment == null || dirty == 0) {
+					return;
+				}
+				// updates from now on go to the next segment; some may be in
+				// the snapshot as well, replaying them again is harmless
+				covered = sequence;
+				dirty = 0;
+				roll();
+			}
+
+			ByteBuffer out = ByteBuffer.allocate(64 << 10);
+			out.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(System.currentTimeMillis());
+			int countAt = out.position();
+			out.putInt(0);
+			int count = 0;
+			AirportRegistry registry = catalog().registry();
+			for (int slot = 0; slot < atmosphericInformation.size(); slot++) {
+				AtmosphericInformation ai = atmosphericInformation.get(slot);
+				AirportData ad = registry.airport(slot);
+				if (ai == null || ad == null || ai.getLastUpdateTime() == 0) {
+					continue;
+				}
+				if (out.remaining() < 512) {
+					out = grow(out);
+				}
+				putCode(out, ad.getIata());
+				out.putLong(ai.getLastUpdateTime());
+				int mask = 0;
+				for (DataPointType type : DataPointType.values()) {
+					mask |= ai.get(type) == null ? 0 : 1 << type.ordinal();
+				}
+				out.put((byte) mask);
+				for (DataPointType type : DataPointType.values()) {
+					if (ai.get(type) != null) {
+						putDataPoint(out, ai.get(type));
+					}
+				}
+				count++;
+			}
+			out.putInt(countAt, count);
+			if (out.remaining() < 8) {
+				out = grow(out);
+			}
+			CRC32 crc = new CRC32();
+			crc.update(out.array(), 0, out.position());
+			out.putLong(crc.getValue());
+			out.flip();
+
+			File tmp = new File(dir, "snapshot.tmp");
+			try (FileChannel channel = new RandomAccessFile(tmp, "rw").getChannel()) {
+				channel.truncate(0);
+				while (out.hasRemaining()) {
+					channel.write(out);
+				}
+				channel.force(true);
+			}
+			Files.move(tmp.toPath(), file("snapshot-", covered, ".bin").toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+			for (File old : list("snapshot-", ".bin").headMap(covered, false).values()) {
+				delete(old);
+			}
+			for (File old : list("wal-", ".log").headMap(covered, true).values()) {
+				delete(old);
+			}
+			lastSnapshot = System.currentTimeMillis();
+			LOGGER.fine("snapshot of " + count + " airports covers the log up to " + covered);
+		}
+	}
+
+	/** take a last snapshot and stop, for a shutdown */
+	public void close() {
+		if (snapshots != null) {
+			snapshots.shutdownNow();
+		}
+		snapshotQuietly();
+		synchronized (this) {
+			if (segment != null) {
+				segment.force();
+				segment = null;
+			}
+		}
+	}
+
+	/**
+	 * @return the store statistics, suitable for a json health report
+	 */
+	public Map<String, Object> stats() {
+		Map<String, Object> retval = new LinkedHashMap<>();
+		retval.put("enabled", isEnabled());
+		retval.put("recovered", recovered);
+		retval.put("records", records.sum());
+		retval.put("commits", commits.sum());
+		retval.put("failures", failures.sum());
+		retval.put("lastSnapshot", lastSnapshot);
+		return retval;
+	}
+
+	/**
+	 * The records of one ingest batch, staged off the log lock. Not thread
+	 * safe, each consumer has its own.
+	 */
+	public final class Batch {
+
+		private ByteBuffer buffer = ByteBuffer.allocate(32 << 10);
+
+		private int count;
+
+		private final CRC32 crc = new CRC32();
+
+		private Batch() {
+		}
+
+		/**
+		 * Stage an applied update.
+		 *
+		 * @param iata
+		 *            the airport code
+		 * @param type
+		 *            the point type
+		 * @param dp
+		 *            the data point
+		 * @param time
+		 *            the update time, in milliseconds since UTC epoch
+		 */
+		public void add(String iata, DataPointType type, DataPoint dp, long time) {
+			if (!isEnabled()) {
+				return;
+			}
+			if (buffer.remaining() < 256 + iata.length()) {
+				buffer = grow(buffer);
+			}
+			int start = buffer.position();
+			buffer.putInt(0);
+			buffer.put((byte) type.ordinal());
+			buffer.putLong(time);
+			putDataPoint(buffer, dp);
+			putCode(buffer, iata);
+			int length = buffer.position() - start - 4;
+			buffer.putInt(start, length);
+			crc.reset();
+			crc.update(buffer.array(), start + 4, length);
+			buffer.putInt((int) crc.getValue());
+			count++;
+		}
+	}
+
+	private void snapshotQuietly() {
+		try {
+			snapshot();
+		} catch (IOException | RuntimeException e) {
+			failures.increment();
+			LOGGER.log(Level.SEVERE, "couldn't write a snapshot", e);
+		}
+	}
+
+	/** start the next segment, holding the lock */
+	private void roll() throws IOException {
+		if (segment != null && sync) {
+			segment.force();
+		}
+		sequence++;
+		try (RandomAccessFile raf = new RandomAccessFile(file("wal-", sequence, ".log"), "rw")) {
+			raf.setLength(segmentBytes);
+			// the mapping outlives the channel
+			segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+		}
+	}
+
+	/** @return the airports restored, or -1 if the snapshot is corrupt */
+	private int loadSnapshot(File file) throws IOException {
+		ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		if (in.limit() < 28) {
+			return -1;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(in.array(), 0, in.limit() - 8);
+		if (crc.getValue() != in.getLong(in.limit() - 8) || in.getInt() != SNAPSHOT_MAGIC
+				|| in.getInt() != SNAPSHOT_VERSION) {
+			return -1;
+		}
+		in.getLong();
+		int count = in.getInt();
+		int restored = 0;
+		DataPoint[] points = new DataPoint[TYPES];
+		for (int i = 0; i < count; i++) {
+			String iata = getCode(in);
+			long lastUpdateTime = in.getLong();
+			int mask = in.get();
+			for (int type = 0; type < TYPES; type++) {
+				points[type] = (mask & 1 << type) == 0 ? null : getDataPoint(in);
+			}
+			int slot = getAirportDataIdx(iata);
+			if (atmosphericInformation.get(slot) != null) {
+				atmosphericInformation.put(slot, AtmosphericInformation.of(points, lastUpdateTime));
+				restored++;
+			}
+		}
+		return restored;
+	}
+
+	/** @return the records replayed, up to the end or a torn record */
+	private int replay(File file) throws IOException {
+		ByteBuffer in;
+		// mapped, so the unwritten tail of the segment is never read
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		CRC32 crc = new CRC32();
+		DataPointType[] types = DataPointType.values();
+		int replayed = 0;
+		try {
+			while (in.remaining() > 4) {
+				int length = in.getInt();
+				if (length <= 0 || length > in.remaining() - 4) {
+					break;
+				}
+				ByteBuffer payload = in.duplicate();
+				payload.limit(in.position() + length);
+				crc.reset();
+				crc.update(payload);
+				if ((int) crc.getValue() != in.getInt(in.position() + length)) {
+					LOGGER.warning("torn record in " + file + " at " + (in.position() - 4));
+					break;
+				}
+				DataPointType type = types[in.get()];
+				long time = in.getLong();
+				DataPoint dp = getDataPoint(in);
+				String iata = getCode(in);
+				in.getInt();
+				int slot = getAirportDataIdx(iata);
+				AtmosphericInformation ai = atmosphericInformation.get(slot);
+				if (ai != null) {
+					atmosphericInformation.put(slot, ai.with(type, dp, time));
+					weatherHistory.record(slot, type, dp, time);
+					replayed++;
+				}
+			}
+		} catch (BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
+			LOGGER.warning("truncated record in " + file);
+		}
+		return replayed;
+	}
+
+	private TreeMap<Long, File> list(String prefix, String suffix) {
+		TreeMap<Long, File> retval = new TreeMap<>();
+		File[] files = dir.listFiles();
+		for (File f : files == null ? new File[0] : files) {
+			String name = f.getName();
+			if (name.startsWith(prefix) && name.endsWith(suffix)) {
+				try {
+					retval.put(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())), f);
+				} catch (NumberFormatException e) {
+					// not ours
+				}
+			}
+		}
+		return retval;
+	}
+
+	private File file(String prefix, long number, String suffix) {
+		return new File(dir, String.format("%s%016d%s", prefix, number, suffix));
+	}
+
+	private static void delete(File file) {
+		if (!file.delete()) {
+			LOGGER.warning("couldn't delete " + file);
+		}
+	}
+
+	private static ByteBuffer grow(ByteBuffer buffer) {
+		ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+		buffer.flip();
+		return bigger.put(buffer);
+	}
+
+	private static void putDataPoint(ByteBuffer out, DataPoint dp) {
+		out.putDouble(dp.getMean()).putInt(dp.getFirst()).putInt(dp.getSecond()).putInt(dp.getThird())
+				.putInt(dp.getCount());
+	}
+
+	private static DataPoint getDataPoint(ByteBuffer in) {
+		return new DataPoint(in.getDouble(), in.getInt(), in.getInt(), in.getInt(), in.getInt());
+	}
+
+	/** airport codes are ascii, one byte a char */
+	private static void putCode(ByteBuffer out, String code) {
+		out.put((byte) code.length());
+		for (int i = 0; i < code.length(); i++) {
+			out.put((byte) code.charAt(i));
+		}
+	}
+
+	private static String getCode(ByteBuffer in) {
+		char[] code = new char[in.get() & 0xff];
+		for (int i = 0; i < code.length; i++) {
+			code[i] = (char) (in.get() & 0xff);
+		}
+		return new String(code);
+	}
+}
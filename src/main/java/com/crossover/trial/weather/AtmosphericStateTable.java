@@ -0,0 +1,146 @@
+package com.crossover.trial.weather;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The atmospheric information of every airport, addressed by the airport slot
+ * handed out by the {@link AirportRegistry}. Reads and updates are O(1).
+ *
+ * Entries live in fixed size chunks that never move once allocated; growing
+ * the table only copies the chunk directory. Adding or removing an airport
+ * therefore never shifts the slot of another one, even under concurrent
+ * readers.
+ *
+ * Entries are immutable {@link AtmosphericInformation} snapshots, updated
+ * with {@link #compareAndSet(int, AtmosphericInformation, AtmosphericInformation)}:
+ * readers never lock and writers to different airports never contend.
+ *
+ * @author Erik Pereira Alves
+ */
+public class AtmosphericStateTable {
+
+	private static final int CHUNK_BITS = 10;
+
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	/** the chunk directory, replaced (never mutated in place) when it grows */
+	private volatile AtomicReferenceArray<AtmosphericInformation>[] chunks = newDirectory(16);
+
+	/** one past the highest slot ever stored */
+	private volatile int size;
+
+	/** the airports holding recent readings, kept up to date by every change */
+	private final FreshReadingCounter fresh = new FreshReadingCounter();
+
+	/**
+	 * @return the atmospheric information of the airport in the given slot, or
+	 *         null if the slot holds no airport
+	 */
+	public AtmosphericInformation get(int slot) {
+		if (slot < 0) {
+			return null;
+		}
+		AtomicReferenceArray<AtmosphericInformation>[] directory = chunks;
+		int chunk = slot >>> CHUNK_BITS;
+		if (chunk >= directory.length || directory[chunk] == null) {
+			return null;
+		}
+		return directory[chunk].get(slot & CHUNK_MASK);
+	}
+
+	/**
+	 * Atomically replace the atmospheric information of the airport in the
+	 * given slot, if it still is the expected snapshot.
+	 *
+	 * @return true if the snapshot was replaced, false if another update got
+	 *         there first or the slot holds no airport
+	 */
+	public boolean compareAndSet(int slot, AtmosphericInformation expect, AtmosphericInformation update) {
+		if (slot < 0 || expect == null) {
+			return false;
+		}
+		AtomicReferenceArray<AtmosphericInformation>[] directory = chunks;
+		int chunk = slot >>> CHUNK_BITS;
+		if (chunk >= directory.length || directory[chunk] == null) {
+			return false;
+		}
+		if (!directory[chunk].compareAndSet(slot & CHUNK_MASK, expect, update)) {
+			return false;
+		}
+		fresh.replaced(expect, update);
+		return true;
+	}
+
+	/** store the atmospheric information of the airport in the given slot */
+	public synchronized void put(int slot, AtmosphericInformation ai) {
+		fresh.replaced(chunkFor(slot).getAndSet(slot & CHUNK_MASK, ai), ai);
+		if (slot >= size) {
+			size = slot + 1;
+		}
+	}
+
+	/** drop the atmospheric information of a removed airport */
+	public synchronized void remove(int slot) {
+		AtomicReferenceArray<AtmosphericInformation>[] directory = chunks;
+		int chunk = slot >>> CHUNK_BITS;
+		if (slot >= 0 && chunk < directory.length && directory[chunk] != null) {
+			fresh.replaced(directory[chunk].getAndSet(slot & CHUNK_MASK, null), null);
+		}
+	}
+
+	/**
+	 * Forget every airport and give the slots [0, airports) a fresh, empty
+	 * atmospheric information each.
+	 */
+	public synchronized void reset(int airports) {
+		chunks = newDirectory(Math.max(16, (airports >>> CHUNK_BITS) + 1));
+		size = 0;
+		fresh.clear();
+		for (int slot = 0; slot < airports; slot++) {
+			put(slot, new AtmosphericInformation());
+		}
+	}
+
+	public void clear() {
+		reset(0);
+	}
+
+	/**
+	 * @return the number of airports holding a reading of the last day, to
+	 *         the minute, see {@link FreshReadingCounter}
+	 */
+	public int freshCount() {
+		return fresh.count(System.currentTimeMillis());
+	}
+
+	/** @return one past the highest slot ever stored, the bound for iterations */
+	public int size() {
+		return size;
+	}
+
+	private AtomicReferenceArray<AtmosphericInformation> chunkFor(int slot) {
+		int chunk = slot >>> CHUNK_BITS;
+		AtomicReferenceArray<AtmosphericInformation>[] directory = chunks;
+		if (chunk >= directory.length) {
+			directory = Arrays.copyOf(directory, Math.max(2 * directory.length, chunk + 1));
+		}
+		if (directory[chunk] == null) {
+			if (directory == chunks) {
+				directory = directory.clone();
+			}
+			directory[chunk] = new AtomicReferenceArray<>(CHUNK_SIZE);
+		}
+		if (directory != chunks) {
+			chunks = directory;
+		}
+		return directory[chunk];
+	}
+
+	@SuppressWarnings("unchecked")
+	private static AtomicReferenceArray<AtmosphericInformation>[] newDirectory(int length) {
+		return (AtomicReferenceArray<AtmosphericInformation>[]) new AtomicReferenceArray<?>[length];
+	}
+}
@@ -0,0 +1,65 @@
+package com.crossover.trial.weather;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from a stream and records their number in a
+ * histogram when the stream is closed.
+ *
+ * @author Erik Pereira Alves
+ */
+class CountingInputStream extends FilterInputStream {
+
+	private final LogLinearHistogram sizes;
+
+	private long count;
+
+	private boolean closed;
+
+	/**
+	 * @param in
+	 *            the stream to count
+	 * @param sizes
+	 *            records the bytes read
+	 */
+	CountingInputStream(InputStream in, LogLinearHistogram sizes) {
+		super(in);
+		this.sizes = sizes;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if (b >= 0) {
+			count++;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = super.read(b, off, len);
+		if (n > 0) {
+			count += n;
+		}
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(n);
+		count += skipped;
+		return skipped;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			sizes.record(count);
+		}
+		super.close();
+	}
+}
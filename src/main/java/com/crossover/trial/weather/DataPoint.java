@@ -33,6 +33,15 @@ public class DataPoint {
 		this.setCount(count);
 	}
 
+	/** used by the {@link DataPointParser}, keeps a fractional mean */
+	DataPoint(double mean, int first, int second, int third, int count) {
+		this.setMean(mean);
+		this.setFirst(first);
+		this.setSecond(second);
+		this.setThird(third);
+		this.setCount(count);
+	}
+
 	/** the mean of the observations */
 	public double getMean() {
 		return mean;
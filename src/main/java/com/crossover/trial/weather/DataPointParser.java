@@ -0,0 +1,350 @@
+package com.crossover.trial.weather;
+
+/**
+ * A parser for the json of a single {@link DataPoint}, the hot path of the
+ * collector endpoint. It scans the text in place into primitive fields and
+ * allocates nothing; only the final {@link #toDataPoint()} does. The records
+ * of the bulk updates are data points with an iata and a pointType string,
+ * {@link #parseRecord(CharSequence)} reads those too.
+ *
+ * The parser only knows the common shape: a flat object whose mean, first,
+ * second, third and count keys hold plain numbers, other keys being skipped.
+ * Anything else (escaped keys, quoted or null numbers, fractional counts,
+ * more digits than a double holds exactly) makes {@link #parse(CharSequence)}
+ * return false, and the caller falls back to gson so the accepted input and
+ * its values stay exactly the same.
+ *
+ * Instances hold the state of the last parse and are not thread safe.
+ *
+ * @author Erik Pereira Alves
+ */
+public class DataPointParser {
+
+	/** the exact powers of ten of a double */
+	private static final double[] POW10 = new double[23];
+
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++) {
+			POW10[i] = POW10[i - 1] * 10;
+		}
+	}
+
+	private static final String MEAN = "mean";
+
+	private static final String FIRST = "first";
+
+	private static final String SECOND = "second";
+
+	private static final String THIRD = "third";
+
+	private static final String COUNT = "count";
+
+	private static final String IATA = "iata";
+
+	private static final String POINT_TYPE = "pointType";
+
+	private CharSequence text;
+
+	private int pos;
+
+	/** the value of the last parsed number */
+	private double number;
+
+	/** whether the last parsed number was written as an integer */
+	private boolean integral;
+
+	private double mean;
+
+	private int first;
+
+	private int second;
+
+	private int third;
+
+	private int count;
+
+	/** whether the iata and pointType strings are read */
+	private boolean record;
+
+	private String iata;
+
+	private String pointType;
+
+	/**
+	 * Parse a data point.
+	 *
+	 * @param json
+	 *            the data point json
+	 * @return true if parsed, false if the json is not in the shape this
+	 *         parser handles
+	 */
+	public boolean parse(CharSequence json) {
+		return parse(json, false);
+	}
+
+	/**
+	 * Parse a bulk update record, a data point with its iata and pointType.
+	 *
+	 * @param json
+	 *            the record json
+	 * @return true if parsed, false if the json is not in the shape this
+	 *         parser handles, in particular when the iata or the pointType is
+	 *         not a string without escapes
+	 */
+	public boolean parseRecord(CharSequence json) {
+		return parse(json, true);
+	}
+
+	/** @return the iata of the last record parsed, null if it had none */
+	public String iata() {
+		return iata;
+	}
+
+	/** @return the point type of the last record parsed, null if it had none */
+	public String pointType() {
+		return pointType;
+	}
+
+	private boolean parse(CharSequence json, boolean record) {
+		iata = pointType = null;
+		if (json == null) {
+			return false;
+		}
+		this.record = record;
+		text = json;
+		pos = 0;
+		mean = 0;
+		first = second = third = count = 0;
+		try {
+			if (parseObject()) {
+				return true;
+			}
+			iata = pointType = null;
+			return false;
+		} finally {
+			text = null;
+		}
+	}
+
+	/** @return a data point with the values of the last successful parse */
+	public DataPoint toDataPoint() {
+		return new DataPoint(mean, first, second, third, count);
+	}
+
+	private boolean parseObject() {
+		skipWhitespace();
+		if (!consume('{')) {
+			return false;
+		}
+		skipWhitespace();
+		if (consume('}')) {
+			return atEnd();
+		}
+		do {
+			skipWhitespace();
+			if (!consume('"')) {
+				return false;
+			}
+			int keyStart = pos;
+			while (pos < text.length() && text.charAt(pos) != '"') {
+				if (text.charAt(pos) == '\\') {
+					return false;
+				}
+				pos++;
+			}
+			int keyEnd = pos;
+			if (!consume('"')) {
+				return false;
+			}
+			skipWhitespace();
+			if (!consume(':')) {
+				return false;
+			}
+			skipWhitespace();
+			if (!parseValue(keyStart, keyEnd)) {
+				return false;
+			}
+			skipWhitespace();
+		} while (consume(','));
+		return consume('}') && atEnd();
+	}
+
+	private boolean parseValue(int keyStart, int keyEnd) {
+		if (keyIs(MEAN, keyStart, keyEnd)) {
+			if (!parseNumber()) {
+				return false;
+			}
+			mean = number;
+			return true;
+		}
+		if (record && (keyIs(IATA, keyStart, keyEnd) || keyIs(POINT_TYPE, keyStart, keyEnd))) {
+			boolean isIata = keyIs(IATA, keyStart, keyEnd);
+			int valueStart = pos + 1;
+			if (!consume('"') || !skipString()) {
+				return false;
+			}
+			String value = text.subSequence(valueStart, pos - 1).toString();
+			if (isIata) {
+				iata = value;
+			} else {
+				pointType = value;
+			}
+			return true;
+		}
+		boolean isFirst = keyIs(FIRST, keyStart, keyEnd);
+		boolean isSecond = keyIs(SECOND, keyStart, keyEnd);
+		boolean isThird = keyIs(THIRD, keyStart, keyEnd);
+		boolean isCount = keyIs(COUNT, keyStart, keyEnd);
+		if (!(isFirst || isSecond || isThird || isCount)) {
+			return skipScalar();
+		}
+		if (!parseNumber() || !integral || number < Integer.MIN_VALUE || number > Integer.MAX_VALUE) {
+			return false;
+		}
+		int value = (int) number;
+		if (isFirst) {
+			first = value;
+		} else if (isSecond) {
+			second = value;
+		} else if (isThird) {
+			third = value;
+		} else {
+			count = value;
+		}
+		return true;
+	}
+
+	/**
+	 * Parse a json number into {@link #number}, exactly as
+	 * {@link Double#parseDouble(String)} would.
+	 */
+	private boolean parseNumber() {
+		boolean negative = consume('-');
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		int start = pos;
+		while (pos < text.length() && isDigit(text.charAt(pos))) {
+			mantissa = mantissa * 10 + (text.charAt(pos++) - '0');
+			digits++;
+		}
+		if (pos == start || digits > 1 && text.charAt(start) == '0') {
+			return false;
+		}
+		integral = true;
+		if (consume('.')) {
+			integral = false;
+			start = pos;
+			while (pos < text.length() && isDigit(text.charAt(pos))) {
+				mantissa = mantissa * 10 + (text.charAt(pos++) - '0');
+				digits++;
+				exponent--;
+			}
+			if (pos == start) {
+				return false;
+			}
+		}
+		if (pos < text.length() && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+			integral = false;
+			pos++;
+			boolean negativeExponent = consume('-');
+			if (!negativeExponent) {
+				consume('+');
+			}
+			int value = 0;
+			start = pos;
+			while (pos < text.length() && isDigit(text.charAt(pos))) {
+				value = value * 10 + (text.charAt(pos++) - '0');
+				if (value > 1000) {
+					return false;
+				}
+			}
+			if (pos == start) {
+				return false;
+			}
+			exponent += negativeExponent ? -value : value;
+		}
+		// beyond these bounds a single multiplication or division may round
+		if (digits > 15 || exponent > 22 || exponent < -22) {
+			return false;
+		}
+		double value = exponent >= 0 ? mantissa * POW10[exponent] : mantissa / POW10[-exponent];
+		number = negative ? -value : value;
+		return true;
+	}
+
+	/** skip a number, true, false or null, or a string without escapes */
+	private boolean skipScalar() {
+		if (consume('"')) {
+			return skipString();
+		}
+		if (literal("true") || literal("false") || literal("null")) {
+			return true;
+		}
+		return parseNumber();
+	}
+
+	/** skip the rest of a string without escapes, its opening quote consumed */
+	private boolean skipString() {
+		while (pos < text.length() && text.charAt(pos) != '"') {
+			if (text.charAt(pos) == '\\') {
+				return false;
+			}
+			pos++;
+		}
+		return consume('"');
+	}
+
+	private boolean literal(String literal) {
+		if (pos + literal.length() > text.length()) {
+			return false;
+		}
+		for (int i = 0; i < literal.length(); i++) {
+			if (text.charAt(pos + i) != literal.charAt(i)) {
+				return false;
+			}
+		}
+		pos += literal.length();
+		return true;
+	}
+
+	private boolean keyIs(String key, int start, int end) {
+		if (end - start != key.length()) {
+			return false;
+		}
+		for (int i = 0; i < key.length(); i++) {
+			if (text.charAt(start + i) != key.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean consume(char c) {
+		if (pos < text.length() && text.charAt(pos) == c) {
+			pos++;
+			return true;
+		}
+		return false;
+	}
+
+	private void skipWhitespace() {
+		while (pos < text.length()) {
+			char c = text.charAt(pos);
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+				return;
+			}
+			pos++;
+		}
+	}
+
+	private boolean atEnd() {
+		skipWhitespace();
+		return pos == text.length();
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+}
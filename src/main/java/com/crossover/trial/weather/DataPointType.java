@@ -3,8 +3,68 @@ package com.crossover.trial.weather;
 /**
  * The various types of data points we can collect.
  *
+ * Each type carries the range its mean must fall in, [min, max), and
+ * {@link #lookup(CharSequence)} resolves a type name without building or
+ * comparing strings.
+ *
  * @author code test administrator
  */
 public enum DataPointType {
-	WIND, TEMPERATURE, HUMIDTY, PRESSURE, CLOUDCOVER, PRECIPITATION
+	WIND(0, Double.POSITIVE_INFINITY),
+	TEMPERATURE(-50, 100),
+	HUMIDTY(0, 100),
+	PRESSURE(650, 800),
+	CLOUDCOVER(0, 100),
+	PRECIPITATION(0, 100);
+
+	/** the types by name length, the names all have a different length */
+	private static final DataPointType[] BY_LENGTH = new DataPointType[16];
+
+	static {
+		for (DataPointType type : values()) {
+			BY_LENGTH[type.name().length()] = type;
+		}
+	}
+
+	private final double min;
+
+	private final double max;
+
+	private DataPointType(double min, double max) {
+		this.min = min;
+		this.max = max;
+	}
+
+	/**
+	 * @param dp
+	 *            a data point of this type
+	 * @return true if its mean is in the valid range for this type
+	 */
+	public boolean accepts(DataPoint dp) {
+		double mean = dp.getMean();
+		return mean >= min && (mean < max || max == Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * @param name
+	 *            a point type name, case insensitive
+	 * @return the point type, or null if there is none by that name
+	 */
+	public static DataPointType lookup(CharSequence name) {
+		if (name == null || name.length() >= BY_LENGTH.length) {
+			return null;
+		}
+		DataPointType type = BY_LENGTH[name.length()];
+		if (type == null) {
+			return null;
+		}
+		String expected = type.name();
+		for (int i = 0; i < expected.length(); i++) {
+			// the names are upper case ascii letters
+			if ((name.charAt(i) & ~0x20) != expected.charAt(i)) {
+				return null;
+			}
+		}
+		return type;
+	}
 }
@@ -0,0 +1,265 @@
+package com.crossover.trial.weather;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.core.Response;
+
+/**
+ * Runs the callable tasks of a REST endpoint and turns their outcome into a
+ * {@link Response}.
+ *
+ * The endpoint methods are pinned by their interfaces (see DoNotChangeTest)
+ * to return the {@link Response} itself, so the Grizzly worker serving a
+ * request is held until the answer exists whatever runs the task. Handing
+ * the task to a pool can't free that worker, it only holds a pool thread on
+ * top of it. {@link ExecutionStrategy#INLINE} is therefore the default: the
+ * task runs on the Grizzly worker and the server's own pool bounds the
+ * concurrency.
+ *
+ * The pooled strategies stay available to isolate an endpoint: the calling
+ * thread parks until its task completes instead of polling it, a task that
+ * doesn't complete in <code>weather.request.timeout</code> milliseconds is
+ * cancelled and answered with 503 Service Unavailable, and at most queue
+ * tasks may wait for a worker, more are rejected with 503 too. The strategy
+ * and its sizing are read at startup from the
+ * <code>weather.&lt;name&gt;.executor</code>,
+ * <code>weather.&lt;name&gt;.threads</code> and
+ * <code>weather.&lt;name&gt;.queue</code> system properties.
+ *
+ * The time the tasks wait for a worker and, when given a histogram, the time
+ * they run are recorded in {@link WeatherMetrics}.
+ *
+ * @author Erik Pereira Alves
+ */
+public class EndpointExecutor {
+
+	public final static Logger LOGGER = Logger.getLogger(EndpointExecutor.class.getName());
+
+	/** how long a request waits for its task, in milliseconds */
+	static final long TIMEOUT_MILLIS = Long.getLong("weather.request.timeout", 10000);
+
+	private static final int DEFAULT_QUEUE_LIMIT = 1000;
+
+	private final String name;
+
+	private final ExecutionStrategy strategy;
+
+	private final int queueLimit;
+
+	/** how long a request waits for its pooled task, in milliseconds */
+	private final long timeoutMillis;
+
+	/** null when running inline */
+	private final ExecutorService executor;
+
+	/** tasks submitted and not started yet */
+	private final AtomicInteger queued = new AtomicInteger();
+
+	/** tasks that returned a response */
+	private final LongAdder completed = new LongAdder();
+
+	/** tasks that threw, whatever the answer it turned into */
+	private final LongAdder failed = new LongAdder();
+
+	private final LongAdder rejected = new LongAdder();
+
+	private final LongAdder timedOut = new LongAdder();
+
+	/** nanoseconds from submission to the start of the task */
+	private final LogLinearHistogram queueWait;
+
+	/**
+	 * An executor configured from the system properties of the named endpoint.
+	 *
+	 * @param name
+	 *            the endpoint name
+	 * @param defaultThreads
+	 *            the number of workers when not configured
+	 */
+	public EndpointExecutor(String name, int defaultThreads) {
+		this(name, ExecutionStrategy.parse(System.getProperty("weather." + name + ".executor"),
+				ExecutionStrategy.INLINE), Integer.getInteger("weather." + name + ".threads", defaultThreads),
+				Integer.getInteger("weather." + name + ".queue", DEFAULT_QUEUE_LIMIT));
+	}
+
+	public EndpointExecutor(String name, ExecutionStrategy strategy, int threads, int queueLimit) {
+		this(name, strategy, threads, queueLimit, TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * @param name
+	 *            the endpoint name
+	 * @param strategy
+	 *            what runs the tasks
+	 * @param threads
+	 *            the number of workers, ignored when not pooled
+	 * @param queueLimit
+	 *            the number of tasks allowed to wait for a worker
+	 * @param timeoutMillis
+	 *            how long a request waits for its pooled task
+	 */
+	public EndpointExecutor(String name, ExecutionStrategy strategy, int threads, int queueLimit,
+			long timeoutMillis) {
+		this.name = name;
+		this.strategy = strategy;
+		this.queueLimit = queueLimit;
+		this.timeoutMillis = timeoutMillis;
+		this.executor = strategy.newExecutor(name, threads, queueLimit);
+		this.queueWait = WeatherMetrics.histogram(WeatherMetrics.QUEUE_WAIT_SECONDS, "executor=\"" + name + "\"");
+		LOGGER.info(name + " endpoint runs " + strategy + (executor == null ? " on the server threads"
+				: " with " + threads + " threads, queue " + queueLimit + ", timeout " + timeoutMillis + " ms"));
+	}
+
+	/**
+	 * Run a task and wait for its response.
+	 *
+	 * @param task
+	 *            the endpoint task
+	 * @return the task response, 503 if it or a stage it feeds was rejected
+	 *         or it timed out, 400 if it rejected its arguments and 500 if it
+	 *         failed
+	 */
+	public Response execute(Callable<Response> task) {
+		return execute(task, null);
+	}
+
+	/**
+	 * Run a task and wait for its response, recording how long it ran.
+	 *
+	 * @param task
+	 *            the endpoint task
+	 * @param serviceTime
+	 *            records the nanoseconds the task ran, may be null
+	 * @return the task response, see {@link #execute(Callable)}
+	 */
+	public Response execute(Callable<Response> task, LogLinearHistogram serviceTime) {
+		if (executor == null) {
+			long start = System.nanoTime();
+			try {
+				Response response = task.call();
+				completed.increment();
+				return response;
+			} catch (Exception e) {
+				failed.increment();
+				return failed(e);
+			} finally {
+				if (serviceTime != null) {
+					serviceTime.record(System.nanoTime() - start);
+				}
+			}
+		}
+
+		if (queued.incrementAndGet() > queueLimit) {
+			queued.decrementAndGet();
+			return reject();
+		}
+
+		// whoever comes first, the worker or a timed out caller, leaves the queue
+		AtomicBoolean dequeued = new AtomicBoolean();
+		long submitted = System.nanoTime();
+		Future<Response> future;
+		try {
+			future = executor.submit(() -> {
+				long start = System.nanoTime();
+				queueWait.record(start - submitted);
+				if (dequeued.compareAndSet(false, true)) {
+					queued.decrementAndGet();
+				}
+				try {
+					Response response = task.call();
+					completed.increment();
+					return response;
+				} catch (Exception e) {
+					failed.increment();
+					throw e;
+				} finally {
+					if (serviceTime != null) {
+						serviceTime.record(System.nanoTime() - start);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			queued.decrementAndGet();
+			return reject();
+		}
+
+		try {
+			return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			if (dequeued.compareAndSet(false, true)) {
+				queued.decrementAndGet();
+			}
+			timedOut.increment();
+			LOGGER.warning(name + " task timed out after " + timeoutMillis + " ms");
+			return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			if (dequeued.compareAndSet(false, true)) {
+				queued.decrementAndGet();
+			}
+			Thread.currentThread().interrupt();
+			return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+
+		} catch (ExecutionException e) {
+			return failed(e.getCause());
+		}
+	}
+
+	/** @return the number of tasks waiting for a worker */
+	public int queueDepth() {
+		return queued.get();
+	}
+
+	/** @return the number of tasks turned away because the queue was full */
+	public long rejectedCount() {
+		return rejected.sum();
+	}
+
+	/**
+	 * @return the executor statistics, suitable for a json health report
+	 */
+	public Map<String, Object> stats() {
+		Map<String, Object> retval = new LinkedHashMap<>();
+		retval.put("strategy", strategy.name());
+		retval.put("queued", queueDepth());
+		retval.put("completed", completed.sum());
+		retval.put("failed", failed.sum());
+		retval.put("rejected", rejectedCount());
+		retval.put("timed_out", timedOut.sum());
+		return retval;
+	}
+
+	private Response reject() {
+		rejected.increment();
+		return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+	}
+
+	private Response failed(Throwable cause) {
+		if (cause instanceof RejectedExecutionException) {
+			// a downstream stage is full
+			return reject();
+		}
+		if (cause instanceof IllegalArgumentException || cause instanceof IllegalStateException) {
+			LOGGER.info(name + " task rejected its arguments: " + cause.getMessage());
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		LOGGER.log(Level.SEVERE, name + " task failed", cause);
+		return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+	}
+}
@@ -0,0 +1,109 @@
+package com.crossover.trial.weather;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * How an {@link EndpointExecutor} runs the tasks of its endpoint. Selected at
+ * startup with the <code>weather.&lt;endpoint&gt;.executor</code> system
+ * property, so each model can be benchmarked against the real load.
+ *
+ * @author Erik Pereira Alves
+ */
+public enum ExecutionStrategy {
+
+	/** run the task on the calling (Grizzly worker) thread */
+	INLINE {
+		@Override
+		ExecutorService newExecutor(String name, int threads, int queueLimit) {
+			return null;
+		}
+	},
+
+	/** a fixed pool behind a bounded queue, full queue rejects */
+	BOUNDED {
+		@Override
+		ExecutorService newExecutor(String name, int threads, int queueLimit) {
+			return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<>(queueLimit), threadFactory(name), new ThreadPoolExecutor.AbortPolicy());
+		}
+	},
+
+	/** a work-stealing fork/join pool */
+	FORK_JOIN {
+		@Override
+		ExecutorService newExecutor(String name, int threads, int queueLimit) {
+			AtomicInteger count = new AtomicInteger();
+			return new ForkJoinPool(threads, pool -> {
+				ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				thread.setName("weather-" + name + "-" + count.incrementAndGet());
+				return thread;
+			}, null, true);
+		}
+	},
+
+	/** one virtual thread per task, when the JDK has them */
+	VIRTUAL {
+		@Override
+		ExecutorService newExecutor(String name, int threads, int queueLimit) {
+			try {
+				return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (ReflectiveOperationException e) {
+				LOGGER.warning("virtual threads need a newer JDK, " + name + " falls back to " + BOUNDED);
+				return BOUNDED.newExecutor(name, threads, queueLimit);
+			}
+		}
+	};
+
+	public final static Logger LOGGER = Logger.getLogger(ExecutionStrategy.class.getName());
+
+	/**
+	 * Create the executor service of an endpoint.
+	 *
+	 * @param name
+	 *            the endpoint name, used for the thread names
+	 * @param threads
+	 *            the number of workers, ignored when not pooled
+	 * @param queueLimit
+	 *            the number of tasks allowed to wait for a worker
+	 * @return the executor service, null to run tasks inline
+	 */
+	abstract ExecutorService newExecutor(String name, int threads, int queueLimit);
+
+	/**
+	 * @param value
+	 *            a strategy name, case and dash insensitive (fork-join,
+	 *            FORK_JOIN...)
+	 * @return the strategy, or the default one if value is null or unknown
+	 */
+	public static ExecutionStrategy parse(String value, ExecutionStrategy defaultStrategy) {
+		if (value == null) {
+			return defaultStrategy;
+		}
+		String normalized = value.trim().toUpperCase().replace('-', '_');
+		for (ExecutionStrategy strategy : values()) {
+			if (strategy.name().equals(normalized) || strategy.name().replace("_", "").equals(normalized)) {
+				return strategy;
+			}
+		}
+		LOGGER.warning("unknown execution strategy " + value + ", using " + defaultStrategy);
+		return defaultStrategy;
+	}
+
+	private static ThreadFactory threadFactory(String name) {
+		AtomicInteger count = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, "weather-" + name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
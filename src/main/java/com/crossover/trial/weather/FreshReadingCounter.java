@@ -0,0 +1,124 @@
+package com.crossover.trial.weather;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the airports whose atmospheric information holds a reading of the
+ * last day, without visiting every airport.
+ *
+ * Airports are counted by the minute of their last update, in a ring of
+ * buckets. A replaced snapshot moves its airport from the minute of the old
+ * snapshot to the minute of the new one, and an airport expires by itself
+ * once its minute leaves the last day. The ring is larger than a day, the
+ * buckets of the minutes past it are cleared before the ring comes back to
+ * them, by the first update or count of each minute, so a long time without
+ * counting doesn't bring old minutes back.
+ *
+ * The count is accurate to the minute: a reading counts for a day, and up
+ * to a minute more.
+ *
+ * @author Erik Pereira Alves
+ */
+class FreshReadingCounter {
+
+	/** how long a reading counts, in milliseconds */
+	static final long WINDOW = 86400000;
+
+	private static final long MINUTE = 60000;
+
+	private static final int WINDOW_MINUTES = (int) (WINDOW / MINUTE);
+
+	/** a power of two above a day of minutes */
+	private static final int RING = 2048;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(RING);
+
+	/** the last minute the buckets past the day were cleared for */
+	private final AtomicLong expired = new AtomicLong(Long.MIN_VALUE);
+
+	/**
+	 * Account for the replacement of a snapshot.
+	 *
+	 * @param old
+	 *            the replaced snapshot, null if none
+	 * @param updated
+	 *            the new snapshot, null if the airport is gone
+	 */
+	void replaced(AtmosphericInformation old, AtmosphericInformation updated) {
+		replaced(old, updated, System.currentTimeMillis());
+	}
+
+	/**
+	 * @param old
+	 *            the replaced snapshot, null if none
+	 * @param updated
+	 *            the new snapshot, null if the airport is gone
+	 * @param now
+	 *            the current time, in milliseconds since UTC epoch
+	 */
+	void replaced(AtmosphericInformation old, AtmosphericInformation updated, long now) {
+		if (old == updated) {
+			return;
+		}
+		expire(now / MINUTE);
+		if (counted(old, now)) {
+			buckets.decrementAndGet(bucket(old.getLastUpdateTime() / MINUTE));
+		}
+		if (counted(updated, now)) {
+			buckets.incrementAndGet(bucket(updated.getLastUpdateTime() / MINUTE));
+		}
+	}
+
+	/**
+	 * @param now
+	 *            the current time, in milliseconds since UTC epoch
+	 * @return the number of airports updated in the day up to now, to the
+	 *         minute
+	 */
+	int count(long now) {
+		long minute = now / MINUTE;
+		expire(minute);
+		long count = 0;
+		for (long m = minute - WINDOW_MINUTES; m <= minute; m++) {
+			count += buckets.get(bucket(m));
+		}
+		return (int) Math.max(0, count);
+	}
+
+	void clear() {
+		for (int i = 0; i < RING; i++) {
+			buckets.set(i, 0);
+		}
+	}
+
+	/**
+	 * Clear the buckets the ring comes to in the minute, once a minute by a
+	 * single caller.
+	 *
+	 * @param minute
+	 *            the current minute
+	 */
+	private void expire(long minute) {
+		long last = expired.get();
+		if (minute <= last || !expired.compareAndSet(last, minute)) {
+			return;
+		}
+		// past the day, with a minute of margin on each side for the clocks
+		// of the writers, less what the last minute cleared already
+		long end = minute + RING - WINDOW_MINUTES - 1;
+		for (long m = Math.max(minute + 2, last + RING - WINDOW_MINUTES - 1); m < end; m++) {
+			buckets.set(bucket(m), 0);
+		}
+	}
+
+	/** in the day before now, and not ahead of it by more than a minute */
+	private static boolean counted(AtmosphericInformation ai, long now) {
+		return ai != null && ai.hasReadings() && ai.getLastUpdateTime() > now - WINDOW
+				&& ai.getLastUpdateTime() <= now + MINUTE;
+	}
+
+	private static int bucket(long minute) {
+		return (int) (minute & (RING - 1));
+	}
+}
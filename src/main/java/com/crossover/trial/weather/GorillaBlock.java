@@ -0,0 +1,339 @@
+package com.crossover.trial.weather;
+
+import java.util.Arrays;
+
+/**
+ * An immutable block of compressed readings, in the style of the Facebook
+ * Gorilla time series encoding.
+ *
+ * Timestamps are stored as the difference of their successive deltas, a
+ * single bit when readings come at a steady pace. The mean, quartiles and
+ * count of a reading are each XOR-ed with the previous value: an unchanged
+ * value costs a single bit and a changed one only its meaningful bits, often
+ * inside the window of the previous change.
+ *
+ * Readings are appended to an {@link Encoder}, sealed into a block and read
+ * back in order with a {@link Decoder}, without allocating per reading.
+ *
+ * @author Erik Pereira Alves
+ */
+public final class GorillaBlock {
+
+	/** number of values XOR encoded per reading: mean, first, second, third, count */
+	private static final int FIELDS = 5;
+
+	private final long[] words;
+
+	private final int bits;
+
+	private final int count;
+
+	private final long minTime;
+
+	private final long maxTime;
+
+	private GorillaBlock(long[] words, int bits, int count, long minTime, long maxTime) {
+		this.words = words;
+		this.bits = bits;
+		this.count = count;
+		this.minTime = minTime;
+		this.maxTime = maxTime;
+	}
+
+	/** @return the number of readings */
+	public int count() {
+		return count;
+	}
+
+	/** @return the earliest reading time */
+	public long minTime() {
+		return minTime;
+	}
+
+	/** @return the latest reading time */
+	public long maxTime() {
+		return maxTime;
+	}
+
+	/** @return the size of the encoded readings, in bytes */
+	public int sizeInBytes() {
+		return (bits + 7) / 8;
+	}
+
+	/** @return a decoder over the readings, oldest first */
+	public Decoder decoder() {
+		return new Decoder(words, bits, count);
+	}
+
+	/** appends readings, then seals them into a block */
+	public static final class Encoder {
+
+		private long[] words = new long[16];
+
+		private int bits;
+
+		private int count;
+
+		private long minTime;
+
+		private long maxTime;
+
+		private long lastTime;
+
+		private long lastDelta;
+
+		private final long[] last = new long[FIELDS];
+
+		private final int[] leading = new int[FIELDS];
+
+		private final int[] trailing = new int[FIELDS];
+
+		/** @return the number of readings appended */
+		public int count() {
+			return count;
+		}
+
+		/** @return the earliest reading time */
+		public long minTime() {
+			return minTime;
+		}
+
+		/** @return the latest reading time */
+		public long maxTime() {
+			return maxTime;
+		}
+
+		/**
+		 * Append a reading.
+		 *
+		 * @param time
+		 *            the reading time, in milliseconds since UTC epoch
+		 * @param dp
+		 *            the reading
+		 */
+		public void append(long time, DataPoint dp) {
+			if (count == 0) {
+				minTime = maxTime = time;
+				write(time, 64);
+			} else {
+				minTime = Math.min(minTime, time);
+				maxTime = Math.max(maxTime, time);
+				long delta = time - lastTime;
+				writeDeltaOfDelta(delta - lastDelta);
+				lastDelta = delta;
+			}
+			lastTime = time;
+			writeXor(0, Double.doubleToRawLongBits(dp.getMean()));
+			writeXor(1, dp.getFirst());
+			writeXor(2, dp.getSecond());
+			writeXor(3, dp.getThird());
+			writeXor(4, dp.getCount());
+			count++;
+		}
+
+		/** @return the readings appended so far as an immutable block */
+		public GorillaBlock seal() {
+			return new GorillaBlock(Arrays.copyOf(words, (bits + 63) >>> 6), bits, count, minTime, maxTime);
+		}
+
+		/** @return a decoder over the readings appended so far */
+		public Decoder decoder() {
+			return new Decoder(words, bits, count);
+		}
+
+		private void writeDeltaOfDelta(long dod) {
+			if (dod == 0) {
+				write(0, 1);
+			} else if (dod >= -63 && dod <= 64) {
+				write(0b10, 2);
+				write(dod, 7);
+			} else if (dod >= -255 && dod <= 256) {
+				write(0b110, 3);
+				write(dod, 9);
+			} else if (dod >= -2047 && dod <= 2048) {
+				write(0b1110, 4);
+				write(dod, 12);
+			} else {
+				write(0b1111, 4);
+				write(dod, 64);
+			}
+		}
+
+		private void writeXor(int field, long value) {
+			long xor = value ^ last[field];
+			last[field] = value;
+			if (xor == 0) {
+				write(0, 1);
+				return;
+			}
+			int lead = Math.min(31, Long.numberOfLeadingZeros(xor));
+			int trail = Long.numberOfTrailingZeros(xor);
+			if (count > 0 && leading[field] <= lead && trailing[field] <= trail
+					&& leading[field] + trailing[field] < 64) {
+				// fits in the window of the previous value
+				write(0b10, 2);
+				write(xor >>> trailing[field], 64 - leading[field] - trailing[field]);
+			} else {
+				int meaningful = 64 - lead - trail;
+				write(0b11, 2);
+				write(lead, 5);
+				// 64 meaningful bits do not fit in 6 bits, they are written as 0
+				write(meaningful & 63, 6);
+				write(xor >>> trail, meaningful);
+				leading[field] = lead;
+				trailing[field] = trail;
+			}
+		}
+
+		private void write(long value, int length) {
+			if (length == 0) {
+				return;
+			}
+			if (bits + length > words.length << 6) {
+				words = Arrays.copyOf(words, words.length * 2);
+			}
+			if (length < 64) {
+				value &= (1L << length) - 1;
+			}
+			int offset = bits & 63;
+			int index = bits >>> 6;
+			int room = 64 - offset;
+			if (length <= room) {
+				words[index] |= value << (room - length);
+			} else {
+				words[index] |= value >>> (length - room);
+				words[index + 1] |= value << (64 - (length - room));
+			}
+			bits += length;
+		}
+	}
+
+	/**
+	 * Reads the readings of a block in order. After {@link #next()} returns
+	 * true the accessors hold the values of the current reading.
+	 */
+	public static final class Decoder {
+
+		private final long[] words;
+
+		private final int bits;
+
+		private final int count;
+
+		private int position;
+
+		private int read;
+
+		private long time;
+
+		private long delta;
+
+		private final long[] values = new long[FIELDS];
+
+		private final int[] leading = new int[FIELDS];
+
+		private final int[] trailing = new int[FIELDS];
+
+		Decoder(long[] words, int bits, int count) {
+			this.words = words;
+			this.bits = bits;
+			this.count = count;
+		}
+
+		/** @return true if a reading was decoded, false at the end of the block */
+		public boolean next() {
+			if (read == count) {
+				return false;
+			}
+			if (read == 0) {
+				time = read(64);
+			} else {
+				delta += readDeltaOfDelta();
+				time += delta;
+			}
+			for (int field = 0; field < FIELDS; field++) {
+				readXor(field);
+			}
+			read++;
+			return true;
+		}
+
+		public long time() {
+			return time;
+		}
+
+		public double mean() {
+			return Double.longBitsToDouble(values[0]);
+		}
+
+		public int first() {
+			return (int) values[1];
+		}
+
+		public int second() {
+			return (int) values[2];
+		}
+
+		public int third() {
+			return (int) values[3];
+		}
+
+		public int count() {
+			return (int) values[4];
+		}
+
+		private long readDeltaOfDelta() {
+			if (read(1) == 0) {
+				return 0;
+			}
+			if (read(1) == 0) {
+				return signed(read(7), 7);
+			}
+			if (read(1) == 0) {
+				return signed(read(9), 9);
+			}
+			if (read(1) == 0) {
+				return signed(read(12), 12);
+			}
+			return read(64);
+		}
+
+		private void readXor(int field) {
+			if (read(1) == 0) {
+				return;
+			}
+			if (read(1) == 1) {
+				leading[field] = (int) read(5);
+				int meaningful = (int) read(6);
+				trailing[field] = 64 - leading[field] - (meaningful == 0 ? 64 : meaningful);
+			}
+			int meaningful = 64 - leading[field] - trailing[field];
+			values[field] ^= read(meaningful) << trailing[field];
+		}
+
+		/** the written value, in [-2^(length-1) + 1, 2^(length-1)] */
+		private static long signed(long value, int length) {
+			return value > 1L << (length - 1) ? value - (1L << length) : value;
+		}
+
+		private long read(int length) {
+			if (length == 0) {
+				return 0;
+			}
+			if (position + length > bits) {
+				throw new IllegalStateException("corrupt block");
+			}
+			int offset = position & 63;
+			int index = position >>> 6;
+			int room = 64 - offset;
+			long value;
+			if (length <= room) {
+				value = words[index] >>> (room - length);
+			} else {
+				value = (words[index] << (length - room)) | (words[index + 1] >>> (64 - (length - room)));
+			}
+			position += length;
+			return length == 64 ? value : value & ((1L << length) - 1);
+		}
+	}
+}
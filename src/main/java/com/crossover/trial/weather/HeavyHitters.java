@@ -0,0 +1,294 @@
+package com.crossover.trial.weather;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Finds the most frequent keys of a stream over sliding time windows, in fixed
+ * memory whatever the number of distinct keys.
+ *
+ * Time is cut in panes, a ring of them covers the longest window. Each pane
+ * counts its keys in a Count-Min sketch, which never underestimates, and
+ * keeps a Space-Saving list of the keys worth reporting: a key not in a full
+ * list takes the place of the member with the lowest estimate, once its own
+ * estimate is higher. The top keys of a window are the members of its panes
+ * ranked by their estimate in the sum of the pane sketches. Panes older than
+ * the ring are dropped, so counts decay by whole panes.
+ *
+ * Recording is lock free unless the key enters the list of its pane. It
+ * increments a counter per row, so a busy stream may be sampled: one key in
+ * <code>sample</code> is counted, at random, with the weight of all of them.
+ * The counts of a sampled stream are estimates both ways.
+ *
+ * @author Erik Pereira Alves
+ */
+public class HeavyHitters {
+
+	private static final long[] SEEDS = { 0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L,
+			0xD6E8FEB86659FD93L, 0xFF51AFD7ED558CCDL, 0xC4CEB9FE1A85EC53L, 0x27D4EB2F165667C5L,
+			0x94D049BB133111EBL };
+
+	private final long paneMillis;
+
+	/** rows of the sketches */
+	private final int depth;
+
+	/** counters per row, a power of two */
+	private final int width;
+
+	/** the most keys a pane keeps as candidates */
+	private final int monitored;
+
+	/** one key in this many is counted, 1 to count them all */
+	private final int sample;
+
+	private final AtomicReferenceArray<Pane> panes;
+
+	/**
+	 * @param panes
+	 *            the panes in the ring, the longest window spans them all
+	 * @param paneMillis
+	 *            the duration of a pane
+	 * @param depth
+	 *            rows per sketch, at most 8
+	 * @param width
+	 *            counters per row, rounded up to a power of two
+	 * @param monitored
+	 *            candidate keys per pane
+	 */
+	public HeavyHitters(int panes, long paneMillis, int depth, int width, int monitored) {
+		this(panes, paneMillis, depth, width, monitored, 1);
+	}
+
+	/**
+	 * @param panes
+	 *            the panes in the ring, the longest window spans them all
+	 * @param paneMillis
+	 *            the duration of a pane
+	 * @param depth
+	 *            rows per sketch, at most 8
+	 * @param width
+	 *            counters per row, rounded up to a power of two
+	 * @param monitored
+	 *            candidate keys per pane
+	 * @param sample
+	 *            one key in this many is counted, 1 to count them all
+	 */
+	public HeavyHitters(int panes, long paneMillis, int depth, int width, int monitored, int sample) {
+		this.paneMillis = paneMillis;
+		this.depth = Math.min(depth, SEEDS.length);
+		this.width = Integer.highestOneBit(Math.max(2, width - 1)) << 1;
+		this.monitored = monitored;
+		this.sample = Math.max(1, sample);
+		this.panes = new AtomicReferenceArray<>(panes);
+	}
+
+	/**
+	 * Count a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @param now
+	 *            the current time, in milliseconds since UTC epoch
+	 */
+	public void record(int key, long now) {
+		if (sample > 1 && ThreadLocalRandom.current().nextInt(sample) != 0) {
+			return;
+		}
+		Pane pane = pane(now / paneMillis);
+		long estimate = pane.add(key);
+		int[] keys = pane.keys;
+		if ((keys.length < monitored || estimate > pane.floor) && !contains(keys, key)) {
+			pane.offer(key, estimate);
+		}
+	}
+
+	/**
+	 * The most frequent keys of a window.
+	 *
+	 * @param n
+	 *            the number of keys wanted
+	 * @param window
+	 *            the window, in milliseconds up to now, at most the span of
+	 *            the ring
+	 * @param now
+	 *            the current time, in milliseconds since UTC epoch
+	 * @return the keys and their estimated counts, most frequent first
+	 */
+	public Top top(int n, long window, long now) {
+		long last = now / paneMillis;
+		long first = last - Math.max(1, Math.min(panes.length(), window / paneMillis)) + 1;
+		Pane[] covered = new Pane[(int) (last - first + 1)];
+		int count = 0;
+		int[] candidates = new int[0];
+		for (long p = first; p <= last; p++) {
+			Pane pane = panes.get((int) Math.floorMod(p, (long) panes.length()));
+			if (pane != null && pane.id == p) {
+				covered[count++] = pane;
+				int[] keys = pane.keys;
+				int at = candidates.length;
+				candidates = Arrays.copyOf(candidates, at + keys.length);
+				System.arraycopy(keys, 0, candidates, at, keys.length);
+			}
+		}
+		candidates = Arrays.stream(candidates).distinct().toArray();
+
+		long[] estimates = new long[candidates.length];
+		for (int i = 0; i < candidates.length; i++) {
+			long estimate = Long.MAX_VALUE;
+			for (int row = 0; row < depth; row++) {
+				int column = column(row, candidates[i]);
+				long sum = 0;
+				for (int p = 0; p < count; p++) {
+					sum += covered[p].counters.get(row * width + column);
+				}
+				estimate = Math.min(estimate, sum);
+			}
+			estimates[i] = estimate;
+		}
+
+		// a selection sort, there are a few dozen candidates at most
+		int size = Math.min(n, candidates.length);
+		for (int i = 0; i < size; i++) {
+			int best = i;
+			for (int j = i + 1; j < candidates.length; j++) {
+				if (estimates[j] > estimates[best]) {
+					best = j;
+				}
+			}
+			swap(candidates, estimates, i, best);
+		}
+		return new Top(Arrays.copyOf(candidates, size), Arrays.copyOf(estimates, size));
+	}
+
+	/** forget every count */
+	public void clear() {
+		for (int i = 0; i < panes.length(); i++) {
+			panes.set(i, null);
+		}
+	}
+
+	/** the top keys of a window and their estimated counts, in the same order */
+	public static final class Top {
+
+		public final int[] keys;
+
+		public final long[] counts;
+
+		Top(int[] keys, long[] counts) {
+			this.keys = keys;
+			this.counts = counts;
+		}
+	}
+
+	/** @return the pane of the given id, a new one if the ring moved past it */
+	private Pane pane(long id) {
+		int at = (int) Math.floorMod(id, (long) panes.length());
+		Pane pane = panes.get(at);
+		while (pane == null || pane.id < id) {
+			// a late writer may still count in the replaced pane, a few
+			// counts on a pane boundary are lost
+			Pane fresh = new Pane(id);
+			if (panes.compareAndSet(at, pane, fresh)) {
+				return fresh;
+			}
+			pane = panes.get(at);
+		}
+		return pane;
+	}
+
+	private int column(int row, int key) {
+		long h = (key + 1) * SEEDS[row];
+		return (int) (h ^ h >>> 32) & (width - 1);
+	}
+
+	private static boolean contains(int[] keys, int key) {
+		for (int k : keys) {
+			if (k == key) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void swap(int[] keys, long[] counts, int i, int j) {
+		int key = keys[i];
+		keys[i] = keys[j];
+		keys[j] = key;
+		long count = counts[i];
+		counts[i] = counts[j];
+		counts[j] = count;
+	}
+
+	private final class Pane {
+
+		/** time of the pane, in panes since the epoch */
+		final long id;
+
+		/** the sketch, row after row */
+		final AtomicLongArray counters = new AtomicLongArray(depth * width);
+
+		/** the candidate keys, replaced (never mutated in place) */
+		volatile int[] keys = new int[0];
+
+		/** the lowest estimate of a member when the list last changed */
+		volatile long floor;
+
+		Pane(long id) {
+			this.id = id;
+		}
+
+		/** @return the estimate of the key, counted */
+		long add(int key) {
+			long estimate = Long.MAX_VALUE;
+			for (int row = 0; row < depth; row++) {
+				estimate = Math.min(estimate, counters.addAndGet(row * width + column(row, key), sample));
+			}
+			return estimate;
+		}
+
+		long estimate(int key) {
+			long estimate = Long.MAX_VALUE;
+			for (int row = 0; row < depth; row++) {
+				estimate = Math.min(estimate, counters.get(row * width + column(row, key)));
+			}
+			return estimate;
+		}
+
+		synchronized void offer(int key, long estimate) {
+			int[] current = keys;
+			if (contains(current, key)) {
+				return;
+			}
+			if (current.length < monitored) {
+				int[] grown = Arrays.copyOf(current, current.length + 1);
+				grown[current.length] = key;
+				keys = grown;
+				return;
+			}
+			int lowest = 0;
+			long lowestEstimate = Long.MAX_VALUE;
+			long floorAfter = Long.MAX_VALUE;
+			for (int i = 0; i < current.length; i++) {
+				long e = estimate(current[i]);
+				if (e < lowestEstimate) {
+					floorAfter = Math.min(floorAfter, lowestEstimate);
+					lowestEstimate = e;
+					lowest = i;
+				} else {
+					floorAfter = Math.min(floorAfter, e);
+				}
+			}
+			if (estimate > lowestEstimate) {
+				int[] replaced = current.clone();
+				replaced[lowest] = key;
+				keys = replaced;
+				floor = Math.min(floorAfter, estimate);
+			} else {
+				floor = lowestEstimate;
+			}
+		}
+	}
+}
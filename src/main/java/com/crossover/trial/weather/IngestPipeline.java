@@ -0,0 +1,411 @@
+package com.crossover.trial.weather;
+
+import static com.crossover.trial.weather.AirportLoader.catalog;
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.atmosphericInformation;
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.responseCache;
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.weatherHistory;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Applies collected data points to the {@link AtmosphericStateTable} from a
+ * few consumer threads instead of from every request thread.
+ *
+ * Airports are sharded over <code>weather.&lt;name&gt;.shards</code>
+ * consumers by slot, so one thread writes each airport. Request threads
+ * publish their update in the bounded ring buffer of the shard, sized by
+ * <code>weather.&lt;name&gt;.capacity</code>, and wait while it is full. The
+ * consumer drains the ring in batches: within a batch the updates of one
+ * (airport, point type) collapse into the last one. Each airport is then
+ * published once with all its point types, and its readings are added to the
+ * {@link WeatherHistory} and logged to the {@link AtmosphericStateStore}, one
+ * commit per batch.
+ *
+ * A producer can {@link Update#await()} its update, so a collector still
+ * reads its own writes. An airport whose updates can't be applied completes
+ * them as {@link Status#FAILED} and is left as it was; the other airports of
+ * the batch go on. An airport that is published stays
+ * {@link Status#APPLIED}, whatever fails after, so a retry doesn't record
+ * its readings twice.
+ *
+ * @author Erik Pereira Alves
+ */
+public class IngestPipeline {
+
+	public final static Logger LOGGER = Logger.getLogger(IngestPipeline.class.getName());
+
+	private static final int DEFAULT_SHARDS = 2;
+
+	private static final int DEFAULT_CAPACITY = 4096;
+
+	/** updates drained by a consumer at once */
+	private static final int BATCH_SIZE = 256;
+
+	/** how long a producer backs off when its ring is full */
+	private static final long FULL_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	/** values() copies the array on each call */
+	private static final DataPointType[] TYPES = DataPointType.values();
+
+	public enum Status {
+		/** not applied yet */
+		PENDING,
+		/** in the state table */
+		APPLIED,
+		/** the airport is gone */
+		UNKNOWN_AIRPORT,
+		/** the update couldn't be applied, the airport is left as it was */
+		FAILED
+	}
+
+	private final Shard[] shards;
+
+	private final AtmosphericStateStore store;
+
+	private final LongAdder applied = new LongAdder();
+
+	private final LongAdder coalesced = new LongAdder();
+
+	private final LongAdder failed = new LongAdder();
+
+	private final LongAdder batches = new LongAdder();
+
+	/**
+	 * A pipeline configured from the system properties of the given name.
+	 *
+	 * @param name
+	 *            the pipeline name
+	 * @param store
+	 *            where the applied updates are logged
+	 */
+	public IngestPipeline(String name, AtmosphericStateStore store) {
+		this(name, Integer.getInteger("weather." + name + ".shards", DEFAULT_SHARDS),
+				Integer.getInteger("weather." + name + ".capacity", DEFAULT_CAPACITY), store);
+	}
+
+	public IngestPipeline(String name, int shards, int capacity, AtmosphericStateStore store) {
+		this.store = store;
+		// a power of two, so the ring index is a mask
+		int ringSize = Integer.highestOneBit(Math.max(2, capacity - 1) << 1);
+		this.shards = new Shard[Math.max(1, shards)];
+		for (int i = 0; i < this.shards.length; i++) {
+			this.shards[i] = new Shard(ringSize);
+			Thread consumer = new Thread(this.shards[i], "weather-" + name + "-" + (i + 1));
+			consumer.setDaemon(true);
+			this.shards[i].consumer = consumer;
+			consumer.start();
+		}
+		LOGGER.info(name + " pipeline runs " + this.shards.length + " shards of " + ringSize + " updates");
+	}
+
+	/**
+	 * Publish an update, waiting for room in the ring if needed.
+	 *
+	 * @param slot
+	 *            the airport slot
+	 * @param type
+	 *            the point type, already validated
+	 * @param dp
+	 *            the data point, already validated
+	 * @return the update, to wait for
+	 * @throws RejectedExecutionException
+	 *             if interrupted while waiting for room
+	 */
+	public Update submit(int slot, DataPointType type, DataPoint dp) {
+		Update update = new Update(slot, type, dp);
+		shards[slot % shards.length].offer(update);
+		return update;
+	}
+
+	/**
+	 * @return the pipeline statistics, suitable for a json health report
+	 */
+	public Map<String, Object> stats() {
+		long queued = 0;
+		for (Shard shard : shards) {
+			queued += shard.tail.get() - shard.head;
+		}
+		Map<String, Object> retval = new LinkedHashMap<>();
+		retval.put("shards", shards.length);
+		retval.put("queued", queued);
+		retval.put("applied", applied.sum());
+		retval.put("coalesced", coalesced.sum());
+		retval.put("failed", failed.sum());
+		retval.put("batches", batches.sum());
+		return retval;
+	}
+
+	/** a data point on its way to the state table */
+	public static final class Update {
+
+		private final int slot;
+
+		private final DataPointType type;
+
+		private final DataPoint dp;
+
+		private final Thread producer = Thread.currentThread();
+
+		private volatile Status status = Status.PENDING;
+
+		Update(int slot, DataPointType type, DataPoint dp) {
+			this.slot = slot;
+			this.type = type;
+			this.dp = dp;
+		}
+
+		/**
+		 * Wait until the update is applied. Only the thread that submitted
+		 * the update is woken up, no other may wait for it.
+		 *
+		 * @return the outcome, still {@link Status#PENDING} if the producer
+		 *         was interrupted
+		 */
+		public Status await() {
+			while (status == Status.PENDING) {
+				LockSupport.park(this);
+				if (Thread.currentThread().isInterrupted()) {
+					break;
+				}
+			}
+			return status;
+		}
+
+		private void complete(Status outcome) {
+			status = outcome;
+			LockSupport.unpark(producer);
+		}
+	}
+
+	private final class Shard implements Runnable {
+
+		private final AtomicReferenceArray<Update> ring;
+
+		private final int mask;
+
+		/** next sequence to claim */
+		private final AtomicLong tail = new AtomicLong();
+
+		/** next sequence to consume, written by the consumer only */
+		private volatile long head;
+
+		private volatile boolean sleeping;
+
+		private Thread consumer;
+
+		/** reused by the consumer between batches */
+		private final Update[] batch = new Update[BATCH_SIZE];
+
+		/** the updates of the batch by airport slot, reused too */
+		private AirportUpdates[] airports = new AirportUpdates[1024];
+
+		/** the slots of the airports in the batch, in arrival order */
+		private final int[] touched = new int[BATCH_SIZE];
+
+		/** the data points of the snapshot being built */
+		private final DataPoint[] points = new DataPoint[TYPES.length];
+
+		private final AtmosphericStateStore.Batch log = store.batch();
+
+		Shard(int capacity) {
+			ring = new AtomicReferenceArray<>(capacity);
+			mask = capacity - 1;
+		}
+
+		void offer(Update update) {
+			for (;;) {
+				long sequence = tail.get();
+				if (sequence - head > mask) {
+					// full, back pressure
+					if (Thread.currentThread().isInterrupted()) {
+						throw new RejectedExecutionException("ingest pipeline full");
+					}
+					LockSupport.parkNanos(this, FULL_BACKOFF_NANOS);
+				} else if (tail.compareAndSet(sequence, sequence + 1)) {
+					ring.set((int) (sequence & mask), update);
+					break;
+				}
+			}
+			if (sleeping) {
+				LockSupport.unpark(consumer);
+			}
+		}
+
+		@Override
+		public void run() {
+			for (;;) {
+				long sequence = head;
+				int count = 0;
+				while (count < BATCH_SIZE) {
+					int index = (int) (sequence & mask);
+					Update update = ring.get(index);
+					if (update == null) {
+						// not published yet
+						break;
+					}
+					ring.set(index, null);
+					batch[count++] = update;
+					sequence++;
+				}
+
+				if (count == 0) {
+					sleeping = true;
+					if (ring.get((int) (head & mask)) == null) {
+						LockSupport.park(this);
+					}
+					sleeping = false;
+					continue;
+				}
+
+				// the slots are free again while the batch is applied
+				head = sequence;
+				try {
+					apply(count);
+				} catch (RuntimeException e) {
+					// past the airports, which handle their own failures
+					LOGGER.log(Level.SEVERE, "couldn't complete " + count + " updates", e);
+					for (int i = 0; i < count; i++) {
+						if (batch[i].status == Status.PENDING) {
+							failed.increment();
+							batch[i].complete(Status.FAILED);
+						}
+					}
+				}
+				for (int i = 0; i < count; i++) {
+					batch[i] = null;
+				}
+			}
+		}
+
+		private void apply(int count) {
+			int airportCount = 0;
+			try {
+				for (int i = 0; i < count; i++) {
+					Update update = batch[i];
+					AirportUpdates airport = airport(update.slot);
+					if (airport.outcome == null) {
+						airport.outcome = Status.PENDING;
+						touched[airportCount++] = update.slot;
+					}
+					if (airport.byType[update.type.ordinal()] != null) {
+						coalesced.increment();
+					}
+					airport.byType[update.type.ordinal()] = update;
+				}
+
+				long now = System.currentTimeMillis();
+				for (int a = 0; a < airportCount; a++) {
+					int slot = touched[a];
+					AirportUpdates airport = airports[slot];
+					try {
+						airport.outcome = publish(slot, airport.byType, now);
+					} catch (RuntimeException e) {
+						if (airport.outcome == Status.PENDING) {
+							LOGGER.log(Level.SEVERE, "couldn't apply the updates of slot " + slot, e);
+							airport.outcome = Status.FAILED;
+						} else {
+							// published, a retry would count the readings twice
+							LOGGER.log(Level.SEVERE, "couldn't record the updates of slot " + slot, e);
+						}
+					}
+				}
+				// group commit, before the producers are released
+				store.commit(log);
+
+				// counted before the producers wake up and read the stats
+				int failures = 0;
+				for (int i = 0; i < count; i++) {
+					if (airports[batch[i].slot].outcome == Status.FAILED) {
+						failures++;
+					}
+				}
+				applied.add(count - failures);
+				failed.add(failures);
+				batches.increment();
+				for (int i = 0; i < count; i++) {
+					batch[i].complete(airports[batch[i].slot].outcome);
+				}
+			} finally {
+				// ready for the next batch, even after a failure
+				for (int a = 0; a < airportCount; a++) {
+					airports[touched[a]].clear();
+				}
+			}
+		}
+
+		/**
+		 * Publish the updates of an airport, then add them to the history and
+		 * the log.
+		 *
+		 * @return the outcome of the updates; {@link Status#APPLIED} is set
+		 *         on the airport as soon as the weather is published
+		 */
+		private Status publish(int slot, Update[] byType, long now) {
+			AtmosphericInformation current;
+			AtmosphericInformation updated;
+			// an airport admin change may still replace the entry
+			do {
+				current = atmosphericInformation.get(slot);
+				if (current == null) {
+					return Status.UNKNOWN_AIRPORT;
+				}
+				// one snapshot per airport and batch, however many types changed
+				for (int t = 0; t < TYPES.length; t++) {
+					points[t] = byType[t] == null ? current.get(TYPES[t]) : byType[t].dp;
+				}
+				updated = AtmosphericInformation.of(points, now);
+			} while (!atmosphericInformation.compareAndSet(slot, current, updated));
+			airports[slot].outcome = Status.APPLIED;
+
+			// read once the weather is published, see WeatherResponseCache
+			AirportData ad = catalog().registry().airport(slot);
+			if (ad != null) {
+				responseCache.updated(ad);
+				for (Update update : byType) {
+					if (update != null) {
+						weatherHistory.record(slot, update.type, update.dp, now);
+						log.add(ad.getIata(), update.type, update.dp, now);
+					}
+				}
+			}
+			return Status.APPLIED;
+		}
+
+		/** @return the updates of an airport, reused from batch to batch */
+		private AirportUpdates airport(int slot) {
+			if (slot >= airports.length) {
+				airports = Arrays.copyOf(airports, Math.max(slot + 1, 2 * airports.length));
+			}
+			AirportUpdates airport = airports[slot];
+			if (airport == null) {
+				airport = new AirportUpdates();
+				airports[slot] = airport;
+			}
+			return airport;
+		}
+	}
+
+	/** the updates of one airport in a batch, the last one of each point type */
+	private static final class AirportUpdates {
+
+		private final Update[] byType = new Update[TYPES.length];
+
+		/** null while the airport is not in the batch */
+		private Status outcome;
+
+		void clear() {
+			Arrays.fill(byType, null);
+			outcome = null;
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package com.crossover.trial.weather;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts non negative values, durations in nanoseconds or sizes in bytes, in
+ * the log-linear buckets of an HDR histogram: each power of two is split in
+ * {@link #SUB_BUCKETS} buckets of equal width, so a value is known to within
+ * 1/32 of itself whatever its magnitude. Values under 64 have a bucket each,
+ * values past 2^{@link #MAX_EXPONENT} share the last one.
+ *
+ * Recording finds the bucket with a few shifts and counts it in
+ * {@link StripedCounters}, without locking, so the threads recording the
+ * same operation don't contend. The quantiles are computed when read.
+ *
+ * @author Erik Pereira Alves
+ */
+public class LogLinearHistogram {
+
+	private static final int SUB_BITS = 5;
+
+	/** buckets per power of two */
+	static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	/** the largest power of two told apart, 2^42 ns is over an hour */
+	static final int MAX_EXPONENT = 42;
+
+	/** buckets in all, the last one counts the larger values */
+	static final int BUCKETS = ((MAX_EXPONENT - SUB_BITS + 2) << SUB_BITS) + 1;
+
+	private final StripedCounters counts = new StripedCounters(BUCKETS, StripedCounters.defaultStripes());
+
+	private final LongAdder sum = new LongAdder();
+
+	/**
+	 * Count a value.
+	 *
+	 * @param value
+	 *            the value, negative ones are counted as 0
+	 */
+	public void record(long value) {
+		long v = Math.max(0, value);
+		counts.increment(bucket(v));
+		sum.add(v);
+	}
+
+	/** @return the counts as they are now */
+	public Snapshot snapshot() {
+		return new Snapshot(counts.snapshot(BUCKETS), sum.sum());
+	}
+
+	/** @return the bucket of a value */
+	static int bucket(long value) {
+		// values under 2 * SUB_BUCKETS take the exponent of SUB_BUCKETS, a
+		// shift of 0 then gives each its own bucket
+		int exponent = 63 - Long.numberOfLeadingZeros(value | SUB_BUCKETS);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int shift = exponent - SUB_BITS;
+		return (shift << SUB_BITS) + (int) (value >>> shift);
+	}
+
+	/** @return the largest value of a bucket, Long.MAX_VALUE for the last one */
+	static long highestValue(int bucket) {
+		if (bucket < 2 * SUB_BUCKETS) {
+			return bucket;
+		}
+		if (bucket >= BUCKETS - 1) {
+			return Long.MAX_VALUE;
+		}
+		int shift = (bucket >> SUB_BITS) - 1;
+		long lowest = (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	/** the counts of a histogram at one point in time */
+	public static final class Snapshot {
+
+		private final long[] buckets;
+
+		private final long count;
+
+		private final long sum;
+
+		private Snapshot(long[] buckets, long sum) {
+			long count = 0;
+			for (long c : buckets) {
+				count += c;
+			}
+			this.buckets = buckets;
+			this.count = count;
+			this.sum = sum;
+		}
+
+		/** @return the number of values counted */
+		public long count() {
+			return count;
+		}
+
+		/** @return the sum of the values counted */
+		public long sum() {
+			return sum;
+		}
+
+		/**
+		 * @param quantile
+		 *            the quantile, in [0, 1]
+		 * @return the largest value of the bucket holding the quantile, the
+		 *         largest value told apart past the last bucket and -1 if
+		 *         nothing was counted
+		 */
+		public long valueAt(double quantile) {
+			if (count == 0) {
+				return -1;
+			}
+			long rank = Math.max(1, (long) Math.ceil(quantile * count));
+			long seen = 0;
+			for (int bucket = 0; bucket < buckets.length; bucket++) {
+				seen += buckets[bucket];
+				if (seen >= rank) {
+					return Math.min(highestValue(bucket), 1L << MAX_EXPONENT + 1);
+				}
+			}
+			return 1L << MAX_EXPONENT + 1;
+		}
+	}
+}
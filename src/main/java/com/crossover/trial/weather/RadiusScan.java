@@ -0,0 +1,144 @@
+package com.crossover.trial.weather;
+
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.atmosphericInformation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Filters the index candidates of a radius query down to the airports inside
+ * the circle.
+ *
+ * The candidate count estimates the work: up to
+ * <code>weather.scan.threshold</code> candidates the scan runs on the calling
+ * thread, above it the slot range is split over a fork/join pool of
+ * <code>weather.scan.parallelism</code> workers. Partial results are
+ * concatenated left to right so either way they come out in slot order.
+ *
+ * @author Erik Pereira Alves
+ */
+public class RadiusScan extends RecursiveTask<RadiusScan> {
+
+	private static final long serialVersionUID = 1L;
+
+	/** candidates above which the scan goes parallel */
+	static final int PARALLEL_THRESHOLD = Integer.getInteger("weather.scan.threshold", 4096);
+
+	/** candidates scanned by one fork/join leaf */
+	private static final int LEAF_SIZE = 1024;
+
+	private static final ForkJoinPool POOL = new ForkJoinPool(
+			Integer.getInteger("weather.scan.parallelism", Runtime.getRuntime().availableProcessors()));
+
+	/** positions of the catalog version the candidates come from */
+	private final AirportCoordinates coordinates;
+
+	/** slot of the airport at the center */
+	private final int center;
+
+	private final double radius;
+
+	/** candidate slots, sorted */
+	private final int[] candidates;
+
+	private final int from;
+
+	private final int to;
+
+	/** slots of the airports in the circle */
+	private int[] slots;
+
+	private int count;
+
+	/** the snapshots holding data, in slot order */
+	private List<AtmosphericInformation> found;
+
+	private RadiusScan(AirportCoordinates coordinates, int center, double radius, int[] candidates, int from,
+			int to) {
+		this.coordinates = coordinates;
+		this.center = center;
+		this.radius = radius;
+		this.candidates = candidates;
+		this.from = from;
+		this.to = to;
+	}
+
+	/**
+	 * Scan the candidates of a radius query.
+	 *
+	 * @param coordinates
+	 *            the airport positions, of the catalog version of the query
+	 * @param center
+	 *            the slot of the airport at the center
+	 * @param radius
+	 *            the radius in km
+	 * @param candidates
+	 *            the candidate slots, sorted
+	 * @return the scan with its results
+	 */
+	public static RadiusScan scan(AirportCoordinates coordinates, int center, double radius, int[] candidates) {
+		return scan(coordinates, center, radius, candidates, PARALLEL_THRESHOLD);
+	}
+
+	/** as {@link #scan(AirportCoordinates, int, double, int[])}, going parallel above the given threshold */
+	static RadiusScan scan(AirportCoordinates coordinates, int center, double radius, int[] candidates,
+			int threshold) {
+		RadiusScan scan = new RadiusScan(coordinates, center, radius, candidates, 0, candidates.length);
+		if (candidates.length > threshold) {
+			POOL.invoke(scan);
+		} else {
+			scan.scanRange();
+		}
+		return scan;
+	}
+
+	@Override
+	protected RadiusScan compute() {
+		if (to - from <= LEAF_SIZE) {
+			scanRange();
+			return this;
+		}
+		int middle = (from + to) >>> 1;
+		RadiusScan left = new RadiusScan(coordinates, center, radius, candidates, from, middle);
+		RadiusScan right = new RadiusScan(coordinates, center, radius, candidates, middle, to);
+		right.fork();
+		left.compute();
+		right.join();
+		merge(left, right);
+		return this;
+	}
+
+	private void scanRange() {
+		slots = new int[to - from];
+		count = coordinates.filter(center, radius, candidates, from, to, slots);
+		found = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			AtmosphericInformation ai = atmosphericInformation.get(slots[i]);
+			if (ai != null && ai.hasReadings()) {
+				found.add(ai);
+			}
+		}
+	}
+
+	private void merge(RadiusScan left, RadiusScan right) {
+		count = left.count + right.count;
+		slots = Arrays.copyOf(left.slots, count);
+		System.arraycopy(right.slots, 0, slots, left.count, right.count);
+		found = new ArrayList<>(left.found.size() + right.found.size());
+		found.addAll(left.found);
+		found.addAll(right.found);
+	}
+
+	/** @return the snapshots holding data, in slot order */
+	public List<AtmosphericInformation> found() {
+		return found;
+	}
+
+	/** @return the slots of the airports in the circle */
+	public int[] slots() {
+		return Arrays.copyOf(slots, count);
+	}
+}
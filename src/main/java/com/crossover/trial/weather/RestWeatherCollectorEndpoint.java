@@ -1,13 +1,9 @@
 package com.crossover.trial.weather;
 
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.io.InputStream;
 import java.util.logging.Logger;
 
 import javax.ws.rs.Path;
-import javax.ws.rs.PathParam;
 import javax.ws.rs.core.Response;
 
 import com.crossover.trial.weather.WeatherCollectorEndpointCallableTask.restCollectorEnum;
@@ -24,9 +20,16 @@ import com.google.gson.Gson;
 public class RestWeatherCollectorEndpoint implements WeatherCollectorEndpoint {
 	public final static Logger LOGGER = Logger.getLogger(RestWeatherCollectorEndpoint.class.getName());
 
-	private static int pool = 100; // to be analyzed size needed for project.
+	/** default number of workers, see {@link EndpointExecutor} to configure them */
+	private static int pool = 100;
 
-	private static ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(pool);
+	static final EndpointExecutor executor = new EndpointExecutor("collect", pool);
+
+	/** persists the applied data points, see {@link AtmosphericStateStore} */
+	static final AtmosphericStateStore stateStore = new AtmosphericStateStore("store");
+
+	/** applies the collected data points, see {@link IngestPipeline} */
+	static final IngestPipeline ingest = new IngestPipeline("ingest", stateStore);
 
 	/** shared gson json to object factory */
 	public final static Gson gson = new Gson();
@@ -37,135 +40,72 @@ public class RestWeatherCollectorEndpoint implements WeatherCollectorEndpoint {
 	}
 
 	@Override
-	public Response updateWeather(@PathParam("iata") String iataCode, @PathParam("pointType") String pointType,
-			String datapointJson) {
+	public Response updateWeather(String iataCode, String pointType, String datapointJson) {
 
-		Response response = Response.status(Response.Status.BAD_REQUEST).build();
 		WeatherCollectorEndpointCallableTask obj = new WeatherCollectorEndpointCallableTask();
 		obj.setRestCallCollector(restCollectorEnum.updateWeather);
 		obj.setIata(iataCode);
 		obj.setPointType(pointType);
 		obj.setDatapointJson(datapointJson);
-
-		Future<Response> future = executor.submit(obj);
-		boolean listen = true;
-		while (listen) {
-			if (future.isDone()) {
-				try {
-					response = future.get();
-					listen = false;
-
-				} catch (InterruptedException | ExecutionException e) {
-					e.printStackTrace();
-				}
-			}
+		if (datapointJson != null) {
+			WeatherMetrics.UPDATE_PAYLOAD.record(WeatherMetrics.utf8Length(datapointJson));
 		}
 
-		return response;
+		return executor.execute(obj, WeatherMetrics.updateWeather(pointType));
+
+	}
+
+	@Override
+	public Response updateWeatherBulk(InputStream records) {
+
+		WeatherCollectorEndpointCallableTask obj = new WeatherCollectorEndpointCallableTask();
+		obj.setRestCallCollector(restCollectorEnum.updateWeatherBulk);
+		obj.setRecords(records == null ? null : new CountingInputStream(records, WeatherMetrics.BULK_PAYLOAD));
+
+		return executor.execute(obj, WeatherMetrics.COLLECT_BULK);
 
 	}
 
 	@Override
 	public Response getAirports() {
 
-		Response response = Response.status(Response.Status.BAD_REQUEST).build();
 		WeatherCollectorEndpointCallableTask obj = new WeatherCollectorEndpointCallableTask();
 		obj.setRestCallCollector(restCollectorEnum.getAirports);
 
-		Future<Response> future = executor.submit(obj);
-		boolean listen = true;
-		while (listen) {
-			if (future.isDone()) {
-				try {
-					response = future.get();
-					listen = false;
-
-				} catch (InterruptedException | ExecutionException e) {
-					e.printStackTrace();
-				}
-			}
-		}
-
-		return response;
+		return executor.execute(obj, WeatherMetrics.GET_AIRPORTS);
 	}
 
 	@Override
-	public Response getAirport(@PathParam("iata") String iata) {
+	public Response getAirport(String iata) {
 
-		Response response = Response.status(Response.Status.BAD_REQUEST).build();
 		WeatherCollectorEndpointCallableTask obj = new WeatherCollectorEndpointCallableTask();
 		obj.setRestCallCollector(restCollectorEnum.getAirport);
 		obj.setIata(iata);
 
-		Future<Response> future = executor.submit(obj);
-		boolean listen = true;
-		while (listen) {
-			if (future.isDone()) {
-				try {
-					response = future.get();
-					listen = false;
-
-				} catch (InterruptedException | ExecutionException e) {
-					e.printStackTrace();
-				}
-			}
-		}
-
-		return response;
+		return executor.execute(obj, WeatherMetrics.GET_AIRPORT);
 	}
 
 	@Override
-	public Response addAirport(@PathParam("iata") String iata, @PathParam("lat") String latString,
-			@PathParam("long") String longString) {
+	public Response addAirport(String iata, String latString, String longString) {
 
-		Response response = Response.status(Response.Status.BAD_REQUEST).build();
 		WeatherCollectorEndpointCallableTask obj = new WeatherCollectorEndpointCallableTask();
 		obj.setRestCallCollector(restCollectorEnum.addAirport);
 		obj.setIata(iata);
 		obj.setLatitude(latString);
 		obj.setLongitude(longString);
 
-		Future<Response> future = executor.submit(obj);
-		boolean listen = true;
-		while (listen) {
-			if (future.isDone()) {
-				try {
-					response = future.get();
-					listen = false;
-
-				} catch (InterruptedException | ExecutionException e) {
-					e.printStackTrace();
-				}
-			}
-		}
-
-		return response;
+		return executor.execute(obj, WeatherMetrics.ADD_AIRPORT);
 
 	}
 
 	@Override
-	public Response deleteAirport(@PathParam("iata") String iata) {
+	public Response deleteAirport(String iata) {
 
-		Response response = Response.status(Response.Status.BAD_REQUEST).build();
 		WeatherCollectorEndpointCallableTask obj = new WeatherCollectorEndpointCallableTask();
 		obj.setRestCallCollector(restCollectorEnum.deleteAirport);
 		obj.setIata(iata);
 
-		Future<Response> future = executor.submit(obj);
-		boolean listen = true;
-		while (listen) {
-			if (future.isDone()) {
-				try {
-					response = future.get();
-					listen = false;
-
-				} catch (InterruptedException | ExecutionException e) {
-					e.printStackTrace();
-				}
-			}
-		}
-
-		return response;
+		return executor.execute(obj, WeatherMetrics.DELETE_AIRPORT);
 
 	}
 
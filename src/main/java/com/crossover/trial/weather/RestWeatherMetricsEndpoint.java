@@ -0,0 +1,19 @@
+package com.crossover.trial.weather;
+
+import javax.ws.rs.Path;
+
+/**
+ * A REST implementation of the metrics API, see {@link WeatherMetrics}.
+ * Rendering reads the histograms without stopping the requests recording
+ * into them, so it doesn't go through an {@link EndpointExecutor}.
+ *
+ * @author Erik Pereira Alves
+ */
+@Path("/metrics")
+public class RestWeatherMetricsEndpoint implements WeatherMetricsEndpoint {
+
+	@Override
+	public String metrics() {
+		return WeatherMetrics.render();
+	}
+}
@@ -6,10 +6,6 @@ import com.google.gson.Gson;
 import javax.ws.rs.Path;
 import javax.ws.rs.core.Response;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.logging.Logger;
 import static com.crossover.trial.weather.AirportLoader.*;
 
@@ -23,9 +19,10 @@ import static com.crossover.trial.weather.AirportLoader.*;
 @Path("/query")
 public class RestWeatherQueryEndpoint implements WeatherQueryEndpoint {
 
-	private static int pool = 100; // to be analyzed size needed for project.
+	/** default number of workers, see {@link EndpointExecutor} to configure them */
+	private static int pool = 100;
 
-	private static ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(pool);
+	static final EndpointExecutor executor = new EndpointExecutor("query", pool);
 
 	public final static Logger LOGGER = Logger.getLogger("WeatherQuery");
 
@@ -39,22 +36,22 @@ public class RestWeatherQueryEndpoint implements WeatherQueryEndpoint {
 	public static int numIatasFound = 0; // used for test assertion only.
 
 	/**
-	 * atmospheric information for each airport, idx corresponds with
-	 * airportData
+	 * atmospheric information for each airport, idx corresponds with the
+	 * airport slot in the {@link AirportRegistry}
 	 */
-	protected static List<AtmosphericInformation> atmosphericInformation = new LinkedList<>();
+	protected static AtmosphericStateTable atmosphericInformation = new AtmosphericStateTable();
+
+	/** radius query results, see {@link WeatherResponseCache} */
+	protected static final WeatherResponseCache responseCache = new WeatherResponseCache();
+
+	/** recent readings of each airport, see {@link WeatherHistory} */
+	protected static final WeatherHistory weatherHistory = new WeatherHistory();
 
 	/**
-	 * Internal performance counter to better understand most requested
-	 * information, this map can be improved but for now provides the basis for
-	 * future performance optimizations. Due to the stateless deployment
-	 * architecture we don't want to write this to disk, but will pull it off
-	 * using a REST request and aggregate with other performance metrics
-	 * {@link #ping()}
+	 * Internal performance counters to better understand most requested
+	 * information, reported by {@link #ping()}, see {@link WeatherHealth}
 	 */
-	public static Map<AirportData, Integer> requestFrequency = new HashMap<AirportData, Integer>();
-
-	public static Map<Double, Integer> radiusFreq = new HashMap<Double, Integer>();
+	static final WeatherHealth health = new WeatherHealth("health");
 
 	static {
 		init();
@@ -68,39 +65,7 @@ public class RestWeatherQueryEndpoint implements WeatherQueryEndpoint {
 	 */
 	@Override
 	public String ping() {
-		Map<String, Object> retval = new HashMap<>();
-
-		int datasize = 0;
-		for (AtmosphericInformation ai : atmosphericInformation) {
-			// we only count recent readings
-			if (ai.getCloudCover() != null || ai.getHumidity() != null || ai.getPressure() != null
-					|| ai.getPrecipitation() != null || ai.getTemperature() != null || ai.getWind() != null) {
-				// updated in the last day
-				if (ai.getLastUpdateTime() > System.currentTimeMillis() - 86400000) {
-					datasize++;
-				}
-			}
-		}
-		retval.put("datasize", datasize);
-
-		Map<String, Double> freq = new HashMap<>();
-		// fraction of queries
-		for (AirportData data : airports) {
-			double frac = (double) requestFrequency.getOrDefault(data, 0) / requestFrequency.size();
-			freq.put(data.getIata(), frac);
-		}
-		retval.put("iata_freq", freq);
-
-		int m = radiusFreq.keySet().stream().max(Double::compare).orElse(1000.0).intValue() + 1;
-
-		int[] hist = new int[m];
-		for (Map.Entry<Double, Integer> e : radiusFreq.entrySet()) {
-			int i = e.getKey().intValue() % 10;
-			hist[i] += e.getValue();
-		}
-		retval.put("radius_freq", hist);
-
-		return gson.toJson(retval);
+		return health.snapshot();
 	}
 
 	/**
@@ -118,27 +83,42 @@ public class RestWeatherQueryEndpoint implements WeatherQueryEndpoint {
 	@Override
 	public Response weather(String iata, String radiusString) {
 
-		Response response = Response.status(Response.Status.BAD_REQUEST).build();
 		WeatherQueryEndpointCallableTask obj = new WeatherQueryEndpointCallableTask();
 		obj.setRestCall(restEnum.weather);
 		obj.setIata(iata);
 		obj.setRadiusString(radiusString);
 
-		Future<Response> future = executor.submit(obj);
-		boolean listen = true;
-		while (listen) {
-			if (future.isDone()) {
-				try {
-					response = future.get();
-					listen = false;
-
-				} catch (InterruptedException | ExecutionException e) {
-					e.printStackTrace();
-				}
-			}
-		}
-
-		return response;
+		return executor.execute(obj, WeatherMetrics.queryWeather(radiusString));
+	}
+
+	/**
+	 * Retrieve the recent readings of one point type at an airport.
+	 *
+	 * @param iata
+	 *            the iataCode
+	 * @param pointType
+	 *            the point type
+	 * @param from
+	 *            the start of the range in milliseconds since UTC epoch
+	 * @param to
+	 *            the end of the range in milliseconds since UTC epoch
+	 * @param resolution
+	 *            raw, 1m or 1h
+	 *
+	 * @return a list of readings or buckets
+	 */
+	@Override
+	public Response history(String iata, String pointType, String from, String to, String resolution) {
+
+		WeatherQueryEndpointCallableTask obj = new WeatherQueryEndpointCallableTask();
+		obj.setRestCall(restEnum.history);
+		obj.setIata(iata);
+		obj.setPointType(pointType);
+		obj.setFrom(from);
+		obj.setTo(to);
+		obj.setResolution(resolution);
+
+		return executor.execute(obj, WeatherMetrics.QUERY_HISTORY);
 	}
 
 	/**
@@ -150,9 +130,7 @@ public class RestWeatherQueryEndpoint implements WeatherQueryEndpoint {
 	 *            query radius
 	 */
 	public void updateRequestFrequency(String iata, Double radius) {
-		AirportData airportData = findAirportData(iata);
-		requestFrequency.put(airportData, requestFrequency.getOrDefault(airportData, 0) + 1);
-		radiusFreq.put(radius, radiusFreq.getOrDefault(radius, 0));
+		health.record(getAirportDataIdx(iata), radius);
 	}
 
 	/**
@@ -164,38 +142,20 @@ public class RestWeatherQueryEndpoint implements WeatherQueryEndpoint {
 	 */
 	public static AirportData findAirportData(String iataCode) {
 
-		return airports.stream().filter(ap -> ap.getIata().equals(iataCode)).findFirst().orElse(null);
+		return catalog().registry().find(iataCode);
 	}
 
 	/**
-	 * Given an iataCode find the airport data
+	 * Given an iataCode find the airport slot, which is also its index in
+	 * {@link #atmosphericInformation}
 	 *
 	 * @param iataCode
 	 *            as a string
-	 * @return airport data or null if not found
+	 * @return the airport slot or {@link AirportRegistry#NO_SLOT} if not found
 	 */
 	public static int getAirportDataIdx(String iataCode) {
-		AirportData ad = findAirportData(iataCode);
 
-		return airports.indexOf(ad);
-	}
-
-	/**
-	 * Haversine distance between two airports.
-	 *
-	 * @param ad1
-	 *            airport 1
-	 * @param ad2
-	 *            airport 2
-	 * @return the distance in KM
-	 */
-	public double calculateDistance(AirportData ad1, AirportData ad2) {
-		double deltaLat = Math.toRadians(ad2.getLatitude() - ad1.getLatitude());
-		double deltaLon = Math.toRadians(ad2.getLongitude() - ad1.getLongitude());
-		double a = Math.pow(Math.sin(deltaLat / 2), 2)
-				+ Math.pow(Math.sin(deltaLon / 2), 2) * Math.cos(ad1.getLatitude()) * Math.cos(ad2.getLatitude());
-		double c = 2 * Math.asin(Math.sqrt(a));
-		return R * c;
+		return catalog().registry().slotOf(iataCode);
 	}
 
 	/**
@@ -204,10 +164,9 @@ public class RestWeatherQueryEndpoint implements WeatherQueryEndpoint {
 	 */
 	protected static void init() {
 
-		executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(pool);
-		airports.clear();
 		atmosphericInformation.clear();
-		requestFrequency.clear();
+		responseCache.invalidateAll();
+		health.reset();
 		setUpToDateFlag(false);
 		getAirports();
 	}
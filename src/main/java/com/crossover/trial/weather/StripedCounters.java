@@ -0,0 +1,125 @@
+package com.crossover.trial.weather;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters addressed by index, striped like a {@link java.util.concurrent.atomic.LongAdder}
+ * so that threads counting at the same time don't fight over cache lines.
+ *
+ * Each thread counts in the stripe picked by its id, and a counter is the sum
+ * of its stripes. The counters live in chunks that never move, a chunk holding
+ * every stripe of a range of indexes with the stripes far apart, so threads
+ * of different stripes never write to the same cache line. Growing only
+ * copies the chunk directory.
+ *
+ * @author Erik Pereira Alves
+ */
+public class StripedCounters {
+
+	/** longs per cache line and a spare, stripes start this far apart at least */
+	private static final int PADDING = 16;
+
+	private final int chunkSize;
+
+	/** distance between the stripes of a chunk */
+	private final int stride;
+
+	private final int stripeMask;
+
+	/** the chunks, replaced (never mutated in place) when it grows */
+	private volatile AtomicLongArray[] chunks = new AtomicLongArray[1];
+
+	/**
+	 * @param chunkSize
+	 *            counters per chunk
+	 * @param stripes
+	 *            the number of stripes, rounded up to a power of two
+	 */
+	public StripedCounters(int chunkSize, int stripes) {
+		this.chunkSize = chunkSize;
+		this.stride = (chunkSize + PADDING - 1) / PADDING * PADDING;
+		int rounded = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+		this.stripeMask = (stripes <= 1 ? 1 : rounded) - 1;
+	}
+
+	/** @return a stripe count suiting this machine, <code>weather.stripes</code> overrides it */
+	public static int defaultStripes() {
+		return Integer.getInteger("weather.stripes", Math.min(16, 2 * Runtime.getRuntime().availableProcessors()));
+	}
+
+	/**
+	 * Count one.
+	 *
+	 * @param index
+	 *            the counter
+	 */
+	public void increment(int index) {
+		int chunk = index / chunkSize;
+		AtomicLongArray[] directory = chunks;
+		AtomicLongArray counters = chunk < directory.length ? directory[chunk] : null;
+		if (counters == null) {
+			counters = chunkFor(chunk);
+		}
+		counters.getAndIncrement(stripe() * stride + index % chunkSize);
+	}
+
+	/**
+	 * @return the value of a counter
+	 */
+	public long get(int index) {
+		int chunk = index / chunkSize;
+		AtomicLongArray[] directory = chunks;
+		AtomicLongArray counters = chunk < directory.length ? directory[chunk] : null;
+		if (counters == null) {
+			return 0;
+		}
+		long sum = 0;
+		for (int at = index % chunkSize; at < counters.length(); at += stride) {
+			sum += counters.get(at);
+		}
+		return sum;
+	}
+
+	/**
+	 * Read the counters [0, length) in one pass. Each counter is read once, so
+	 * totals computed from the copy agree with the counters in it.
+	 *
+	 * @param length
+	 *            the number of counters to read
+	 * @return their values
+	 */
+	public long[] snapshot(int length) {
+		long[] retval = new long[length];
+		for (int index = 0; index < length; index++) {
+			retval[index] = get(index);
+		}
+		return retval;
+	}
+
+	/** set every counter back to 0 */
+	public synchronized void clear() {
+		chunks = new AtomicLongArray[1];
+	}
+
+	/** spreads the thread ids, consecutive ones land on different stripes */
+	private int stripe() {
+		long id = Thread.currentThread().getId();
+		return (int) (id * 0x9E3779B97F4A7C15L >>> 40) & stripeMask;
+	}
+
+	private synchronized AtomicLongArray chunkFor(int chunk) {
+		AtomicLongArray[] directory = chunks;
+		if (chunk >= directory.length) {
+			directory = Arrays.copyOf(directory, Math.max(2 * directory.length, chunk + 1));
+		}
+		if (directory[chunk] == null) {
+			if (directory == chunks) {
+				directory = directory.clone();
+			}
+			directory[chunk] = new AtomicLongArray((stripeMask + 1) * stride);
+			chunks = directory;
+		}
+		return directory[chunk];
+	}
+}
@@ -1,5 +1,7 @@
 package com.crossover.trial.weather;
 
+import java.io.InputStream;
+
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
@@ -39,6 +41,23 @@ public interface WeatherCollectorEndpoint {
 	Response updateWeather(@PathParam("iata") String iataCode, @PathParam("pointType") String pointType,
 			String datapointJson);
 
+	/**
+	 * Update the atmospheric information of many airports at once from a
+	 * stream of newline delimited json records, each holding iata and
+	 * pointType keys next to the data point keys.
+	 *
+	 * @param records
+	 *            the record stream, one json dict per line
+	 *
+	 * @return HTTP Response code and a json summary with the number of
+	 *         records received and applied, and the line and reason of each
+	 *         rejected record
+	 */
+	@POST
+	@Path("/weather")
+	@Produces(MediaType.APPLICATION_JSON)
+	Response updateWeatherBulk(InputStream records);
+
 	/**
 	 * Return a list of known airports as a json formatted list
 	 *
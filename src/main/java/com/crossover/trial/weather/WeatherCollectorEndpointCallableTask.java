@@ -1,18 +1,29 @@
 package com.crossover.trial.weather;
 
 import static com.crossover.trial.weather.AirportLoader.airports;
-import static com.crossover.trial.weather.AirportLoader.getAirportByIata;
-import static com.crossover.trial.weather.AirportLoader.updateAirportDataFile;
+import static com.crossover.trial.weather.AirportLoader.changeCatalog;
+import static com.crossover.trial.weather.AirportLoader.journalAirport;
+import static com.crossover.trial.weather.AirportLoader.journalRemoval;
 import static com.crossover.trial.weather.RestWeatherCollectorEndpoint.gson;
+import static com.crossover.trial.weather.RestWeatherCollectorEndpoint.ingest;
 import static com.crossover.trial.weather.RestWeatherQueryEndpoint.atmosphericInformation;
 import static com.crossover.trial.weather.RestWeatherQueryEndpoint.findAirportData;
 import static com.crossover.trial.weather.RestWeatherQueryEndpoint.getAirportDataIdx;
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.responseCache;
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.weatherHistory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 
+import javax.ws.rs.InternalServerErrorException;
 import javax.ws.rs.core.Response;
 
 /**
@@ -28,7 +39,7 @@ public class WeatherCollectorEndpointCallableTask implements Callable<Response>
 	public final static Logger LOGGER = Logger.getLogger("WeatherCollectorEndpointCallableTask");
 
 	public enum restCollectorEnum {
-		updateWeather, getAirports, getAirport, addAirport, deleteAirport;
+		updateWeather, updateWeatherBulk, getAirports, getAirport, addAirport, deleteAirport;
 	}
 
 	private restCollectorEnum restCallCollector;
@@ -45,6 +56,14 @@ public class WeatherCollectorEndpointCallableTask implements Callable<Response>
 
 	private String datapointJson;
 
+	private InputStream records;
+
+	/** one parser per worker, they keep state between calls */
+	private static final ThreadLocal<DataPointParser> PARSER = ThreadLocal.withInitial(DataPointParser::new);
+
+	/** records applied together, one snapshot per airport and batch */
+	private static final int BULK_BATCH_SIZE = 512;
+
 	@Override
 	public Response call() throws Exception {
 
@@ -53,6 +72,9 @@ public class WeatherCollectorEndpointCallableTask implements Callable<Response>
 		case updateWeather:
 			return updateWeather(iata, pointType, datapointJson);
 
+		case updateWeatherBulk:
+			return updateWeatherBulk(records);
+
 		case getAirports:
 			return getAirports();
 
@@ -72,14 +94,55 @@ public class WeatherCollectorEndpointCallableTask implements Callable<Response>
 	}
 
 	public Response updateWeather(String iataCode, String pointType, String datapointJson) {
+		DataPointParser parser = PARSER.get();
+		DataPoint dp = parser.parse(datapointJson) ? parser.toDataPoint()
+				: gson.fromJson(datapointJson, DataPoint.class);
 		try {
-			addDataPoint(iataCode, pointType, gson.fromJson(datapointJson, DataPoint.class));
+			addDataPoint(iataCode, pointType, dp);
 		} catch (WeatherException e) {
 			e.printStackTrace();
 		}
 		return Response.status(Response.Status.OK).build();
 	}
 
+	public Response updateWeatherBulk(InputStream records) throws IOException {
+		int received = 0;
+		int applied = 0;
+		List<Map<String, Object>> rejected = new ArrayList<>();
+		List<WeatherRecordReader.Record> batch = new ArrayList<>(BULK_BATCH_SIZE);
+
+		try (WeatherRecordReader reader = new WeatherRecordReader(records)) {
+			WeatherRecordReader.Record record;
+			do {
+				record = reader.next();
+				if (record != null) {
+					batch.add(record);
+				}
+				if (batch.size() == BULK_BATCH_SIZE || record == null && !batch.isEmpty()) {
+					addDataPoints(batch);
+					for (WeatherRecordReader.Record done : batch) {
+						received++;
+						if (done.error == null) {
+							applied++;
+						} else {
+							Map<String, Object> status = new LinkedHashMap<>();
+							status.put("line", done.line);
+							status.put("reason", done.error);
+							rejected.add(status);
+						}
+					}
+					batch.clear();
+				}
+			} while (record != null);
+		}
+
+		Map<String, Object> retval = new LinkedHashMap<>();
+		retval.put("received", received);
+		retval.put("applied", applied);
+		retval.put("rejected", rejected);
+		return Response.status(Response.Status.OK).entity(gson.toJson(retval)).build();
+	}
+
 	public Response getAirports() {
 		Set<String> retval = new HashSet<>();
 		for (AirportData ad : airports) {
@@ -120,11 +183,63 @@ public class WeatherCollectorEndpointCallableTask implements Callable<Response>
 	 *
 	 * @throws WeatherException
 	 *             if the update can not be completed
+	 * @throws InternalServerErrorException
+	 *             if the update failed to apply, answered 500 by the
+	 *             {@link EndpointExecutor}
 	 */
 	public void addDataPoint(String iataCode, String pointType, DataPoint dp) throws WeatherException {
 		int airportDataIdx = getAirportDataIdx(iataCode);
-		AtmosphericInformation ai = atmosphericInformation.get(airportDataIdx);
-		updateAtmosphericInformation(ai, pointType, dp);
+		if (atmosphericInformation.get(airportDataIdx) == null) {
+			throw new WeatherException();
+		}
+		DataPointType dptype = validate(pointType, dp);
+		IngestPipeline.Status status = ingest.submit(airportDataIdx, dptype, dp).await();
+		if (status == IngestPipeline.Status.FAILED) {
+			throw new InternalServerErrorException("couldn't apply the " + pointType + " of " + iataCode);
+		}
+		if (status != IngestPipeline.Status.APPLIED) {
+			throw new WeatherException();
+		}
+	}
+
+	/**
+	 * Update the weather data of many airports with a batch of records. The
+	 * whole batch is published to the {@link IngestPipeline} before waiting,
+	 * so its consumers apply it in as few snapshots as possible.
+	 *
+	 * @param batch
+	 *            the records, those which can't be applied get their error set
+	 */
+	public void addDataPoints(List<WeatherRecordReader.Record> batch) {
+		List<IngestPipeline.Update> updates = new ArrayList<>(batch.size());
+		for (WeatherRecordReader.Record record : batch) {
+			IngestPipeline.Update update = null;
+			if (record.error == null) {
+				int slot = getAirportDataIdx(record.iata);
+				if (slot == AirportRegistry.NO_SLOT) {
+					record.error = "unknown airport";
+				} else {
+					try {
+						update = ingest.submit(slot, validate(record.pointType, record.dataPoint), record.dataPoint);
+					} catch (IllegalArgumentException e) {
+						record.error = "unknown point type";
+					} catch (IllegalStateException e) {
+						record.error = "out of range";
+					}
+				}
+			}
+			updates.add(update);
+		}
+
+		for (int i = 0; i < batch.size(); i++) {
+			IngestPipeline.Update update = updates.get(i);
+			IngestPipeline.Status status = update == null ? null : update.await();
+			if (status == IngestPipeline.Status.FAILED) {
+				batch.get(i).error = "not applied";
+			} else if (status != null && status != IngestPipeline.Status.APPLIED) {
+				batch.get(i).error = "unknown airport";
+			}
+		}
 	}
 
 	/**
@@ -132,62 +247,39 @@ public class WeatherCollectorEndpointCallableTask implements Callable<Response>
 	 * point type
 	 *
 	 * @param ai
-	 *            the atmospheric information object to update
+	 *            the atmospheric information snapshot to update
 	 * @param pointType
 	 *            the data point type as a string
 	 * @param dp
 	 *            the actual data point
+	 * @return a new snapshot holding the data point
 	 */
-	public void updateAtmosphericInformation(AtmosphericInformation ai, String pointType, DataPoint dp)
-			throws WeatherException {
-		final DataPointType dptype = DataPointType.valueOf(pointType.toUpperCase());
-
-		if (pointType.equalsIgnoreCase(DataPointType.WIND.name())) {
-			if (dp.getMean() >= 0) {
-				ai.setWind(dp);
-				ai.setLastUpdateTime(System.currentTimeMillis());
-				return;
-			}
-		}
-
-		if (pointType.equalsIgnoreCase(DataPointType.TEMPERATURE.name())) {
-			if (dp.getMean() >= -50 && dp.getMean() < 100) {
-				ai.setTemperature(dp);
-				ai.setLastUpdateTime(System.currentTimeMillis());
-				return;
-			}
-		}
-
-		if (pointType.equalsIgnoreCase(DataPointType.HUMIDTY.name())) {
-			if (dp.getMean() >= 0 && dp.getMean() < 100) {
-				ai.setHumidity(dp);
-				ai.setLastUpdateTime(System.currentTimeMillis());
-				return;
-			}
-		}
-
-		if (pointType.equalsIgnoreCase(DataPointType.PRESSURE.name())) {
-			if (dp.getMean() >= 650 && dp.getMean() < 800) {
-				ai.setPressure(dp);
-				ai.setLastUpdateTime(System.currentTimeMillis());
-				return;
-			}
-		}
+	public AtmosphericInformation updateAtmosphericInformation(AtmosphericInformation ai, String pointType,
+			DataPoint dp) throws WeatherException {
+		return ai.with(validate(pointType, dp), dp, System.currentTimeMillis());
+	}
 
-		if (pointType.equalsIgnoreCase(DataPointType.CLOUDCOVER.name())) {
-			if (dp.getMean() >= 0 && dp.getMean() < 100) {
-				ai.setCloudCover(dp);
-				ai.setLastUpdateTime(System.currentTimeMillis());
-				return;
-			}
+	/**
+	 * Check a data point against the valid range of its type.
+	 *
+	 * @param pointType
+	 *            the data point type as a string
+	 * @param dp
+	 *            the actual data point
+	 * @return the point type
+	 * @throws IllegalArgumentException
+	 *             if the point type is unknown
+	 * @throws IllegalStateException
+	 *             if the data point is out of range
+	 */
+	public static DataPointType validate(String pointType, DataPoint dp) {
+		DataPointType dptype = DataPointType.lookup(pointType);
+		if (dptype == null) {
+			throw new IllegalArgumentException("unknown point type " + pointType);
 		}
 
-		if (pointType.equalsIgnoreCase(DataPointType.PRECIPITATION.name())) {
-			if (dp.getMean() >= 0 && dp.getMean() < 100) {
-				ai.setPrecipitation(dp);
-				ai.setLastUpdateTime(System.currentTimeMillis());
-				return;
-			}
+		if (dptype.accepts(dp)) {
+			return dptype;
 		}
 
 		throw new IllegalStateException("couldn't update atmospheric data");
@@ -207,25 +299,31 @@ public class WeatherCollectorEndpointCallableTask implements Callable<Response>
 	 */
 	public static AirportData addAirport(String iataCode, double latitude, double longitude) {
 
-		AirportData ad;
-
-		AirportData airportDataExists = getAirportByIata(iataCode);
-
-		if (null == airportDataExists) {
-			ad = new AirportData(iataCode, latitude, longitude);
-			ad.setPk(airports.size() + 1);
-			airports.add(ad);
-			AtmosphericInformation ai = new AtmosphericInformation();
-			atmosphericInformation.add(ai);
-
-		} else {
-			airportDataExists.setIata(iataCode);
-			airportDataExists.setLatitude(latitude);
-			airportDataExists.setLongitude(longitude);
-			ad = airportDataExists;
-		}
+		AirportLoader.getAirports();
+		AirportData ad = changeCatalog(next -> {
+			AirportData airportDataExists = next.find(iataCode);
+
+			if (null == airportDataExists) {
+				AirportData added = new AirportData(iataCode, latitude, longitude);
+				added.setPk(next.size() + 1);
+				// fill the slot before it can be resolved
+				atmosphericInformation.put(next.nextSlot(), new AtmosphericInformation());
+				next.add(added);
+				journalAirport(added);
+				return added;
+			}
 
-		updateAirportDataFile();
+			// the published version keeps its copy of the airport
+			AirportData moved = new AirportData(airportDataExists.getPk(), airportDataExists.getName(),
+					airportDataExists.getCity(), airportDataExists.getCountry(), iataCode,
+					airportDataExists.getIcao(), latitude, longitude, airportDataExists.getAltitude(),
+					airportDataExists.getTimezone(), airportDataExists.getDst());
+			next.replace(airportDataExists, moved);
+			journalAirport(moved);
+			return moved;
+		});
+		// circles may have gained an airport
+		responseCache.invalidateAll();
 
 		return ad;
 
@@ -241,11 +339,23 @@ public class WeatherCollectorEndpointCallableTask implements Callable<Response>
 	 */
 	public static AirportData removeAirport(String iataCode) {
 
-		AirportData airportData = getAirportByIata(iataCode);
-
-		if (null != airportData) {
-			airports.remove(airportData);
-			updateAirportDataFile();// removed, now time to update .dat file.
+		AirportLoader.getAirports();
+		AirportData[] removed = new AirportData[1];
+		int slot = changeCatalog(next -> {
+			removed[0] = next.find(iataCode);
+			if (null == removed[0]) {
+				return AirportRegistry.NO_SLOT;
+			}
+			int removedSlot = next.remove(removed[0]);
+			journalRemoval(iataCode);
+			return removedSlot;
+		});
+		AirportData airportData = removed[0];
+
+		if (AirportRegistry.NO_SLOT != slot) {
+			atmosphericInformation.remove(slot);
+			weatherHistory.remove(slot);
+			responseCache.invalidateAll();
 		} else {
 			airportData = new AirportData();// not found,return default empty
 											// object.
@@ -274,6 +384,10 @@ public class WeatherCollectorEndpointCallableTask implements Callable<Response>
 		this.datapointJson = datapointJson;
 	}
 
+	public void setRecords(InputStream records) {
+		this.records = records;
+	}
+
 	public void setPointType(String pointType) {
 		this.pointType = pointType;
 	}
@@ -0,0 +1,232 @@
+package com.crossover.trial.weather;
+
+import static com.crossover.trial.weather.AirportLoader.catalog;
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.atmosphericInformation;
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.gson;
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.responseCache;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The health statistics reported by {@link RestWeatherQueryEndpoint#ping()}.
+ *
+ * The counters are kept as the service runs: queries by airport slot, the
+ * query radii in fixed buckets of {@link #RADIUS_BUCKET_KM} km, both in
+ * {@link StripedCounters} so that the query threads don't contend, and the
+ * airports holding recent readings by the {@link AtmosphericStateTable}
+ * itself.
+ *
+ * Unless <code>weather.&lt;name&gt;.hot=false</code>, the airports and the
+ * radii (in whole km) queried most in the last 5 minutes and the last hour
+ * are reported too, the <code>weather.&lt;name&gt;.top</code> first of each
+ * (10 by default). They are tracked by {@link HeavyHitters} in fixed memory,
+ * from one query in <code>weather.&lt;name&gt;.hot.sample</code> (8 by
+ * default, 1 counts them all) so that a query increments about one shared
+ * counter for both; the counts reported are estimates.
+ *
+ * A background thread serializes all of it into the ping answer every
+ * <code>weather.&lt;name&gt;.period</code> milliseconds (1000 by default),
+ * so a ping only hands back the last answer. After a {@link #reset()} the
+ * next ping builds its answer on the spot.
+ *
+ * @author Erik Pereira Alves
+ */
+public class WeatherHealth {
+
+	public final static Logger LOGGER = Logger.getLogger(WeatherHealth.class.getName());
+
+	/** width of a radius bucket */
+	static final int RADIUS_BUCKET_KM = 10;
+
+	/** buckets of the radius histogram, the last one counts the larger radii */
+	static final int RADIUS_BUCKETS = 101;
+
+	/** airports per chunk of query counters */
+	private static final int CHUNK_SIZE = 1024;
+
+	/** the windows of the most queried keys, by name */
+	private static final String[] HOT_WINDOWS = { "5m", "1h" };
+
+	private static final long[] HOT_WINDOW_MILLIS = { 5 * 60000, 60 * 60000 };
+
+	private final String name;
+
+	private final long period;
+
+	/** queries by airport slot */
+	private final StripedCounters queries;
+
+	/** queries by radius bucket */
+	private final StripedCounters radii;
+
+	/** the airports queried most, by slot, null if not tracked */
+	private final HeavyHitters hotAirports;
+
+	/** the radii queried most, in km, null if not tracked */
+	private final HeavyHitters hotRadii;
+
+	/** how many of the hot airports and radii are reported */
+	private final int top;
+
+	/** the last ping answer, null until asked for */
+	private volatile String published;
+
+	private ScheduledExecutorService publisher;
+
+	/**
+	 * @param name
+	 *            the name of the properties configuring the statistics
+	 */
+	public WeatherHealth(String name) {
+		this.name = name;
+		this.period = Math.max(1, Long.getLong("weather." + name + ".period", 1000));
+		int stripes = StripedCounters.defaultStripes();
+		this.queries = new StripedCounters(CHUNK_SIZE, stripes);
+		this.radii = new StripedCounters(RADIUS_BUCKETS, stripes);
+		this.top = Integer.getInteger("weather." + name + ".top", 10);
+		if (Boolean.parseBoolean(System.getProperty("weather." + name + ".hot", "true"))) {
+			// a pane a minute over the hour, 4 x 256 counters each
+			int sample = Integer.getInteger("weather." + name + ".hot.sample", 8);
+			hotAirports = new HeavyHitters(60, 60000, 4, 256, Math.max(16, 2 * top), sample);
+			hotRadii = new HeavyHitters(60, 60000, 4, 256, Math.max(16, 2 * top), sample);
+		} else {
+			hotAirports = null;
+			hotRadii = null;
+		}
+	}
+
+	/**
+	 * Count a weather query.
+	 *
+	 * @param slot
+	 *            the slot of the airport queried
+	 * @param radius
+	 *            the radius of the query in km
+	 */
+	public void record(int slot, double radius) {
+		if (slot >= 0) {
+			queries.increment(slot);
+		}
+		radii.increment(radiusBucket(radius));
+		if (hotAirports != null) {
+			long now = System.currentTimeMillis();
+			if (slot >= 0) {
+				hotAirports.record(slot, now);
+			}
+			hotRadii.record((int) Math.min(Integer.MAX_VALUE, Math.max(0, radius)), now);
+		}
+	}
+
+	/** @return the last published ping answer */
+	public String snapshot() {
+		String snapshot = published;
+		return snapshot == null ? publish() : snapshot;
+	}
+
+	/** forget the counted queries and the published answer */
+	public synchronized void reset() {
+		queries.clear();
+		radii.clear();
+		if (hotAirports != null) {
+			hotAirports.clear();
+			hotRadii.clear();
+		}
+		published = null;
+	}
+
+	/** build and publish the ping answer */
+	synchronized String publish() {
+		Map<String, Object> retval = new HashMap<>();
+
+		retval.put("datasize", atmosphericInformation.freshCount());
+
+		// fraction of queries, the total summed from the counts reported
+		Map<String, Double> freq = new HashMap<>();
+		AirportRegistry registry = catalog().registry();
+		long[] counts = queries.snapshot(registry.slotCount());
+		long total = 0;
+		for (long count : counts) {
+			total += count;
+		}
+		for (int slot = 0; slot < counts.length; slot++) {
+			AirportData ad = registry.airport(slot);
+			if (ad != null) {
+				freq.put(ad.getIata(), total == 0 ? 0 : (double) counts[slot] / total);
+			}
+		}
+		retval.put("iata_freq", freq);
+
+		retval.put("radius_freq", radii.snapshot(RADIUS_BUCKETS));
+
+		if (hotAirports != null) {
+			long now = System.currentTimeMillis();
+			Map<String, Object> hot = new LinkedHashMap<>();
+			for (int w = 0; w < HOT_WINDOWS.length; w++) {
+				Map<String, Object> window = new LinkedHashMap<>();
+				Map<String, Long> airports = new LinkedHashMap<>();
+				HeavyHitters.Top hits = hotAirports.top(top, HOT_WINDOW_MILLIS[w], now);
+				for (int i = 0; i < hits.keys.length; i++) {
+					AirportData ad = registry.airport(hits.keys[i]);
+					if (ad != null) {
+						airports.put(ad.getIata(), hits.counts[i]);
+					}
+				}
+				window.put("airports", airports);
+				Map<String, Long> kilometers = new LinkedHashMap<>();
+				hits = hotRadii.top(top, HOT_WINDOW_MILLIS[w], now);
+				for (int i = 0; i < hits.keys.length; i++) {
+					kilometers.put(Integer.toString(hits.keys[i]), hits.counts[i]);
+				}
+				window.put("radii", kilometers);
+				hot.put(HOT_WINDOWS[w], window);
+			}
+			retval.put("hot", hot);
+		}
+
+		Map<String, Object> executors = new HashMap<>();
+		executors.put("query", RestWeatherQueryEndpoint.executor.stats());
+		executors.put("collect", RestWeatherCollectorEndpoint.executor.stats());
+		retval.put("executors", executors);
+
+		retval.put("cache", responseCache.stats());
+		retval.put("ingest", RestWeatherCollectorEndpoint.ingest.stats());
+		retval.put("store", RestWeatherCollectorEndpoint.stateStore.stats());
+
+		published = gson.toJson(retval);
+		if (publisher == null) {
+			publisher = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "weather-" + name);
+				thread.setDaemon(true);
+				return thread;
+			});
+			publisher.scheduleWithFixedDelay(this::refresh, period, period, TimeUnit.MILLISECONDS);
+		}
+		return published;
+	}
+
+	/** republish, unless the statistics were reset since */
+	private synchronized void refresh() {
+		try {
+			if (published != null) {
+				publish();
+			}
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.WARNING, "couldn't publish the health statistics", e);
+		}
+	}
+
+	/** @return the bucket of a radius, the last one past the largest bound */
+	static int radiusBucket(double radius) {
+		if (!(radius > 0)) {
+			return 0;
+		}
+		return (int) Math.min(RADIUS_BUCKETS - 1, radius / RADIUS_BUCKET_KM);
+	}
+}
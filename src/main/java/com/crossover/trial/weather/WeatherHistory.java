@@ -0,0 +1,286 @@
+package com.crossover.trial.weather;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The recent readings of every (airport, point type) series.
+ *
+ * A series is allocated on its first reading and stays bounded afterwards.
+ * The raw readings are compressed as they arrive into a {@link GorillaBlock}
+ * of <code>weather.history.block</code> readings, sealed when full; a ring
+ * keeps enough sealed blocks for the last <code>weather.history.raw</code>
+ * readings. Two rollups, per minute and per hour, live in primitive ring
+ * buffers of <code>weather.history.minutes</code> and
+ * <code>weather.history.hours</code> entries. The rollups are updated with
+ * each reading, so a long range query reads a few hundred buckets and never
+ * the raw points, and a raw query only decodes the blocks in its range.
+ *
+ * Series are addressed by the airport slot. The ingest consumers write them,
+ * readers copy out under the series lock.
+ *
+ * @author Erik Pereira Alves
+ */
+public class WeatherHistory {
+
+	private static final int TYPES = DataPointType.values().length;
+
+	private static final int BLOCK_SIZE = Math.max(1, Integer.getInteger("weather.history.block", 128));
+
+	private static final int RAW_SIZE = Integer.getInteger("weather.history.raw", 2048);
+
+	/** sealed blocks kept per series, the open block comes on top */
+	private static final int BLOCKS = Math.max(1, (RAW_SIZE + BLOCK_SIZE - 1) / BLOCK_SIZE);
+
+	private static final int MINUTE_SIZE = Integer.getInteger("weather.history.minutes", 180);
+
+	private static final int HOUR_SIZE = Integer.getInteger("weather.history.hours", 168);
+
+	/** the granularity of a history query */
+	public enum Resolution {
+		RAW(0), MINUTE(TimeUnit.MINUTES.toMillis(1)), HOUR(TimeUnit.HOURS.toMillis(1));
+
+		private final long millis;
+
+		private Resolution(long millis) {
+			this.millis = millis;
+		}
+
+		/**
+		 * @param value
+		 *            raw, 1m or 1h, or null to pick one for the range
+		 * @param from
+		 *            the start of the range, in milliseconds since UTC epoch
+		 * @param to
+		 *            the end of the range
+		 * @return the resolution
+		 */
+		public static Resolution parse(String value, long from, long to) {
+			if (value == null || value.isEmpty()) {
+				long range = to - from;
+				return range <= HOUR.millis ? RAW : range <= TimeUnit.DAYS.toMillis(1) ? MINUTE : HOUR;
+			}
+			switch (value.toLowerCase()) {
+			case "raw":
+				return RAW;
+			case "1m":
+				return MINUTE;
+			case "1h":
+				return HOUR;
+			}
+			throw new IllegalArgumentException("unknown resolution " + value);
+		}
+	}
+
+	/** the series, slot * TYPES + type ordinal, replaced when it grows */
+	private volatile Series[] series = new Series[1024 * TYPES];
+
+	/**
+	 * Record a reading.
+	 *
+	 * @param slot
+	 *            the airport slot
+	 * @param type
+	 *            the point type
+	 * @param dp
+	 *            the reading
+	 * @param time
+	 *            the reading time, in milliseconds since UTC epoch
+	 */
+	public void record(int slot, DataPointType type, DataPoint dp, long time) {
+		Series s = get(slot, type);
+		if (s == null) {
+			s = create(slot, type);
+		}
+		s.record(dp, time);
+	}
+
+	/**
+	 * Read the history of a series.
+	 *
+	 * @param slot
+	 *            the airport slot
+	 * @param type
+	 *            the point type
+	 * @param from
+	 *            the start of the range, inclusive, in milliseconds since UTC
+	 *            epoch
+	 * @param to
+	 *            the end of the range, inclusive
+	 * @param resolution
+	 *            the resolution
+	 * @return the readings or the buckets in the range, oldest first, as json
+	 *         ready maps
+	 */
+	public List<Map<String, Object>> read(int slot, DataPointType type, long from, long to, Resolution resolution) {
+		Series s = get(slot, type);
+		if (s == null) {
+			return new ArrayList<>();
+		}
+		return s.read(from, to, resolution);
+	}
+
+	/**
+	 * Forget the history of a removed airport.
+	 *
+	 * @param slot
+	 *            the airport slot
+	 */
+	public synchronized void remove(int slot) {
+		Series[] current = series;
+		if (slot >= 0 && (slot + 1) * TYPES <= current.length) {
+			Arrays.fill(current, slot * TYPES, (slot + 1) * TYPES, null);
+		}
+	}
+
+	/** forget everything, for a catalog reload */
+	public synchronized void clear() {
+		series = new Series[1024 * TYPES];
+	}
+
+	private Series get(int slot, DataPointType type) {
+		Series[] current = series;
+		int index = slot * TYPES + type.ordinal();
+		return slot < 0 || index >= current.length ? null : current[index];
+	}
+
+	private synchronized Series create(int slot, DataPointType type) {
+		int index = slot * TYPES + type.ordinal();
+		Series[] current = series;
+		if (index >= current.length) {
+			current = Arrays.copyOf(current, Math.max(index + TYPES, current.length * 2));
+		}
+		if (current[index] == null) {
+			current[index] = new Series();
+		}
+		series = current;
+		return current[index];
+	}
+
+	/** one (airport, point type) series */
+	private static final class Series {
+
+		private final GorillaBlock[] sealed = new GorillaBlock[BLOCKS];
+
+		/** blocks sealed so far, the ring holds the last BLOCKS */
+		private long written;
+
+		private GorillaBlock.Encoder open = new GorillaBlock.Encoder();
+
+		private final Rollup minutes = new Rollup(MINUTE_SIZE, Resolution.MINUTE.millis);
+
+		private final Rollup hours = new Rollup(HOUR_SIZE, Resolution.HOUR.millis);
+
+		synchronized void record(DataPoint dp, long at) {
+			open.append(at, dp);
+			if (open.count() == BLOCK_SIZE) {
+				sealed[(int) (written++ % BLOCKS)] = open.seal();
+				open = new GorillaBlock.Encoder();
+			}
+			minutes.add(dp.getMean(), at);
+			hours.add(dp.getMean(), at);
+		}
+
+		synchronized List<Map<String, Object>> read(long from, long to, Resolution resolution) {
+			if (resolution == Resolution.MINUTE) {
+				return minutes.read(from, to);
+			}
+			if (resolution == Resolution.HOUR) {
+				return hours.read(from, to);
+			}
+			List<Map<String, Object>> retval = new ArrayList<>();
+			for (long n = Math.max(0, written - BLOCKS); n < written; n++) {
+				GorillaBlock block = sealed[(int) (n % BLOCKS)];
+				if (block.maxTime() >= from && block.minTime() <= to) {
+					read(block.decoder(), from, to, retval);
+				}
+			}
+			if (open.count() > 0 && open.maxTime() >= from && open.minTime() <= to) {
+				read(open.decoder(), from, to, retval);
+			}
+			return retval;
+		}
+
+		private static void read(GorillaBlock.Decoder decoder, long from, long to, List<Map<String, Object>> retval) {
+			while (decoder.next()) {
+				if (decoder.time() >= from && decoder.time() <= to) {
+					Map<String, Object> reading = new LinkedHashMap<>();
+					reading.put("time", decoder.time());
+					reading.put("mean", decoder.mean());
+					reading.put("first", decoder.first());
+					reading.put("second", decoder.second());
+					reading.put("third", decoder.third());
+					reading.put("count", decoder.count());
+					retval.add(reading);
+				}
+			}
+		}
+	}
+
+	/** fixed width buckets of the means, the last size ones */
+	private static final class Rollup {
+
+		private final long width;
+
+		private final long[] start;
+
+		private final int[] samples;
+
+		private final double[] sum;
+
+		private final double[] min;
+
+		private final double[] max;
+
+		/** buckets opened so far, the ring holds the last start.length */
+		private long opened;
+
+		Rollup(int size, long width) {
+			this.width = width;
+			start = new long[size];
+			samples = new int[size];
+			sum = new double[size];
+			min = new double[size];
+			max = new double[size];
+		}
+
+		void add(double value, long at) {
+			long bucket = at - Math.floorMod(at, width);
+			int i = (int) ((opened - 1) % start.length);
+			// a clock going backwards stays in the current bucket
+			if (opened == 0 || bucket > start[i]) {
+				i = (int) (opened++ % start.length);
+				start[i] = bucket;
+				samples[i] = 0;
+				sum[i] = 0;
+				min[i] = value;
+				max[i] = value;
+			}
+			samples[i]++;
+			sum[i] += value;
+			min[i] = Math.min(min[i], value);
+			max[i] = Math.max(max[i], value);
+		}
+
+		List<Map<String, Object>> read(long from, long to) {
+			List<Map<String, Object>> retval = new ArrayList<>();
+			for (long n = Math.max(0, opened - start.length); n < opened; n++) {
+				int i = (int) (n % start.length);
+				if (start[i] + width > from && start[i] <= to) {
+					Map<String, Object> bucket = new LinkedHashMap<>();
+					bucket.put("time", start[i]);
+					bucket.put("mean", sum[i] / samples[i]);
+					bucket.put("min", min[i]);
+					bucket.put("max", max[i]);
+					bucket.put("samples", samples[i]);
+					retval.add(bucket);
+				}
+			}
+			return retval;
+		}
+	}
+}
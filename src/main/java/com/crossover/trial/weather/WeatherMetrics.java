@@ -0,0 +1,237 @@
+package com.crossover.trial.weather;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The latency and size histograms of the service, exposed in the Prometheus
+ * text format by {@link RestWeatherMetricsEndpoint}.
+ *
+ * Each REST operation has its service time histograms, queue wait excluded:
+ * the weather queries by radius bucket, the weather updates by point type,
+ * the bulk updates, the history queries and the airport operations. Each
+ * {@link EndpointExecutor} registers the time its tasks wait for a worker, and
+ * the payloads of the updates and the weather answers are measured in bytes.
+ * They are all reported as summaries with their p50, p99 and p999.
+ *
+ * @author Erik Pereira Alves
+ */
+public class WeatherMetrics {
+
+	static final String REQUEST_SECONDS = "weather_request_duration_seconds";
+
+	static final String QUEUE_WAIT_SECONDS = "weather_queue_wait_seconds";
+
+	static final String PAYLOAD_BYTES = "weather_payload_bytes";
+
+	private static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+
+	/** the families, in registration order */
+	private static final Map<String, Family> families = new LinkedHashMap<>();
+
+	static {
+		family(REQUEST_SECONDS, "Service time of the REST operations, queue wait excluded.", 1e9);
+		family(QUEUE_WAIT_SECONDS, "Time the REST operations wait for an endpoint worker.", 1e9);
+		family(PAYLOAD_BYTES, "Size of the weather updates received and the weather answers sent.", 1);
+	}
+
+	/** upper bounds of the radius buckets of the weather queries, in km */
+	private static final double[] RADIUS_BOUNDS = { 0, 10, 100, 1000, Double.POSITIVE_INFINITY };
+
+	private static final LogLinearHistogram[] QUERY_WEATHER = new LogLinearHistogram[RADIUS_BOUNDS.length];
+
+	static {
+		for (int i = 0; i < RADIUS_BOUNDS.length; i++) {
+			String bound = RADIUS_BOUNDS[i] == Double.POSITIVE_INFINITY ? "+Inf"
+					: Long.toString((long) RADIUS_BOUNDS[i]);
+			QUERY_WEATHER[i] = histogram(REQUEST_SECONDS, "endpoint=\"query\",operation=\"weather\",radius=\"" + bound
+					+ "\"");
+		}
+	}
+
+	static final LogLinearHistogram QUERY_HISTORY = operation("query", "history");
+
+	/** by point type ordinal, the unknown types last */
+	private static final LogLinearHistogram[] UPDATE_WEATHER = new LogLinearHistogram[DataPointType.values().length
+			+ 1];
+
+	static {
+		for (DataPointType type : DataPointType.values()) {
+			UPDATE_WEATHER[type.ordinal()] = histogram(REQUEST_SECONDS,
+					"endpoint=\"collect\",operation=\"updateWeather\",pointType=\"" + type.name() + "\"");
+		}
+		UPDATE_WEATHER[UPDATE_WEATHER.length - 1] = histogram(REQUEST_SECONDS,
+				"endpoint=\"collect\",operation=\"updateWeather\",pointType=\"unknown\"");
+	}
+
+	static final LogLinearHistogram COLLECT_BULK = operation("collect", "updateWeatherBulk");
+
+	static final LogLinearHistogram GET_AIRPORTS = operation("collect", "getAirports");
+
+	static final LogLinearHistogram GET_AIRPORT = operation("collect", "getAirport");
+
+	static final LogLinearHistogram ADD_AIRPORT = operation("collect", "addAirport");
+
+	static final LogLinearHistogram DELETE_AIRPORT = operation("collect", "deleteAirport");
+
+	/** the data point json of a weather update */
+	static final LogLinearHistogram UPDATE_PAYLOAD = histogram(PAYLOAD_BYTES,
+			"direction=\"request\",operation=\"updateWeather\"");
+
+	/** the records of a bulk update */
+	static final LogLinearHistogram BULK_PAYLOAD = histogram(PAYLOAD_BYTES,
+			"direction=\"request\",operation=\"updateWeatherBulk\"");
+
+	/** the answer of a weather query */
+	static final LogLinearHistogram WEATHER_PAYLOAD = histogram(PAYLOAD_BYTES,
+			"direction=\"response\",operation=\"weather\"");
+
+	private WeatherMetrics() {
+	}
+
+	/**
+	 * The service time histogram of a weather query.
+	 *
+	 * @param radiusString
+	 *            the radius of the query in km, as requested
+	 * @return the histogram of its radius bucket, the first one if the radius
+	 *         is not a number
+	 */
+	static LogLinearHistogram queryWeather(String radiusString) {
+		double radius;
+		try {
+			radius = radiusString == null || radiusString.trim().isEmpty() ? 0 : Double.parseDouble(radiusString);
+		} catch (NumberFormatException e) {
+			radius = 0;
+		}
+		int bucket = 0;
+		while (bucket < RADIUS_BOUNDS.length - 1 && !(radius <= RADIUS_BOUNDS[bucket])) {
+			bucket++;
+		}
+		return QUERY_WEATHER[bucket];
+	}
+
+	/**
+	 * The service time histogram of a weather update.
+	 *
+	 * @param pointType
+	 *            the point type, as requested
+	 * @return the histogram of the point type
+	 */
+	static LogLinearHistogram updateWeather(String pointType) {
+		DataPointType type = DataPointType.lookup(pointType);
+		return UPDATE_WEATHER[type == null ? UPDATE_WEATHER.length - 1 : type.ordinal()];
+	}
+
+	/**
+	 * The size of a text in UTF-8, without encoding it.
+	 *
+	 * @param text
+	 *            the text
+	 * @return its length in bytes, an unpaired surrogate counting for the
+	 *         byte it is replaced with
+	 */
+	static int utf8Length(CharSequence text) {
+		int length = text.length();
+		int retval = length;
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				continue;
+			}
+			if (c < 0x800) {
+				retval += 1;
+			} else if (Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(text.charAt(i + 1))) {
+				// 4 bytes for the pair
+				retval += 2;
+				i++;
+			} else if (!Character.isSurrogate(c)) {
+				retval += 2;
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Register a histogram.
+	 *
+	 * @param family
+	 *            the metric name
+	 * @param labels
+	 *            the labels telling it apart in its family, Prometheus
+	 *            formatted without the braces
+	 * @return the histogram
+	 */
+	static LogLinearHistogram histogram(String family, String labels) {
+		LogLinearHistogram histogram = new LogLinearHistogram();
+		synchronized (families) {
+			Family f = families.get(family);
+			if (f == null) {
+				throw new IllegalArgumentException("unknown metric " + family);
+			}
+			f.labels.add(labels);
+			f.histograms.add(histogram);
+		}
+		return histogram;
+	}
+
+	/**
+	 * Render every histogram in the Prometheus text exposition format.
+	 *
+	 * @return the text
+	 */
+	public static String render() {
+		StringBuilder out = new StringBuilder(8192);
+		synchronized (families) {
+			for (Map.Entry<String, Family> entry : families.entrySet()) {
+				String name = entry.getKey();
+				Family f = entry.getValue();
+				out.append("# HELP ").append(name).append(' ').append(f.help).append('\n');
+				out.append("# TYPE ").append(name).append(" summary\n");
+				for (int i = 0; i < f.histograms.size(); i++) {
+					String labels = f.labels.get(i);
+					LogLinearHistogram.Snapshot snapshot = f.histograms.get(i).snapshot();
+					for (double quantile : QUANTILES) {
+						long value = snapshot.valueAt(quantile);
+						out.append(name).append('{').append(labels).append(",quantile=\"").append(quantile)
+								.append("\"} ").append(value < 0 ? Double.NaN : value / f.unit).append('\n');
+					}
+					out.append(name).append("_sum{").append(labels).append("} ").append(snapshot.sum() / f.unit)
+							.append('\n');
+					out.append(name).append("_count{").append(labels).append("} ").append(snapshot.count())
+							.append('\n');
+				}
+			}
+		}
+		return out.toString();
+	}
+
+	private static LogLinearHistogram operation(String endpoint, String operation) {
+		return histogram(REQUEST_SECONDS, "endpoint=\"" + endpoint + "\",operation=\"" + operation + "\"");
+	}
+
+	private static void family(String name, String help, double unit) {
+		families.put(name, new Family(help, unit));
+	}
+
+	/** the histograms of a metric name */
+	private static final class Family {
+
+		final String help;
+
+		/** recorded values per unit of the metric */
+		final double unit;
+
+		final List<String> labels = new ArrayList<>();
+
+		final List<LogLinearHistogram> histograms = new ArrayList<>();
+
+		Family(String help, double unit) {
+			this.help = help;
+			this.unit = unit;
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package com.crossover.trial.weather;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Produces;
+
+/**
+ * The metrics API of the Weather Server App, for a Prometheus scraper.
+ *
+ * @author Erik Pereira Alves
+ */
+public interface WeatherMetricsEndpoint {
+
+	/** the content type of the Prometheus text exposition format */
+	String TEXT_FORMAT = "text/plain; version=0.0.4";
+
+	/**
+	 * Retrieve the latency and payload size histograms of the service.
+	 *
+	 * @return the histograms, in the Prometheus text exposition format
+	 */
+	@GET
+	@Produces(TEXT_FORMAT)
+	String metrics();
+}
@@ -4,6 +4,7 @@ import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
@@ -43,4 +44,31 @@ public interface WeatherQueryEndpoint {
 	@Path("/weather/{iata}/{radius}")
 	@Produces(MediaType.APPLICATION_JSON)
 	Response weather(@PathParam("iata") String iata, @PathParam("radius") String radiusString);
+
+	/**
+	 * Retrieve the recent readings of one point type at an airport, raw or
+	 * rolled up per minute or per hour.
+	 *
+	 * @param iata
+	 *            the three letter airport code
+	 * @param pointType
+	 *            the point type, {@link DataPointType} for a complete list
+	 * @param from
+	 *            the start of the range in milliseconds since UTC epoch,
+	 *            unbounded if absent
+	 * @param to
+	 *            the end of the range in milliseconds since UTC epoch,
+	 *            unbounded if absent
+	 * @param resolution
+	 *            raw, 1m or 1h, picked from the range if absent
+	 *
+	 * @return an HTTP Response and a list of readings, or of buckets with
+	 *         their time, mean, min, max and number of samples
+	 */
+	@GET
+	@Path("/history/{iata}/{pointType}")
+	@Produces(MediaType.APPLICATION_JSON)
+	Response history(@PathParam("iata") String iata, @PathParam("pointType") String pointType,
+			@QueryParam("from") String from, @QueryParam("to") String to,
+			@QueryParam("resolution") String resolution);
 }
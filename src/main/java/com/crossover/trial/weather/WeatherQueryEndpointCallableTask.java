@@ -1,14 +1,17 @@
 package com.crossover.trial.weather;
 
-import static com.crossover.trial.weather.AirportLoader.airports;
-import static com.crossover.trial.weather.RestWeatherQueryEndpoint.R;
+import static com.crossover.trial.weather.AirportLoader.catalog;
 import static com.crossover.trial.weather.RestWeatherQueryEndpoint.atmosphericInformation;
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.gson;
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.health;
 import static com.crossover.trial.weather.RestWeatherQueryEndpoint.numIatasFound;
-import static com.crossover.trial.weather.RestWeatherQueryEndpoint.radiusFreq;
-import static com.crossover.trial.weather.RestWeatherQueryEndpoint.requestFrequency;
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.responseCache;
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.weatherHistory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 
@@ -27,7 +30,7 @@ public class WeatherQueryEndpointCallableTask implements Callable<Response> {
 	public final static Logger LOGGER = Logger.getLogger("WeatherQueryEndpointCallableTask");
 
 	public static enum restEnum {
-		weather;
+		weather, history;
 	}
 
 	public restEnum restCall;
@@ -36,6 +39,14 @@ public class WeatherQueryEndpointCallableTask implements Callable<Response> {
 
 	public String radiusString;
 
+	public String pointType;
+
+	public String from;
+
+	public String to;
+
+	public String resolution;
+
 	@Override
 	public Response call() throws Exception {
 
@@ -44,6 +55,9 @@ public class WeatherQueryEndpointCallableTask implements Callable<Response> {
 		case weather:
 			return weather(iata, radiusString);
 
+		case history:
+			return history(iata, pointType, from, to, resolution);
+
 		}
 
 		return Response.status(Response.Status.BAD_REQUEST).build();
@@ -65,43 +79,91 @@ public class WeatherQueryEndpointCallableTask implements Callable<Response> {
 	public Response weather(String iata, String radiusString) {
 
 		double radius = radiusString == null || radiusString.trim().isEmpty() ? 0 : Double.valueOf(radiusString);
-		updateRequestFrequency(iata, radius);
+		// taken before the catalog, a result found on a replaced version isn't cached
+		long generation = responseCache.generation();
+		AirportCatalog catalog = catalog();
+		int idx = catalog.registry().slotOf(iata);
+		AirportData ad = catalog.registry().airport(idx);
+		if (ad == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		updateRequestFrequency(idx, radius);
 
 		List<AtmosphericInformation> retval = new ArrayList<>();
 		if (radius == 0) {
-			int idx = getAirportDataIdx(iata);
 			retval.add(atmosphericInformation.get(idx));
 			numIatasFound++;
+			retval = new AtmosphericInformationList(retval);
 
 		} else {
-			AirportData ad = findAirportData(iata);
-			for (int i = 0; i < airports.size(); i++) {
-				if (calculateDistance(ad, airports.get(i)) <= radius) {
-					AtmosphericInformation ai = atmosphericInformation.get(i);
-					if (ai.getCloudCover() != null || ai.getHumidity() != null || ai.getPrecipitation() != null
-							|| ai.getPressure() != null || ai.getTemperature() != null || ai.getWind() != null) {
-						numIatasFound++;
-						retval.add(ai);
-
-					}
-				}
+			List<AtmosphericInformation> cached = responseCache.get(idx, radius);
+			if (cached != null) {
+				numIatasFound += cached.size();
+				return Response.status(Response.Status.OK).entity(cached).build();
 			}
+
+			int[] cells = catalog.index().cells(ad, radius);
+			// taken before the scan reads the weather, see WeatherResponseCache
+			long stamp = responseCache.stamp(cells);
+			int[] candidates = catalog.index().candidates(cells);
+
+			// slot order is the catalog order, the index has none
+			Arrays.sort(candidates);
+			RadiusScan scan = RadiusScan.scan(catalog.coordinates(), idx, radius, candidates);
+			retval = scan.found();
+			numIatasFound += retval.size();
+			retval = new AtmosphericInformationList(retval);
+			responseCache.put(generation, idx, radius, cells, stamp, retval);
 		}
 		return Response.status(Response.Status.OK).entity(retval).build();
 	}
 
 	/**
-	 * Records information about how often requests are made
+	 * Retrieve the recent readings of one point type at an airport.
 	 *
 	 * @param iata
-	 *            an iata code
+	 *            the iataCode
+	 * @param pointType
+	 *            the point type
+	 * @param fromString
+	 *            the start of the range in milliseconds since UTC epoch
+	 * @param toString
+	 *            the end of the range in milliseconds since UTC epoch
+	 * @param resolutionString
+	 *            raw, 1m or 1h
+	 *
+	 * @return a list of readings or buckets
+	 */
+	public Response history(String iata, String pointType, String fromString, String toString,
+			String resolutionString) {
+
+		AirportRegistry registry = catalog().registry();
+		int idx = registry.slotOf(iata);
+		if (registry.airport(idx) == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		DataPointType type = DataPointType.lookup(pointType);
+		if (type == null) {
+			throw new IllegalArgumentException("unknown point type " + pointType);
+		}
+		long from = fromString == null || fromString.isEmpty() ? 0 : Long.parseLong(fromString);
+		long to = toString == null || toString.isEmpty() ? Long.MAX_VALUE : Long.parseLong(toString);
+		WeatherHistory.Resolution resolution = WeatherHistory.Resolution.parse(resolutionString, from, to);
+
+		List<Map<String, Object>> retval = weatherHistory.read(idx, type, from, to, resolution);
+		return Response.status(Response.Status.OK).entity(gson.toJson(retval)).build();
+	}
+
+	/**
+	 * Records information about how often requests are made
+	 *
+	 * @param slot
+	 *            the slot of the airport queried
 	 * @param radius
 	 *            query radius
 	 */
-	public void updateRequestFrequency(String iata, Double radius) {
-		AirportData airportData = findAirportData(iata);
-		requestFrequency.put(airportData, requestFrequency.getOrDefault(airportData, 0) + 1);
-		radiusFreq.put(radius, radiusFreq.getOrDefault(radius, 0));
+	public void updateRequestFrequency(int slot, double radius) {
+		health.record(slot, radius);
 	}
 
 	/**
@@ -113,38 +175,19 @@ public class WeatherQueryEndpointCallableTask implements Callable<Response> {
 	 */
 	public static AirportData findAirportData(String iataCode) {
 
-		return airports.stream().filter(ap -> ap.getIata().equals(iataCode)).findFirst().orElse(null);
+		return catalog().registry().find(iataCode);
 	}
 
 	/**
-	 * Given an iataCode find the airport data
+	 * Given an iataCode find the airport slot
 	 *
 	 * @param iataCode
 	 *            as a string
-	 * @return airport data or null if not found
+	 * @return the airport slot or {@link AirportRegistry#NO_SLOT} if not found
 	 */
 	public static int getAirportDataIdx(String iataCode) {
-		AirportData ad = findAirportData(iataCode);
 
-		return airports.indexOf(ad);
-	}
-
-	/**
-	 * Haversine distance between two airports.
-	 *
-	 * @param ad1
-	 *            airport 1
-	 * @param ad2
-	 *            airport 2
-	 * @return the distance in KM
-	 */
-	public double calculateDistance(AirportData ad1, AirportData ad2) {
-		double deltaLat = Math.toRadians(ad2.getLatitude() - ad1.getLatitude());
-		double deltaLon = Math.toRadians(ad2.getLongitude() - ad1.getLongitude());
-		double a = Math.pow(Math.sin(deltaLat / 2), 2)
-				+ Math.pow(Math.sin(deltaLon / 2), 2) * Math.cos(ad1.getLatitude()) * Math.cos(ad2.getLatitude());
-		double c = 2 * Math.asin(Math.sqrt(a));
-		return R * c;
+		return catalog().registry().slotOf(iataCode);
 	}
 
 	public void setIata(String iata) {
@@ -155,6 +198,22 @@ public class WeatherQueryEndpointCallableTask implements Callable<Response> {
 		this.radiusString = radiusString;
 	}
 
+	public void setPointType(String pointType) {
+		this.pointType = pointType;
+	}
+
+	public void setFrom(String from) {
+		this.from = from;
+	}
+
+	public void setTo(String to) {
+		this.to = to;
+	}
+
+	public void setResolution(String resolution) {
+		this.resolution = resolution;
+	}
+
 	public void setRestCall(restEnum restCall) {
 		this.restCall = restCall;
 	}
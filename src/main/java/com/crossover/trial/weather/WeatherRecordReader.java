@@ -0,0 +1,111 @@
+package com.crossover.trial.weather;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * Reads newline delimited weather records, one json object per line:
+ * <code>{"iata":"BOS","pointType":"wind","mean":22.0,"first":10,"second":20,"third":30,"count":10}</code>.
+ *
+ * Records are parsed one line at a time as the stream arrives, blank lines
+ * are skipped and a malformed line becomes a record carrying its error instead
+ * of failing the stream. Lines go through a {@link DataPointParser}, gson
+ * only reads those in a shape the parser doesn't handle.
+ *
+ * @author Erik Pereira Alves
+ */
+public class WeatherRecordReader implements Closeable {
+
+	private static final Gson gson = new Gson();
+
+	private final BufferedReader reader;
+
+	private final JsonParser parser = new JsonParser();
+
+	private final DataPointParser records = new DataPointParser();
+
+	private int line;
+
+	public WeatherRecordReader(InputStream records) {
+		this.reader = new BufferedReader(new InputStreamReader(records, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @return the next record, or null at the end of the stream
+	 * @throws IOException
+	 *             if the stream can't be read
+	 */
+	public Record next() throws IOException {
+		String text;
+		do {
+			text = reader.readLine();
+			line++;
+			if (text == null) {
+				return null;
+			}
+		} while (text.trim().isEmpty());
+
+		Record record = new Record(line);
+		if (records.parseRecord(text)) {
+			record.iata = records.iata();
+			record.pointType = records.pointType();
+			record.dataPoint = records.toDataPoint();
+			if (record.iata == null || record.pointType == null) {
+				record.error = "malformed";
+			}
+			return record;
+		}
+		try {
+			JsonObject json = parser.parse(text).getAsJsonObject();
+			record.iata = string(json, "iata");
+			record.pointType = string(json, "pointType");
+			record.dataPoint = gson.fromJson(json, DataPoint.class);
+			if (record.iata == null || record.pointType == null) {
+				record.error = "malformed";
+			}
+		} catch (JsonParseException | IllegalStateException e) {
+			record.error = "malformed";
+		}
+		return record;
+	}
+
+	private static String string(JsonObject json, String key) {
+		JsonElement value = json.get(key);
+		return value == null || !value.isJsonPrimitive() ? null : value.getAsString();
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	/** one weather record */
+	public static class Record {
+
+		/** the line number in the stream, starting at 1 */
+		final int line;
+
+		String iata;
+
+		String pointType;
+
+		DataPoint dataPoint;
+
+		/** why the record was not applied, null if it was */
+		String error;
+
+		Record(int line) {
+			this.line = line;
+		}
+	}
+}
@@ -0,0 +1,272 @@
+package com.crossover.trial.weather;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, approximately LRU, cache of radius query results, keyed on
+ * (airport slot, radius).
+ *
+ * Entries are invalidated on write. Each cell of the {@link AirportSpatialIndex}
+ * has a generation, bumped by {@link #updated(AirportData)} once the weather
+ * of an airport of the cell has been published. An entry remembers the sum of
+ * the generations of the occupied cells its circle overlaps, read before the
+ * weather was, and is stale as soon as the sum has moved, so an update only
+ * invalidates the entries whose circle overlaps the cell of the updated
+ * airport, and a hit reads a counter per cell rather than the weather of every
+ * airport in the circle. Airport admin changes invalidate everything through
+ * {@link #invalidateAll()}.
+ *
+ * The cache is bounded by the number of cells and airports its entries hold,
+ * so a few continent sized queries can't hold more memory than many small
+ * ones.
+ *
+ * A hit takes no lock: the entries are in a concurrent map, and a hit only
+ * stamps its entry with the current tick of a clock that moves on each put.
+ * The LRU order is approximate. A put going over the bound takes the lock,
+ * and evicts the entries with the oldest stamps until an eighth of the bound
+ * is free, so that the next puts don't sweep again.
+ *
+ * @author Erik Pereira Alves
+ */
+public class WeatherResponseCache {
+
+	/** total number of cells and airports held by all entries */
+	private static final int DEFAULT_MAX_WEIGHT = Integer.getInteger("weather.cache.weight", 1 << 20);
+
+	private final int maxWeight;
+
+	/** read without lock, changed under the lock */
+	private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>(256);
+
+	/** guards the changes of the entries and the weight */
+	private final Object lock = new Object();
+
+	/** guarded by the lock */
+	private int weight;
+
+	/** moves on each put, a hit stamps its entry with it */
+	private final AtomicLong clock = new AtomicLong();
+
+	/** bumped by every invalidateAll, entries computed before are dropped */
+	private final AtomicLong generation = new AtomicLong();
+
+	/** by spatial index cell, bumped by every weather update in the cell */
+	private final AtomicLongArray cellGenerations = new AtomicLongArray(AirportSpatialIndex.CELLS);
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	public WeatherResponseCache() {
+		this(DEFAULT_MAX_WEIGHT);
+	}
+
+	public WeatherResponseCache(int maxWeight) {
+		this.maxWeight = maxWeight;
+	}
+
+	/**
+	 * @return the generation to hand back to
+	 *         {@link #put(long, int, double, int[], long, List)} once the
+	 *         result has been computed
+	 */
+	public long generation() {
+		return generation.get();
+	}
+
+	/**
+	 * The version of the weather in some cells, to read before the weather of
+	 * their airports.
+	 *
+	 * @param cells
+	 *            the cells, see {@link AirportSpatialIndex#cells(AirportData, double)}
+	 * @return the stamp to hand back to
+	 *         {@link #put(long, int, double, int[], long, List)}
+	 */
+	public long stamp(int[] cells) {
+		long retval = 0;
+		for (int cell : cells) {
+			retval += cellGenerations.get(cell);
+		}
+		return retval;
+	}
+
+	/**
+	 * Invalidate the entries whose circle overlaps an airport. To call once
+	 * its new weather is published, so a query reading the previous weather
+	 * has read the stamp before.
+	 *
+	 * @param ad
+	 *            the airport, at its position in the current catalog
+	 */
+	public void updated(AirportData ad) {
+		cellGenerations.incrementAndGet(AirportSpatialIndex.cellOf(ad.getLatitude(), ad.getLongitude()));
+	}
+
+	/**
+	 * Look up a radius query result.
+	 *
+	 * @param slot
+	 *            the slot of the airport at the center
+	 * @param radius
+	 *            the radius in km
+	 * @return the cached result, or null if absent or stale
+	 */
+	public List<AtmosphericInformation> get(int slot, double radius) {
+		Entry entry = entries.get(new Key(slot, radius));
+		if (entry != null && entry.generation == generation.get() && entry.stamp == stamp(entry.cells)) {
+			long now = clock.get();
+			// written once per tick, hits of a hot entry don't all write it
+			if (entry.accessed != now) {
+				entry.accessed = now;
+			}
+			hits.increment();
+			return entry.result;
+		}
+		// a stale entry stays until the put of the recomputed result
+		// replaces it, or it is evicted
+		misses.increment();
+		return null;
+	}
+
+	/**
+	 * Store a radius query result.
+	 *
+	 * @param generation
+	 *            the {@link #generation()} read before computing the result
+	 * @param slot
+	 *            the slot of the airport at the center
+	 * @param radius
+	 *            the radius in km
+	 * @param cells
+	 *            the occupied cells the circle overlaps
+	 * @param stamp
+	 *            their {@link #stamp(int[])}, read before computing the result
+	 * @param result
+	 *            the query result, must not be modified afterwards
+	 */
+	public void put(long generation, int slot, double radius, int[] cells, long stamp,
+			List<AtmosphericInformation> result) {
+		Entry entry = new Entry(generation, cells, stamp, result);
+		if (entry.weight() > maxWeight) {
+			return;
+		}
+		synchronized (lock) {
+			if (generation != this.generation.get()) {
+				return;
+			}
+			entry.accessed = clock.incrementAndGet();
+			Entry previous = entries.put(new Key(slot, radius), entry);
+			if (previous != null) {
+				weight -= previous.weight();
+			}
+			weight += entry.weight();
+			if (weight > maxWeight) {
+				evict(maxWeight - maxWeight / 8);
+			}
+		}
+	}
+
+	/**
+	 * Evict the least recently used entries, the lock held.
+	 *
+	 * @param target
+	 *            the weight to get down to
+	 */
+	private void evict(int target) {
+		List<Map.Entry<Key, Entry>> byAccess = new ArrayList<>(entries.entrySet());
+		byAccess.sort(Comparator.comparingLong(e -> e.getValue().accessed));
+		for (int i = 0; i < byAccess.size() && weight > target; i++) {
+			Map.Entry<Key, Entry> eldest = byAccess.get(i);
+			if (entries.remove(eldest.getKey(), eldest.getValue())) {
+				weight -= eldest.getValue().weight();
+				evictions.increment();
+			}
+		}
+	}
+
+	/** drop every entry, for airport catalog changes */
+	public void invalidateAll() {
+		synchronized (lock) {
+			generation.incrementAndGet();
+			entries.clear();
+			weight = 0;
+		}
+	}
+
+	/**
+	 * @return the cache statistics, suitable for a json health report
+	 */
+	public Map<String, Object> stats() {
+		Map<String, Object> retval = new LinkedHashMap<>();
+		synchronized (lock) {
+			retval.put("entries", entries.size());
+			retval.put("weight", weight);
+		}
+		retval.put("hits", hits.sum());
+		retval.put("misses", misses.sum());
+		retval.put("evictions", evictions.sum());
+		return retval;
+	}
+
+	private static final class Key {
+
+		private final int slot;
+
+		private final double radius;
+
+		Key(int slot, double radius) {
+			this.slot = slot;
+			this.radius = radius;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key that = (Key) other;
+			return slot == that.slot && Double.compare(radius, that.radius) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * slot + Double.hashCode(radius);
+		}
+	}
+
+	private static final class Entry {
+
+		private final long generation;
+
+		private final int[] cells;
+
+		private final long stamp;
+
+		private final List<AtmosphericInformation> result;
+
+		/** the clock tick of the last put or hit */
+		private volatile long accessed;
+
+		Entry(long generation, int[] cells, long stamp, List<AtmosphericInformation> result) {
+			this.generation = generation;
+			this.cells = cells;
+			this.stamp = stamp;
+			this.result = result;
+		}
+
+		int weight() {
+			return cells.length + result.size();
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package com.crossover.trial.weather;
 
 import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.http.Note;
 import org.glassfish.grizzly.http.server.*;
 import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
 import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
@@ -32,18 +33,50 @@ public class WeatherServer {
 			final ResourceConfig resourceConfig = new ResourceConfig();
 			resourceConfig.register(RestWeatherCollectorEndpoint.class);
 			resourceConfig.register(RestWeatherQueryEndpoint.class);
+			resourceConfig.register(RestWeatherMetricsEndpoint.class);
+			resourceConfig.register(AtmosphericInformationWriter.class);
+
+			// the weather of the previous run, when persisted
+			RestWeatherCollectorEndpoint.stateStore.recover();
+
+			// the requests, see AccessLog for its configuration
+			AccessLog accessLog = AccessLog.configure("access");
 
 			HttpServer server = GrizzlyHttpServerFactory.createHttpServer(URI.create(BASE_URL), resourceConfig, false);
 			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
 				server.shutdownNow();
+				RestWeatherCollectorEndpoint.stateStore.close();
+				if (accessLog != null) {
+					accessLog.close();
+				}
 			}));
 
-			HttpServerProbe probe = new HttpServerProbe.Adapter() {
-				public void onRequestReceiveEvent(HttpServerFilter filter, Connection connection, Request request) {
-					System.out.println(request.getRequestURI());
-				}
-			};
-			server.getServerConfiguration().getMonitoringConfig().getWebServerConfig().addProbes(probe);
+			if (accessLog != null) {
+				Note<Long> received = Request.createNote("weather.access.received");
+				HttpServerProbe probe = new HttpServerProbe.Adapter() {
+					// the probe methods take a raw connection, a wildcard wouldn't
+					// override them
+					@Override
+					@SuppressWarnings("rawtypes")
+					public void onRequestReceiveEvent(HttpServerFilter filter, Connection connection,
+							Request request) {
+						request.setNote(received, System.nanoTime());
+					}
+
+					@Override
+					@SuppressWarnings("rawtypes")
+					public void onRequestCompleteEvent(HttpServerFilter filter, Connection connection,
+							Response response) {
+						Request request = response.getRequest();
+						Long start = request.getNote(received);
+						if (start != null) {
+							accessLog.record(request.getMethod().getMethodString(), request.getRequestURI(),
+									response.getStatus(), System.nanoTime() - start, response.getContentLengthLong());
+						}
+					}
+				};
+				server.getServerConfiguration().getMonitoringConfig().getWebServerConfig().addProbes(probe);
+			}
 
 			// the autograder waits for this output before running automated
 			// tests, please don't remove it
@@ -0,0 +1,85 @@
+package com.crossover.trial.weather;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class AccessLogTest {
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	@Test
+	public void testWritesEveryRequest() throws Exception {
+		File file = new File(_folder.getRoot(), "access.log");
+		AccessLog log = new AccessLog(file, 1, -1, 16, 1 << 20, 2, 10);
+		assertTrue(log.record("GET", "/query/weather/BOS/0", 200, TimeUnit.MICROSECONDS.toNanos(1500), 105));
+		assertTrue(log.record("POST", "/collect/weather/\"BOS\"/wind", 400, 1000, -1));
+		log.close();
+
+		List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		assertEquals(2, lines.size());
+		JsonObject first = new JsonParser().parse(lines.get(0)).getAsJsonObject();
+		assertEquals("GET", first.get("method").getAsString());
+		assertEquals("/query/weather/BOS/0", first.get("path").getAsString());
+		assertEquals(200, first.get("status").getAsInt());
+		assertEquals(1500, first.get("micros").getAsLong());
+		assertEquals(105, first.get("bytes").getAsLong());
+		JsonObject second = new JsonParser().parse(lines.get(1)).getAsJsonObject();
+		assertEquals("/collect/weather/\"BOS\"/wind", second.get("path").getAsString());
+		assertTrue(second.get("bytes").isJsonNull());
+	}
+
+	@Test
+	public void testSlowRequestsOnly() throws Exception {
+		File file = new File(_folder.getRoot(), "access.log");
+		AccessLog log = new AccessLog(file, 0, 50, 16, 1 << 20, 2, 10);
+		assertFalse(log.record("GET", "/fast", 200, TimeUnit.MILLISECONDS.toNanos(50), 2));
+		assertTrue(log.record("GET", "/slow", 200, TimeUnit.MILLISECONDS.toNanos(51), 2));
+		log.close();
+
+		List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		assertEquals(1, lines.size());
+		assertTrue(lines.get(0).contains("\"/slow\""));
+	}
+
+	@Test
+	public void testSamplesAndRotates() throws Exception {
+		File file = new File(_folder.getRoot(), "access.log");
+		AccessLog log = new AccessLog(file, 0.5, -1, 1 << 16, 4096, 3, 1);
+		int queued = 0;
+		for (int i = 0; i < 10000; i++) {
+			if (log.record("GET", "/query/ping", 200, 1000, 10)) {
+				queued++;
+			}
+			if (i % 100 == 0) {
+				// several batches, so the file rotates
+				Thread.sleep(2);
+			}
+		}
+		log.close();
+		assertTrue(queued > 4500 && queued < 5500);
+
+		int written = 0;
+		for (String name : new String[] { "access.log", "access.log.1", "access.log.2" }) {
+			File f = new File(_folder.getRoot(), name);
+			assertTrue(name, f.isFile());
+			written += Files.readAllLines(f.toPath(), StandardCharsets.UTF_8).size();
+		}
+		assertFalse(new File(_folder.getRoot(), "access.log.3").exists());
+		assertTrue(written < queued);
+	}
+}
@@ -0,0 +1,244 @@
+package com.crossover.trial.weather;
+
+import static com.crossover.trial.weather.AirportLoader.getAirportByIata;
+import static com.crossover.trial.weather.AirportLoader.getAirportsDatFile;
+import static com.crossover.trial.weather.AirportLoader.setUpToDateFlag;
+import static com.crossover.trial.weather.AirportLoader.upload;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AirportCatalogJournalTest {
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	private AirportData _bos = new AirportData("BOS", 42.364347, -71.005181);
+
+	private AirportData _ewr = new AirportData("EWR", 40.6925, -74.168667);
+
+	private AirportData _jfk = new AirportData("JFK", 40.639751, -73.778925);
+
+	/** what the compactions write */
+	private List<AirportData> _catalog = new ArrayList<>(Arrays.asList(_bos, _ewr));
+
+	private File _dataFile;
+
+	private AirportCatalogJournal _journal;
+
+	@Before
+	public void setUp() throws Exception {
+		_dataFile = _folder.newFile("airports.dat");
+		write(_dataFile, _bos, _ewr);
+		_journal = new AirportCatalogJournal(_dataFile, _catalog, () -> new ArrayList<>(_catalog));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		_journal.close();
+		setUpToDateFlag(false);
+		upload(getAirportsDatFile());
+	}
+
+	@Test
+	public void testJournalsInOrder() throws Exception {
+		assertFalse(_journal.hasChanges());
+		_journal.added(_jfk);
+		_journal.removed("BOS");
+		AirportData moved = new AirportData("JFK", 41, -74);
+		_journal.added(moved);
+
+		assertTrue(_journal.hasChanges());
+		assertEquals(3, Files.readAllLines(journal().toPath()).size());
+		assertEquals(Arrays.asList("EWR", "JFK"), replayed());
+		assertEquals(41, replay().get("JFK").getLatitude(), 0);
+		// the data file is left alone until the compaction
+		assertEquals(Arrays.asList("BOS", "EWR"), iatas(AirportCatalogSnapshot.load(_dataFile)));
+	}
+
+	@Test
+	public void testCompactWritesTheCatalog() throws Exception {
+		_catalog.add(_jfk);
+		_journal.added(_jfk);
+		_catalog.remove(_bos);
+		_journal.removed("BOS");
+
+		_journal.compact();
+		assertFalse(_journal.hasChanges());
+		assertFalse(journal().exists());
+		assertFalse(compacting().exists());
+		assertFalse(new File(_dataFile.getPath() + ".tmp").exists());
+		assertEquals(Arrays.asList("EWR", "JFK"), iatas(AirportCatalogSnapshot.load(_dataFile)));
+
+		// nothing to compact, nothing written
+		long modified = _dataFile.lastModified();
+		_journal.compact();
+		assertEquals(modified, _dataFile.lastModified());
+
+		// the next change opens a new journal
+		_journal.removed("EWR");
+		assertEquals(Arrays.asList("JFK"), replayed());
+	}
+
+	@Test
+	public void testReplaysACompactionThatDied() throws Exception {
+		// set aside by a compaction that died before writing the data file
+		_journal.added(_jfk);
+		_journal.removed("EWR");
+		_journal.close();
+		Files.move(journal().toPath(), compacting().toPath());
+		// and changed after it
+		_journal.removed("JFK");
+		_journal.added(_ewr);
+
+		assertTrue(_journal.hasChanges());
+		assertEquals(Arrays.asList("BOS", "EWR"), replayed());
+
+		// the next compaction takes both, in order
+		_catalog.clear();
+		_catalog.add(_bos);
+		_catalog.add(_ewr);
+		_journal.compact();
+		assertFalse(journal().exists());
+		assertFalse(compacting().exists());
+		assertEquals(Arrays.asList("BOS", "EWR"), iatas(AirportCatalogSnapshot.load(_dataFile)));
+	}
+
+	@Test
+	public void testReloadReplaysTheJournal() throws Exception {
+		File dataFile = airportsDat(_folder);
+		upload(dataFile);
+		RestWeatherQueryEndpoint.init();
+		int size = AirportLoader.airports.size();
+		RestWeatherCollectorEndpoint collector = new RestWeatherCollectorEndpoint();
+		assertEquals(200, collector.addAirport("TST", "40.0", "-73.0").getStatus());
+		assertEquals(200, collector.deleteAirport("BOS").getStatus());
+		assertTrue(new File(dataFile.getPath() + ".journal").isFile());
+
+		// a restart before the compaction
+		setUpToDateFlag(false);
+		upload(dataFile);
+		assertEquals(size, AirportLoader.airports.size());
+		assertNotNull(getAirportByIata("TST"));
+		assertNull(getAirportByIata("BOS"));
+	}
+
+	@Test
+	public void testRacingChangesReplayInOrder() throws Exception {
+		File dataFile = airportsDat(_folder);
+		upload(dataFile);
+		RestWeatherQueryEndpoint.init();
+		int rounds = 100;
+		int changes = 50;
+		ExecutorService threads = Executors.newFixedThreadPool(3);
+		try {
+			for (int round = 0; round < rounds; round++) {
+				List<Future<?>> racing = new ArrayList<>();
+				for (int t = 0; t < 3; t++) {
+					Random random = new Random(round * 3 + t);
+					racing.add(threads.submit(() -> {
+						// add, move and remove the same airport
+						for (int i = 0; i < changes; i++) {
+							if (random.nextInt(3) == 0) {
+								WeatherCollectorEndpointCallableTask.removeAirport("TST");
+							} else {
+								WeatherCollectorEndpointCallableTask.addAirport("TST", random.nextInt(90),
+										random.nextInt(180));
+							}
+						}
+					}));
+				}
+				for (Future<?> future : racing) {
+					future.get(60, TimeUnit.SECONDS);
+				}
+				AirportData before = getAirportByIata("TST");
+
+				// a restart finds what the last version had
+				setUpToDateFlag(false);
+				upload(dataFile);
+				AirportData after = getAirportByIata("TST");
+				if (null == before) {
+					assertNull("round " + round, after);
+				} else {
+					assertNotNull("round " + round, after);
+					assertEquals("round " + round, before.getLatitude(), after.getLatitude(), 0);
+					assertEquals("round " + round, before.getLongitude(), after.getLongitude(), 0);
+				}
+			}
+		} finally {
+			threads.shutdownNow();
+		}
+	}
+
+	/**
+	 * @param folder
+	 *            the folder of the test
+	 * @return a copy of airports.dat in the folder, for a test to change
+	 */
+	static File airportsDat(TemporaryFolder folder) throws IOException {
+		File copy = new File(folder.newFolder(), "airports.dat");
+		Files.copy(getAirportsDatFile().toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return copy;
+	}
+
+	private File journal() {
+		return new File(_dataFile.getPath() + ".journal");
+	}
+
+	private File compacting() {
+		return new File(_dataFile.getPath() + ".journal.compacting");
+	}
+
+	private Map<String, AirportData> replay() throws IOException {
+		Map<String, AirportData> byIata = new LinkedHashMap<>();
+		for (AirportData ad : AirportCatalogSnapshot.load(_dataFile)) {
+			byIata.put(ad.getIata(), ad);
+		}
+		_journal.replay(byIata);
+		return byIata;
+	}
+
+	private List<String> replayed() throws IOException {
+		return new ArrayList<>(replay().keySet());
+	}
+
+	private static List<String> iatas(List<AirportData> airports) {
+		List<String> retval = new ArrayList<>();
+		for (AirportData ad : airports) {
+			retval.add(ad.getIata());
+		}
+		return retval;
+	}
+
+	private static void write(File file, AirportData... airports) throws IOException {
+		StringBuilder lines = new StringBuilder();
+		for (int i = 0; i < airports.length; i++) {
+			lines.append(airports[i].writeToFile(i + 1)).append('\n');
+		}
+		Files.write(file.toPath(), lines.toString().getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,63 @@
+package com.crossover.trial.weather;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AirportCatalogSnapshotTest {
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	@Test
+	public void testReadBackAndRevalidate() throws Exception {
+		File file = _folder.newFile("airports.dat");
+		try (PrintWriter out = new PrintWriter(file)) {
+			out.println("1,\"General Edward Lawrence Logan Intl\",\"Boston\",\"United States\",\"BOS\",\"KBOS\",42.364347,-71.005181,19,-5,\"A\"");
+			out.println("2,\"La Guardia\",\"New York\",\"United States\",\"LGA\",\"KLGA\",40.777245,-73.872608,22,-5,\"A\"");
+			out.println("3,\"Heathrow\",\"London\",\"United Kingdom\",\"LHR\",\\N,51.4706,-0.461941,83,0,\"E\"");
+		}
+
+		List<AirportData> parsed = AirportCatalogSnapshot.load(file);
+		File copy = AirportCatalogSnapshot.copyOf(file);
+		assertTrue(copy.isFile());
+
+		List<AirportData> read = AirportCatalogSnapshot.read(copy, file);
+		assertNotNull(read);
+		assertEquals(parsed.size(), read.size());
+		for (int i = 0; i < parsed.size(); i++) {
+			AirportData expected = parsed.get(i);
+			AirportData actual = read.get(i);
+			assertEquals(expected.getPk(), actual.getPk());
+			assertEquals(expected.getName(), actual.getName());
+			assertEquals(expected.getIata(), actual.getIata());
+			assertEquals(expected.getIcao(), actual.getIcao());
+			assertEquals(expected.getLatitude(), actual.getLatitude(), 0);
+			assertEquals(expected.getLongitude(), actual.getLongitude(), 0);
+			assertEquals(expected.getAltitude(), actual.getAltitude(), 0);
+			assertEquals(expected.getTimezone(), actual.getTimezone(), 0);
+			assertEquals(expected.getDst(), actual.getDst());
+		}
+		// one string per distinct value
+		assertSame(read.get(0).getCountry(), read.get(1).getCountry());
+
+		// an edit of the text file makes the copy stale
+		try (PrintWriter out = new PrintWriter(file)) {
+			out.println("1,\"Heathrow\",\"London\",\"United Kingdom\",\"LHR\",\"EGLL\",51.4706,-0.461941,83,0,\"E\"");
+		}
+		file.setLastModified(file.lastModified() + 2000);
+		assertNull(AirportCatalogSnapshot.read(copy, file));
+		assertEquals("EGLL", AirportCatalogSnapshot.load(file).get(0).getIcao());
+		assertEquals(1, AirportCatalogSnapshot.read(copy, file).size());
+	}
+}
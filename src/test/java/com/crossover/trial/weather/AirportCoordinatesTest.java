@@ -0,0 +1,167 @@
+package com.crossover.trial.weather;
+
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.R;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class AirportCoordinatesTest {
+
+	private static final double EPSILON = 1e-12;
+
+	private AirportCoordinates _coordinates = new AirportCoordinates();
+
+	@Test
+	public void testUnitVectors() {
+		_coordinates.set(0, 0, 0);
+		_coordinates.set(1, 0, 90);
+		_coordinates.set(2, 90, 0);
+		_coordinates.set(3, -90, 123);
+		_coordinates.set(4, 0, 180);
+		_coordinates.set(5, 0, -180);
+		assertArrayEquals(new double[] { 1, 0, 0 }, _coordinates.position(0), EPSILON);
+		assertArrayEquals(new double[] { 0, 1, 0 }, _coordinates.position(1), EPSILON);
+		assertEquals(1, _coordinates.position(2)[2], EPSILON);
+		assertEquals(-1, _coordinates.position(3)[2], EPSILON);
+		assertArrayEquals(_coordinates.position(4), _coordinates.position(5), EPSILON);
+
+		Random random = new Random(7);
+		for (int slot = 0; slot < 5000; slot++) {
+			double latitude = 180 * random.nextDouble() - 90;
+			double longitude = 360 * random.nextDouble() - 180;
+			_coordinates.set(slot, latitude, longitude);
+			double[] p = _coordinates.position(slot);
+			assertEquals(1, p[0] * p[0] + p[1] * p[1] + p[2] * p[2], EPSILON);
+			assertEquals(latitude, Math.toDegrees(Math.asin(p[2])), 1e-9);
+			assertEquals(longitude, Math.toDegrees(Math.atan2(p[1], p[0])), 1e-9);
+		}
+	}
+
+	@Test
+	public void testUnplaced() {
+		_coordinates.set(3000, 10, 10);
+		assertNull(_coordinates.position(2999));
+		_coordinates.remove(3000);
+		assertNull(_coordinates.position(3000));
+
+		int[] out = new int[2];
+		assertEquals(0, _coordinates.filter(0, 40000, new int[] { 2999, 3000 }, 0, 2, out));
+	}
+
+	@Test
+	public void testFilterMatchesHaversine() {
+		Random random = new Random(13);
+		List<AirportData> airports = new ArrayList<>();
+		for (int slot = 0; slot < 3000; slot++) {
+			double latitude = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+			double longitude = 360 * random.nextDouble() - 180;
+			airports.add(new AirportData(null, latitude, longitude));
+			_coordinates.set(slot, latitude, longitude);
+		}
+		int[] all = new int[airports.size()];
+		for (int slot = 0; slot < all.length; slot++) {
+			all[slot] = slot;
+		}
+
+		int[] out = new int[all.length];
+		for (double radius : new double[] { 0, 1, 50, 500, 5000, 15000, Math.PI * R - 1, Math.PI * R }) {
+			for (int center = 0; center < 20; center++) {
+				int count = _coordinates.filter(center, radius, all, 0, all.length, out);
+				boolean[] kept = new boolean[all.length];
+				for (int i = 0; i < count; i++) {
+					kept[out[i]] = true;
+					// in candidate order
+					assertTrue(i == 0 || out[i - 1] < out[i]);
+				}
+				for (int slot = 0; slot < all.length; slot++) {
+					double distance = AirportSpatialIndexTest.distance(airports.get(center), airports.get(slot));
+					// rounding decides right at the edge
+					if (Math.abs(distance - radius) > 1e-6) {
+						assertEquals(radius + " km from " + center + " to " + slot + " at " + distance,
+								distance <= radius, kept[slot]);
+					}
+				}
+				assertTrue(kept[center]);
+			}
+		}
+	}
+
+	@Test
+	public void testEditCopiesOnce() {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+		long thread = Thread.currentThread().getId();
+		int slots = 100000;
+		_coordinates.set(slots - 1, 10, 10);
+		_coordinates.set(0, 20, 20);
+
+		AirportCoordinates edit = _coordinates.edit();
+		long before = threads.getThreadAllocatedBytes(thread);
+		for (int slot = 0; slot < 1000; slot++) {
+			edit.set(slot, 30, 30);
+			edit.remove(slots - 1);
+		}
+		long allocated = threads.getThreadAllocatedBytes(thread) - before;
+		// one copy of the three columns, not one per write
+		assertTrue(allocated + " bytes allocated by 2000 writes", allocated < 2 * 3 * 8 * slots);
+
+		// the published coordinates don't see the edit
+		assertArrayEquals(new double[] { 20, 20 }, latLon(_coordinates.position(0)), 1e-9);
+		assertArrayEquals(new double[] { 10, 10 }, latLon(_coordinates.position(slots - 1)), 1e-9);
+		assertArrayEquals(new double[] { 30, 30 }, latLon(edit.position(0)), 1e-9);
+		assertNull(edit.position(slots - 1));
+
+		// sealed and published, the next edit copies again
+		edit.seal();
+		AirportCoordinates next = edit.edit();
+		next.set(1, 40, 40);
+		assertArrayEquals(new double[] { 30, 30 }, latLon(edit.position(1)), 1e-9);
+		assertArrayEquals(new double[] { 40, 40 }, latLon(next.position(1)), 1e-9);
+	}
+
+	@Test
+	public void testReadersSeeWholePositions() throws Exception {
+		_coordinates.set(0, 0, 0);
+		_coordinates.set(1, 0, 0);
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicReference<String> failure = new AtomicReference<>();
+		Thread reader = new Thread(() -> {
+			while (!done.get()) {
+				double[] p = _coordinates.position(1);
+				boolean atOrigin = Math.abs(p[0] - 1) < EPSILON && Math.abs(p[1]) < EPSILON
+						&& Math.abs(p[2]) < EPSILON;
+				boolean atPole = Math.abs(p[0]) < EPSILON && Math.abs(p[1]) < EPSILON && Math.abs(p[2] - 1) < EPSILON;
+				if (!atOrigin && !atPole) {
+					failure.set(p[0] + "," + p[1] + "," + p[2]);
+				}
+			}
+		});
+		reader.start();
+		for (int i = 0; i < 20000 && failure.get() == null; i++) {
+			_coordinates.set(1, i % 2 == 0 ? 90 : 0, 0);
+		}
+		done.set(true);
+		reader.join();
+		assertFalse(failure.get(), failure.get() != null);
+	}
+
+	/** @return the latitude and longitude of a unit vector, in degrees */
+	private static double[] latLon(double[] p) {
+		return new double[] { Math.toDegrees(Math.asin(p[2])), Math.toDegrees(Math.atan2(p[1], p[0])) };
+	}
+}
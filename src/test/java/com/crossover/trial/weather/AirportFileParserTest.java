@@ -0,0 +1,73 @@
+package com.crossover.trial.weather;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AirportFileParserTest {
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	@Test
+	public void testParseQuotedLine() throws Exception {
+		AirportData ad = AirportFileParser.parseLine(
+				"507,\"London, \"\"Heathrow\"\"\",\"London\",\"United Kingdom\",\"LHR\",\"EGLL\",51.4706,-0.461941,83,0,\"E\",\"Europe/London\",\"airport\",\"OurAirports\"");
+		assertEquals(507, ad.getPk());
+		assertEquals("London, \"Heathrow\"", ad.getName());
+		assertEquals("LHR", ad.getIata());
+		assertEquals(51.4706, ad.getLatitude(), 0);
+		assertEquals(-0.461941, ad.getLongitude(), 0);
+		assertEquals("E", ad.getDst());
+
+		// as written back by the catalog
+		AirportData back = AirportFileParser.parseLine(ad.writeToFile(ad.getPk()));
+		assertEquals(ad.getName(), back.getName());
+		assertEquals(ad.getLongitude(), back.getLongitude(), 0);
+
+		assertNull(AirportFileParser.parseLine("1,\"A\",\"B\""));
+	}
+
+	@Test
+	public void testParseNumbersLikeTheJdk() throws Exception {
+		Random random = new Random(3);
+		for (int i = 0; i < 10000; i++) {
+			String latitude = i % 2 == 0 ? Double.toString(random.nextDouble() * 180 - 90)
+					: String.format("%." + random.nextInt(10) + "f", random.nextDouble() * 180 - 90);
+			String altitude = i % 3 == 0 ? "1.5E-" + random.nextInt(30) : Integer.toString(random.nextInt(20000));
+			String timezone = Float.toString((random.nextInt(48) - 24) / 2f + random.nextFloat());
+			AirportData ad = AirportFileParser.parseLine(
+					i + ",\"A\",\"B\",\"C\",\"AAA\",\"KAAA\"," + latitude + ",0," + altitude + "," + timezone + ",\"E\"");
+			assertEquals(latitude, Double.parseDouble(latitude), ad.getLatitude(), 0);
+			assertEquals(altitude, Double.parseDouble(altitude), ad.getAltitude(), 0);
+			assertEquals(timezone, Float.parseFloat(timezone), ad.getTimezone(), 0);
+		}
+	}
+
+	@Test
+	public void testReportRejectedLines() throws Exception {
+		File file = _folder.newFile("airports.dat");
+		try (PrintWriter out = new PrintWriter(file)) {
+			out.println("1,\"A\",\"B\",\"C\",\"AAA\",\"KAAA\",1,2,3,4,\"E\"");
+			out.println();
+			out.println("2,\"A\",\"B\",\"C\",\\N,\"KAAB\",1,2,3,4,\"E\"");
+			out.println("3,\"A\",\"B\",\"C\",\"AAC\",\"KAAC\",north,2,3,4,\"E\"");
+			out.println("4,\"A\",\"B\",\"C\",\"AAD\",\"KAAD\",1,2,3,4,\"E");
+			out.print("5,\"A\",\"B\",\"C\",\"AAE\",\\N,1,2,3,4,\"E\"\r\n");
+		}
+
+		AirportFileParser.Result result = AirportFileParser.parse(file);
+		assertEquals(6, result.lines);
+		assertEquals(2, result.airports.size());
+		assertEquals("", result.airports.get(1).getIcao());
+		assertEquals("[line 3: no iata code, line 4: bad coordinates, line 5: unterminated quote in column 11]",
+				result.rejected.toString());
+	}
+}
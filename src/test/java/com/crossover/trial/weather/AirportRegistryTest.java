@@ -0,0 +1,159 @@
+package com.crossover.trial.weather;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AirportRegistryTest {
+
+	private AirportRegistry _registry = new AirportRegistry();
+
+	@Test
+	public void testRegisterAndRemove() {
+		AirportData bos = airport("BOS");
+		assertEquals(0, _registry.register(bos));
+		assertEquals(1, _registry.register(airport("JFK")));
+		assertSame(bos, _registry.find("BOS"));
+		assertEquals(1, _registry.slotOf("JFK"));
+		assertEquals(AirportRegistry.NO_SLOT, _registry.slotOf("LGA"));
+
+		assertEquals(0, _registry.remove("BOS"));
+		assertNull(_registry.find("BOS"));
+		assertNull(_registry.airport(0));
+		assertEquals(AirportRegistry.NO_SLOT, _registry.remove("BOS"));
+		assertEquals(AirportRegistry.NO_SLOT, _registry.remove("TOO LONG"));
+		assertEquals(1, _registry.slotOf("JFK"));
+
+		// slots are not reused
+		assertEquals(2, _registry.register(airport("BOS")));
+		assertEquals(3, _registry.slotCount());
+	}
+
+	@Test
+	public void testMatchesIataAndIcaoExactly() {
+		AirportData bos = new AirportData(1, "General Edward Lawrence Logan Intl", "Boston", "United States", "BOS",
+				"KBOS", 42.364347, -71.005181, 19, -5, "A");
+		_registry.register(bos);
+		assertSame(bos, _registry.find("BOS"));
+		assertSame(bos, _registry.find("KBOS"));
+		assertNull(_registry.find("bos"));
+		assertNull(_registry.find("kbos"));
+		assertNull(_registry.find("KBO"));
+		assertNull(_registry.find(null));
+		assertNull(_registry.find(""));
+
+		// removed by its IATA code only, and then by neither code
+		assertEquals(AirportRegistry.NO_SLOT, _registry.remove("KBOS"));
+		assertSame(bos, _registry.find("BOS"));
+		assertEquals(0, _registry.remove("BOS"));
+		assertNull(_registry.find("KBOS"));
+		assertEquals(AirportRegistry.NO_SLOT, _registry.slotOf("KBOS"));
+
+		// a rebuild indexes both codes too
+		_registry.rebuild(Arrays.asList(airport("JFK"), bos));
+		assertEquals(1, _registry.slotOf("KBOS"));
+		assertEquals(1, _registry.slotOf("BOS"));
+	}
+
+	@Test
+	public void testFirstRegisteredKeepsTheCode() {
+		AirportData first = airport("BOS");
+		_registry.register(first);
+		AirportData second = airport("BOS");
+		assertEquals(1, _registry.register(second));
+		assertSame(first, _registry.find("BOS"));
+		assertSame(second, _registry.airport(1));
+
+		assertEquals(0, _registry.remove("BOS"));
+		assertNull(_registry.airport(0));
+	}
+
+	@Test
+	public void testProbeChains() {
+		int mask = AirportRegistry.INITIAL_CAPACITY - 1;
+		// codes sharing the last bucket, so their chain wraps around the table
+		List<String> chain = colliding(mask, mask, 6);
+		// and codes whose home is inside that chain
+		List<String> next = colliding(0, mask, 3);
+		for (String code : chain) {
+			_registry.register(airport(code));
+		}
+		for (String code : next) {
+			_registry.register(airport(code));
+		}
+
+		// remove from the head, the middle and the tail of the chain
+		for (String code : new String[] { chain.get(0), chain.get(3), next.get(2), chain.get(5) }) {
+			_registry.remove(code);
+			assertNull(_registry.find(code));
+			assertResolvable(chain, next, code);
+		}
+		_registry.register(airport(chain.get(0)));
+		assertEquals(chain.get(0), _registry.find(chain.get(0)).getIata());
+	}
+
+	@Test
+	public void testGrowsAndMatchesAMap() {
+		Random random = new Random(17);
+		Map<String, Integer> expected = new HashMap<>();
+		for (int i = 0; i < 50000; i++) {
+			String code = code(random.nextInt(26 * 26 * 26));
+			if (random.nextInt(3) == 0) {
+				Integer slot = expected.remove(code);
+				assertEquals(slot == null ? AirportRegistry.NO_SLOT : slot.intValue(), _registry.remove(code));
+			} else if (!expected.containsKey(code)) {
+				expected.put(code, _registry.register(airport(code)));
+			}
+		}
+		for (int i = 0; i < 26 * 26 * 26; i++) {
+			String code = code(i);
+			Integer slot = expected.get(code);
+			assertEquals(code, slot == null ? AirportRegistry.NO_SLOT : slot.intValue(), _registry.slotOf(code));
+		}
+	}
+
+	private void assertResolvable(List<String> chain, List<String> next, String removed) {
+		List<String> all = new ArrayList<>(chain);
+		all.addAll(next);
+		for (String code : all) {
+			AirportData ad = _registry.find(code);
+			if (ad != null) {
+				assertEquals(code, ad.getIata());
+			}
+		}
+		for (int i = 0; i < all.size(); i++) {
+			String code = all.get(i);
+			boolean wasRemoved = code.equals(removed) || _registry.airport(i) == null;
+			assertEquals(code, wasRemoved ? AirportRegistry.NO_SLOT : i, _registry.slotOf(code));
+		}
+	}
+
+	/** @return codes whose home bucket is the given one */
+	private static List<String> colliding(int bucket, int mask, int count) {
+		List<String> retval = new ArrayList<>();
+		for (int i = 0; retval.size() < count; i++) {
+			String code = code(i);
+			if ((AirportRegistry.hash(AirportRegistry.pack(code)) & mask) == bucket) {
+				retval.add(code);
+			}
+		}
+		return retval;
+	}
+
+	private static String code(int i) {
+		return "" + (char) ('A' + i / 676 % 26) + (char) ('A' + i / 26 % 26) + (char) ('A' + i % 26);
+	}
+
+	private static AirportData airport(String code) {
+		return new AirportData(code, 0, 0);
+	}
+}
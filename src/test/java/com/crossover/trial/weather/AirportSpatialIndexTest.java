@@ -0,0 +1,138 @@
+package com.crossover.trial.weather;
+
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.R;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AirportSpatialIndexTest {
+
+	private AirportRegistry _registry = new AirportRegistry();
+
+	private AirportSpatialIndex _index = new AirportSpatialIndex();
+
+	/** a distinct three letter code per position added */
+	private Map<String, String> _codes = new HashMap<>();
+
+	@Before
+	public void setUp() {
+		Random random = new Random(11);
+		for (int i = 0; i < 2000; i++) {
+			double latitude = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+			double longitude = 360 * random.nextDouble() - 180;
+			add(latitude, longitude);
+		}
+		// the edges of the grid
+		add(90, 0);
+		add(-90, 45);
+		add(89.9, 179.99);
+		add(-89.9, -179.99);
+		add(0, 180);
+		add(0, -180);
+		add(10, 179.5);
+		add(10, -179.5);
+		_index.rebuild(_registry);
+	}
+
+	@Test
+	public void testAcrossTheAntimeridian() {
+		assertCandidatesCover(code(10, 179.5), 200);
+		assertCandidatesCover(code(10, -179.5), 200);
+		assertCandidatesCover(code(0, 180), 1000);
+		assertTrue(contains(_index.candidates(airport(10, 179.5), 200), slot(10, -179.5)));
+	}
+
+	@Test
+	public void testAroundThePoles() {
+		assertCandidatesCover(code(90, 0), 500);
+		assertCandidatesCover(code(-90, 45), 500);
+		assertCandidatesCover(code(89.9, 179.99), 50);
+		assertCandidatesCover(code(-89.9, -179.99), 3000);
+		assertTrue(contains(_index.candidates(airport(89.9, 179.99), 50), slot(90, 0)));
+	}
+
+	@Test
+	public void testHalfTheGlobeAndMore() {
+		for (double radius : new double[] { Math.PI * R, Math.PI * R + 1, 1e9 }) {
+			int[] candidates = _index.candidates(airport(0, 180), radius);
+			assertEquals(_registry.slotCount(), new HashSet<>(boxed(candidates)).size());
+		}
+	}
+
+	@Test
+	public void testRandomCenters() {
+		Random random = new Random(7);
+		for (int i = 0; i < 200; i++) {
+			AirportData center = _registry.airport(random.nextInt(_registry.slotCount()));
+			assertCandidatesCover(center.getIata(), 20000 * random.nextDouble());
+		}
+	}
+
+	private void assertCandidatesCover(String code, double radius) {
+		AirportData center = _registry.find(code);
+		Set<Integer> candidates = new HashSet<>(boxed(_index.candidates(center, radius)));
+		for (int slot = 0; slot < _registry.slotCount(); slot++) {
+			AirportData ad = _registry.airport(slot);
+			if (distance(center, ad) <= radius) {
+				assertTrue(ad.getIata() + " within " + radius + " km of " + code, candidates.contains(slot));
+			}
+		}
+	}
+
+	/** the great circle distance in km */
+	static double distance(AirportData ad1, AirportData ad2) {
+		double lat1 = Math.toRadians(ad1.getLatitude());
+		double lat2 = Math.toRadians(ad2.getLatitude());
+		double deltaLat = lat2 - lat1;
+		double deltaLon = Math.toRadians(ad2.getLongitude() - ad1.getLongitude());
+		double a = Math.pow(Math.sin(deltaLat / 2), 2)
+				+ Math.pow(Math.sin(deltaLon / 2), 2) * Math.cos(lat1) * Math.cos(lat2);
+		return R * 2 * Math.asin(Math.sqrt(Math.min(1, a)));
+	}
+
+	private void add(double latitude, double longitude) {
+		_registry.register(new AirportData(code(latitude, longitude), latitude, longitude));
+	}
+
+	private AirportData airport(double latitude, double longitude) {
+		return _registry.find(code(latitude, longitude));
+	}
+
+	private int slot(double latitude, double longitude) {
+		return _registry.slotOf(code(latitude, longitude));
+	}
+
+	private String code(double latitude, double longitude) {
+		return _codes.computeIfAbsent(latitude + "/" + longitude, k -> {
+			int n = _codes.size();
+			return "" + (char) ('A' + n / 676) + (char) ('A' + n / 26 % 26) + (char) ('A' + n % 26);
+		});
+	}
+
+	private static boolean contains(int[] slots, int slot) {
+		for (int s : slots) {
+			if (s == slot) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static List<Integer> boxed(int[] slots) {
+		List<Integer> retval = new ArrayList<>();
+		for (int s : slots) {
+			retval.add(s);
+		}
+		return retval;
+	}
+}
@@ -0,0 +1,112 @@
+package com.crossover.trial.weather;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.ws.rs.core.MediaType;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.ExclusionStrategy;
+import com.google.gson.FieldAttributes;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+public class AtmosphericInformationWriterTest {
+
+	private ObjectMapper _jackson = new ObjectMapper();
+
+	/** the properties Jackson sees: nulls kept, the snapshot bookkeeping left out */
+	private Gson _gson = new GsonBuilder().serializeNulls().setExclusionStrategies(new ExclusionStrategy() {
+
+		@Override
+		public boolean shouldSkipField(FieldAttributes f) {
+			return f.getDeclaringClass() == AtmosphericInformation.class
+					&& (f.getName().equals("lastUpdateTime") || f.getName().equals("json"));
+		}
+
+		@Override
+		public boolean shouldSkipClass(Class<?> clazz) {
+			return false;
+		}
+	}).create();
+
+	private AtmosphericInformationWriter _writer = new AtmosphericInformationWriter();
+
+	@Test
+	public void testEncodeMatchesJacksonAndGson() throws Exception {
+		for (AtmosphericInformation ai : samples()) {
+			byte[] json = AtmosphericInformationWriter.encode(ai);
+			assertArrayEquals(new String(json, "US-ASCII"), _jackson.writeValueAsBytes(ai), json);
+			assertEquals(_gson.toJson(ai), new String(json, "US-ASCII"));
+		}
+	}
+
+	@Test
+	public void testNonNumericMeansMatchJackson() throws Exception {
+		for (double mean : new double[] { Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY }) {
+			AtmosphericInformation ai = new AtmosphericInformation().with(DataPointType.WIND,
+					new DataPoint(mean, 1, 2, 3, 4), 0);
+			assertArrayEquals(_jackson.writeValueAsBytes(ai), ai.json());
+		}
+	}
+
+	@Test
+	public void testEncodesOnceOnFirstRead() throws Exception {
+		AtmosphericInformation ai = samples().get(0);
+		byte[] json = ai.json();
+		assertArrayEquals(AtmosphericInformationWriter.encode(ai), json);
+		assertSame(json, ai.json());
+	}
+
+	@Test
+	public void testListMatchesJackson() throws Exception {
+		List<AtmosphericInformation> samples = samples();
+		samples.add(1, null);
+		for (AtmosphericInformationList written : Arrays.asList(new AtmosphericInformationList(samples),
+				new AtmosphericInformationList(new ArrayList<AtmosphericInformation>()))) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			_writer.writeTo(written, AtmosphericInformationList.class, AtmosphericInformationList.class, null,
+					MediaType.APPLICATION_JSON_TYPE, null, out);
+			assertArrayEquals(_jackson.writeValueAsBytes(new ArrayList<>(written)), out.toByteArray());
+			assertEquals(out.size(), _writer.getSize(written, AtmosphericInformationList.class,
+					AtmosphericInformationList.class, null, MediaType.APPLICATION_JSON_TYPE));
+		}
+	}
+
+	/** snapshots with no, some and all the data points, whole and fractional means */
+	private static List<AtmosphericInformation> samples() {
+		List<AtmosphericInformation> retval = new ArrayList<>();
+		AtmosphericInformation ai = new AtmosphericInformation();
+		retval.add(ai);
+		ai = ai.with(DataPointType.TEMPERATURE,
+				new DataPoint.Builder().withMean(-12).withFirst(-40).withSecond(-10).withThird(5).withCount(3).build(),
+				0);
+		retval.add(ai);
+		ai = ai.with(DataPointType.PRESSURE, new DataPoint(1013.25, 990, 1010, 1020, 120), 0);
+		retval.add(ai);
+
+		Random random = new Random(5);
+		for (int i = 0; i < 200; i++) {
+			AtmosphericInformation sample = new AtmosphericInformation();
+			for (DataPointType type : DataPointType.values()) {
+				if (random.nextInt(3) > 0) {
+					double mean = random.nextBoolean() ? random.nextInt(2000) - 1000
+							: (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(20) - 6);
+					sample = sample.with(type, new DataPoint(mean, random.nextInt(), random.nextInt(),
+							random.nextInt(), random.nextInt(Integer.MAX_VALUE)), 0);
+				}
+			}
+			retval.add(sample);
+		}
+		return retval;
+	}
+}
@@ -0,0 +1,92 @@
+package com.crossover.trial.weather;
+
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.atmosphericInformation;
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.getAirportDataIdx;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AtmosphericStateStoreTest {
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	private File _dir;
+
+	@Before
+	public void setUp() throws Exception {
+		RestWeatherQueryEndpoint.init();
+		_dir = _folder.newFolder("store");
+	}
+
+	@Test
+	public void testRecoverSnapshotAndLog() throws Exception {
+		DataPoint wind = new DataPoint.Builder().withMean(22).withFirst(10).withSecond(20).withThird(30).withCount(10)
+				.build();
+		DataPoint laterWind = new DataPoint.Builder().withMean(25).withFirst(12).withSecond(22).withThird(32)
+				.withCount(5).build();
+		DataPoint temperature = new DataPoint(-3.5, -5, -3, -2, 1);
+
+		AtmosphericStateStore store = new AtmosphericStateStore(_dir, 1 << 20, 0, false);
+		assertEquals(0, store.recover());
+		AtmosphericStateStore.Batch batch = store.batch();
+		apply(batch, "BOS", DataPointType.WIND, wind, 1000);
+		store.commit(batch);
+		store.snapshot();
+		apply(batch, "JFK", DataPointType.TEMPERATURE, temperature, 2000);
+		apply(batch, "BOS", DataPointType.WIND, laterWind, 3000);
+		// an airport removed before the restart
+		batch.add("XXX", DataPointType.WIND, wind, 3000);
+		store.commit(batch);
+
+		// a crash: no close, the state is gone
+		RestWeatherQueryEndpoint.init();
+		assertNull(atmosphericInformation.get(getAirportDataIdx("BOS")).getWind());
+
+		// one airport from the snapshot, two records from the log
+		assertEquals(3, new AtmosphericStateStore(_dir, 1 << 20, 0, false).recover());
+		AtmosphericInformation bos = atmosphericInformation.get(getAirportDataIdx("BOS"));
+		assertEquals(laterWind, bos.getWind());
+		assertEquals(3000, bos.getLastUpdateTime());
+		assertEquals(temperature, atmosphericInformation.get(getAirportDataIdx("JFK")).getTemperature());
+		assertNull(atmosphericInformation.get(getAirportDataIdx("LHR")).getWind());
+	}
+
+	@Test
+	public void testFullSegmentSnapshotsWithoutTimer() throws Exception {
+		AtmosphericStateStore store = new AtmosphericStateStore(_dir, 1 << 20, 0, false);
+		store.recover();
+		AtmosphericStateStore.Batch batch = store.batch();
+		// about 50 bytes a record, several segments worth
+		for (int i = 1; i <= 100000; i++) {
+			apply(batch, i % 2 == 0 ? "BOS" : "JFK", DataPointType.WIND,
+					new DataPoint.Builder().withMean(i % 100).withCount(i).build(), i);
+			if (i % 100 == 0) {
+				store.commit(batch);
+			}
+		}
+
+		String[] segments = _dir.list((dir, name) -> name.startsWith("wal-"));
+		assertTrue(segments.length + " segments", segments.length <= 2);
+		assertEquals(1, _dir.list((dir, name) -> name.startsWith("snapshot-")).length);
+
+		RestWeatherQueryEndpoint.init();
+		new AtmosphericStateStore(_dir, 1 << 20, 0, false).recover();
+		assertEquals(100000, atmosphericInformation.get(getAirportDataIdx("BOS")).getWind().getCount());
+		assertEquals(99999, atmosphericInformation.get(getAirportDataIdx("JFK")).getWind().getCount());
+	}
+
+	/** what the ingest pipeline does: update the table, then log */
+	private void apply(AtmosphericStateStore.Batch batch, String iata, DataPointType type, DataPoint dp, long time) {
+		int slot = getAirportDataIdx(iata);
+		atmosphericInformation.put(slot, atmosphericInformation.get(slot).with(type, dp, time));
+		batch.add(iata, type, dp, time);
+	}
+}
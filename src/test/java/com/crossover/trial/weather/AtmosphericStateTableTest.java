@@ -0,0 +1,52 @@
+package com.crossover.trial.weather;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class AtmosphericStateTableTest {
+
+	private static final int UPDATES = 20000;
+
+	@Test
+	public void testConcurrentUpdatesOfOneAirport() throws Exception {
+		AtmosphericStateTable table = new AtmosphericStateTable();
+		table.put(3, new AtmosphericInformation());
+
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> writers = new ArrayList<>();
+		for (DataPointType type : DataPointType.values()) {
+			Thread writer = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 1; i <= UPDATES; i++) {
+					DataPoint dp = new DataPoint.Builder().withMean(i).withCount(i).build();
+					AtmosphericInformation current;
+					do {
+						current = table.get(3);
+					} while (!table.compareAndSet(3, current, current.with(type, dp, System.currentTimeMillis())));
+				}
+			});
+			writer.start();
+			writers.add(writer);
+		}
+		start.countDown();
+		for (Thread writer : writers) {
+			writer.join();
+		}
+
+		// no writer lost the update of another one
+		AtmosphericInformation ai = table.get(3);
+		for (DataPointType type : DataPointType.values()) {
+			assertEquals(type.name(), UPDATES, ai.get(type).getCount());
+		}
+		assertEquals(1, table.freshCount());
+	}
+}
@@ -0,0 +1,210 @@
+package com.crossover.trial.weather;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ws.rs.core.Response;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+public class DataPointParserTest {
+
+	private DataPointParser _parser = new DataPointParser();
+
+	private Gson _gson = new Gson();
+
+	@Test
+	public void testParseLikeGson() throws Exception {
+		String[] jsons = { "{\"mean\":22.0,\"first\":10,\"second\":20,\"third\":30,\"count\":10}",
+				" { \"count\" : 7 , \"mean\" : -3.25 }\n", "{\"mean\":1.0E-5,\"first\":-10}", "{\"mean\":0.1}",
+				"{\"mean\":123456789012345,\"third\":2147483647}", "{}",
+				"{\"mean\":2.5e3,\"iata\":\"BOS\",\"ok\":true,\"none\":null,\"x\":1.5}" };
+		for (String json : jsons) {
+			assertTrue(json, _parser.parse(json));
+			assertEquals(json, _gson.fromJson(json, DataPoint.class), _parser.toDataPoint());
+		}
+	}
+
+	@Test
+	public void testFallBackToGson() throws Exception {
+		String[] jsons = { null, "", "{\"mean\":\"22\"}", "{\"count\":1.5}", "{'mean':1}", "{\"mean\":1}x",
+				"{\"mean\":12345678901234567890}", "{\"me\\u0061n\":1}", "{\"mean\":01}", "{\"x\":[1]}" };
+		for (String json : jsons) {
+			assertFalse(json, _parser.parse(json));
+		}
+	}
+
+	@Test
+	public void testParseRecordLikeGson() throws Exception {
+		String[] lines = {
+				"{\"iata\":\"BOS\",\"pointType\":\"wind\",\"mean\":22.0,\"first\":10,\"second\":20,\"third\":30,\"count\":10}",
+				" {\"count\":7, \"pointType\" : \"humidity\", \"mean\":-3.25, \"iata\":\"JFK\"} ",
+				"{\"iata\":\"BOS\",\"mean\":1}", "{\"pointType\":\"wind\",\"mean\":1}",
+				"{\"iata\":\"BOS\",\"iata\":\"JFK\",\"pointType\":\"wind\"}",
+				// gson reads these
+				"{\"iata\":\"B\\u004fS\",\"pointType\":\"wind\",\"mean\":1}",
+				"{\"iata\":null,\"pointType\":\"wind\"}", "{\"iata\":123,\"pointType\":\"wind\"}",
+				"{iata:'BOS',pointType:'wind',mean:2}", "{\"iata\":\"BOS\",\"pointType\":\"wind\",\"mean\":\"2\"}",
+				// and reject these
+				"{\"iata\":\"BOS\",\"pointType\":\"wind\"", "[1]", "not json" };
+		StringBuilder stream = new StringBuilder();
+		for (String line : lines) {
+			stream.append(line).append('\n');
+		}
+		try (WeatherRecordReader reader = new WeatherRecordReader(
+				new ByteArrayInputStream(stream.toString().getBytes("UTF-8")))) {
+			for (String line : lines) {
+				WeatherRecordReader.Record record = reader.next();
+				WeatherRecordReader.Record expected = gsonRecord(line);
+				assertEquals(line, expected.error, record.error);
+				if (expected.error == null) {
+					assertEquals(line, expected.iata, record.iata);
+					assertEquals(line, expected.pointType, record.pointType);
+					assertEquals(line, expected.dataPoint, record.dataPoint);
+				}
+			}
+			assertNull(reader.next());
+		}
+
+		assertTrue(_parser.parseRecord(lines[0]));
+		assertEquals("BOS", _parser.iata());
+		assertEquals("wind", _parser.pointType());
+		// a data point alone leaves them unread
+		assertTrue(_parser.parse(lines[0]));
+		assertNull(_parser.iata());
+		assertNull(_parser.pointType());
+	}
+
+	/** a record as gson alone reads it */
+	private WeatherRecordReader.Record gsonRecord(String line) {
+		WeatherRecordReader.Record record = new WeatherRecordReader.Record(0);
+		try {
+			JsonObject json = new JsonParser().parse(line).getAsJsonObject();
+			record.iata = json.has("iata") && json.get("iata").isJsonPrimitive() ? json.get("iata").getAsString()
+					: null;
+			record.pointType = json.has("pointType") && json.get("pointType").isJsonPrimitive()
+					? json.get("pointType").getAsString() : null;
+			record.dataPoint = _gson.fromJson(json, DataPoint.class);
+			if (record.iata == null || record.pointType == null) {
+				record.error = "malformed";
+			}
+		} catch (JsonParseException | IllegalStateException e) {
+			record.error = "malformed";
+		}
+		return record;
+	}
+
+	@Test
+	public void testLookupPointType() throws Exception {
+		assertSame(DataPointType.WIND, DataPointType.lookup("wind"));
+		assertSame(DataPointType.CLOUDCOVER, DataPointType.lookup("CloudCover"));
+		assertNull(DataPointType.lookup("winds"));
+		assertNull(DataPointType.lookup("wand"));
+		assertNull(DataPointType.lookup(null));
+	}
+
+	@Test
+	public void testParseDoesNotAllocate() throws Exception {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+		long thread = Thread.currentThread().getId();
+
+		String json = "{\"mean\":22.5,\"first\":10,\"second\":20,\"third\":30,\"count\":10}";
+		DataPoint dp = new DataPoint.Builder().withMean(22).build();
+		for (int i = 0; i < 20000; i++) {
+			parseAndValidate(json, dp);
+		}
+
+		long before = threads.getThreadAllocatedBytes(thread);
+		long overhead = threads.getThreadAllocatedBytes(thread) - before;
+		before = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < 10000; i++) {
+			parseAndValidate(json, dp);
+		}
+		long allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+
+		assertTrue(allocated + " bytes allocated by 10000 parses", allocated < 1024);
+	}
+
+	@Test
+	public void testUpdatePathAllocation() throws Exception {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+		RestWeatherQueryEndpoint.init();
+		WeatherCollectorEndpoint update = new RestWeatherCollectorEndpoint();
+
+		String json = "{\"mean\":22.5,\"first\":10,\"second\":20,\"third\":30,\"count\":10}";
+		for (int i = 0; i < 20000; i++) {
+			assertEquals(200, update.updateWeather("BOS", "wind", json).getStatus());
+		}
+
+		long[] ids = updatePathThreads();
+		long before = allocated(threads, ids);
+		int updates = 10000;
+		for (int i = 0; i < updates; i++) {
+			update.updateWeather("BOS", "wind", json);
+		}
+		long perUpdate = (allocated(threads, ids) - before) / updates;
+
+		// the interface pins the jersey response, built on every call
+		before = allocated(threads, ids);
+		for (int i = 0; i < updates; i++) {
+			Response.status(Response.Status.OK).build();
+		}
+		long perResponse = (allocated(threads, ids) - before) / updates;
+
+		// past the response, the task, the data point and the pipeline update
+		// on the calling thread and the snapshot on the shard, about 180
+		// bytes: a json encoding, a parse to text or a map on the way would
+		// take it over
+		long ours = perUpdate - perResponse;
+		assertTrue(ours + " bytes allocated per update past the response", ours < 320);
+	}
+
+	/** the calling thread and the ingest shards */
+	private static long[] updatePathThreads() {
+		List<Long> ids = new ArrayList<>();
+		ids.add(Thread.currentThread().getId());
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith("weather-ingest-")) {
+				ids.add(thread.getId());
+			}
+		}
+		long[] retval = new long[ids.size()];
+		for (int i = 0; i < retval.length; i++) {
+			retval[i] = ids.get(i);
+		}
+		return retval;
+	}
+
+	private static long allocated(com.sun.management.ThreadMXBean threads, long[] ids) {
+		long retval = 0;
+		for (long bytes : threads.getThreadAllocatedBytes(ids)) {
+			retval += Math.max(0, bytes);
+		}
+		return retval;
+	}
+
+	private void parseAndValidate(String json, DataPoint dp) {
+		assertTrue(_parser.parse(json));
+		assertTrue(DataPointType.lookup("wind").accepts(dp));
+	}
+}
@@ -0,0 +1,110 @@
+package com.crossover.trial.weather;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.Response;
+
+import org.junit.Test;
+
+public class EndpointExecutorTest {
+
+	@Test
+	public void testTimeoutAnswers503() throws Exception {
+		EndpointExecutor executor = new EndpointExecutor("test", ExecutionStrategy.BOUNDED, 1, 10, 100);
+		CountDownLatch interrupted = new CountDownLatch(1);
+
+		long start = System.nanoTime();
+		Response response = executor.execute(() -> {
+			try {
+				Thread.sleep(10000);
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+			}
+			return Response.ok().build();
+		});
+
+		assertEquals(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), response.getStatus());
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+		// the task is cancelled, not left running
+		assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+		assertEquals(1L, executor.stats().get("timed_out"));
+		assertEquals(0, executor.queueDepth());
+	}
+
+	@Test
+	public void testRejectsPastTheQueueLimit() throws Exception {
+		EndpointExecutor executor = new EndpointExecutor("test-queue", ExecutionStrategy.BOUNDED, 1, 1, 10000);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Callable<Response> blocking = () -> {
+			started.countDown();
+			release.await();
+			return Response.ok().build();
+		};
+		ExecutorService callers = Executors.newFixedThreadPool(2);
+		try {
+			Future<Response> running = callers.submit(() -> executor.execute(blocking));
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			Future<Response> waiting = callers.submit(() -> executor.execute(() -> Response.ok().build()));
+			while (executor.queueDepth() < 1) {
+				Thread.sleep(1);
+			}
+
+			// the worker is busy and the queue full
+			assertEquals(503, executor.execute(() -> Response.ok().build()).getStatus());
+			assertEquals(1, executor.rejectedCount());
+
+			release.countDown();
+			assertEquals(200, running.get(5, TimeUnit.SECONDS).getStatus());
+			assertEquals(200, waiting.get(5, TimeUnit.SECONDS).getStatus());
+		} finally {
+			callers.shutdownNow();
+		}
+		Map<String, Object> stats = executor.stats();
+		assertEquals(0, stats.get("queued"));
+		assertEquals(2L, stats.get("completed"));
+		assertEquals(0L, stats.get("failed"));
+		assertEquals(1L, stats.get("rejected"));
+	}
+
+	@Test
+	public void testCountsFailuresApart() {
+		for (ExecutionStrategy strategy : new ExecutionStrategy[] { ExecutionStrategy.INLINE,
+				ExecutionStrategy.BOUNDED }) {
+			EndpointExecutor executor = new EndpointExecutor("test-" + strategy, strategy, 1, 10, 10000);
+			assertEquals(200, executor.execute(() -> Response.ok().build()).getStatus());
+			assertEquals(400, executor.execute(() -> {
+				throw new IllegalArgumentException("bad argument");
+			}).getStatus());
+			assertEquals(400, executor.execute(() -> {
+				throw new IllegalStateException("bad state");
+			}).getStatus());
+			assertEquals(500, executor.execute(() -> {
+				throw new NullPointerException();
+			}).getStatus());
+
+			Map<String, Object> stats = executor.stats();
+			assertEquals(strategy.name(), 1L, stats.get("completed"));
+			assertEquals(strategy.name(), 3L, stats.get("failed"));
+		}
+	}
+
+	@Test
+	public void testInlineByDefault() {
+		EndpointExecutor executor = new EndpointExecutor("test-default", 4);
+		Thread caller = Thread.currentThread();
+		Response response = executor.execute(() -> Response.status(Thread.currentThread() == caller ? 200 : 500)
+				.build());
+		assertEquals(200, response.getStatus());
+		assertEquals(ExecutionStrategy.INLINE.name(), executor.stats().get("strategy"));
+	}
+}
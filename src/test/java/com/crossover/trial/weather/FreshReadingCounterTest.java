@@ -0,0 +1,51 @@
+package com.crossover.trial.weather;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class FreshReadingCounterTest {
+
+	private static final DataPoint WIND = new DataPoint.Builder().withMean(10).withCount(1).build();
+
+	@Test
+	public void testCountUpdatesAndExpiry() {
+		long now = System.currentTimeMillis();
+		FreshReadingCounter counter = new FreshReadingCounter();
+		AtmosphericInformation empty = new AtmosphericInformation();
+		AtmosphericInformation aging = empty.with(DataPointType.WIND, WIND, now - FreshReadingCounter.WINDOW + 1800000);
+		AtmosphericInformation fresh = empty.with(DataPointType.WIND, WIND, now);
+
+		counter.replaced(null, empty);
+		assertEquals(0, counter.count(now));
+		counter.replaced(empty, aging);
+		counter.replaced(null, fresh);
+		assertEquals(2, counter.count(now));
+
+		// an update moves the airport, it doesn't add one
+		AtmosphericInformation updated = fresh.with(DataPointType.WIND, WIND, now + 1);
+		counter.replaced(fresh, updated);
+		assertEquals(2, counter.count(now));
+
+		// the aging airport expires on its own
+		assertEquals(1, counter.count(now + 3600000));
+		counter.replaced(updated, null);
+		assertEquals(0, counter.count(now + 3600000));
+	}
+
+	@Test
+	public void testUpdatesExpireWithoutCounts() {
+		long minute = 60000;
+		long now = System.currentTimeMillis();
+		FreshReadingCounter counter = new FreshReadingCounter();
+		AtmosphericInformation empty = new AtmosphericInformation();
+		counter.replaced(null, empty.with(DataPointType.WIND, WIND, now), now);
+
+		// no count for longer than the ring, only updates of other airports
+		for (long later = now; later < now + 2100 * minute; later += 90 * minute) {
+			counter.replaced(null, empty, later);
+		}
+		assertEquals(0, counter.count(now + 2048 * minute));
+		assertEquals(0, counter.count(now + 2100 * minute));
+	}
+}
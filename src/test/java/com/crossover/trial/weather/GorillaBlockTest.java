@@ -0,0 +1,83 @@
+package com.crossover.trial.weather;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class GorillaBlockTest {
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		Random random = new Random(42);
+		long[] times = new long[1000];
+		DataPoint[] points = new DataPoint[times.length];
+		double[] means = { Double.NaN, -0.0, Double.POSITIVE_INFINITY, Double.MIN_VALUE, -1e300 };
+		int[] ints = { Integer.MIN_VALUE, Integer.MAX_VALUE, -1, 0 };
+		long time = 1476000000000L;
+		for (int i = 0; i < times.length; i++) {
+			// steady, jittery, backwards and far apart readings
+			switch (i % 4) {
+			case 0:
+				time += 60000;
+				break;
+			case 1:
+				time += 60000 + random.nextInt(5000) - 2500;
+				break;
+			case 2:
+				time += random.nextBoolean() ? -random.nextInt(100000) : random.nextInt(Integer.MAX_VALUE);
+				break;
+			default:
+				time += 60000;
+			}
+			times[i] = time;
+			double mean = i % 7 == 0 ? means[random.nextInt(means.length)] : random.nextGaussian() * 100;
+			int first = i % 5 == 0 ? ints[random.nextInt(ints.length)] : random.nextInt();
+			points[i] = new DataPoint(mean, first, random.nextInt(100), i % 3 == 0 ? 30 : random.nextInt(), i);
+		}
+
+		GorillaBlock.Encoder encoder = new GorillaBlock.Encoder();
+		for (int i = 0; i < times.length; i++) {
+			encoder.append(times[i], points[i]);
+		}
+		GorillaBlock block = encoder.seal();
+		assertEquals(times.length, block.count());
+
+		GorillaBlock.Decoder decoder = block.decoder();
+		for (int i = 0; i < times.length; i++) {
+			assertTrue(decoder.next());
+			assertEquals(times[i], decoder.time());
+			assertEquals(Double.doubleToRawLongBits(points[i].getMean()), Double.doubleToRawLongBits(decoder.mean()));
+			assertEquals(points[i].getFirst(), decoder.first());
+			assertEquals(points[i].getSecond(), decoder.second());
+			assertEquals(points[i].getThird(), decoder.third());
+			assertEquals(points[i].getCount(), decoder.count());
+		}
+		assertFalse(decoder.next());
+	}
+
+	@Test
+	public void testCompressSteadySeries() throws Exception {
+		// a reading a minute, temperatures in half degrees drifting slowly
+		Random random = new Random(7);
+		GorillaBlock.Encoder encoder = new GorillaBlock.Encoder();
+		long time = 1476000000000L;
+		int halves = 40;
+		for (int i = 0; i < 128; i++) {
+			if (random.nextInt(4) == 0) {
+				halves += random.nextBoolean() ? 1 : -1;
+			}
+			int degrees = halves / 2;
+			encoder.append(time, new DataPoint(halves / 2.0, degrees - 2, degrees, degrees + 2, 60));
+			time += 60000;
+		}
+		GorillaBlock block = encoder.seal();
+
+		// a DataPoint object, its reference and a timestamp take about 52 bytes
+		double bytesPerReading = (double) block.sizeInBytes() / block.count();
+		assertTrue(bytesPerReading + " bytes per reading", bytesPerReading * 10 <= 52);
+	}
+}
@@ -0,0 +1,93 @@
+package com.crossover.trial.weather;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HeavyHittersTest {
+
+	private static final long MINUTE = 60000;
+
+	@Test
+	public void testFindHotKeysAmongMany() {
+		HeavyHitters hitters = new HeavyHitters(60, MINUTE, 4, 256, 16);
+		long now = 1000 * MINUTE;
+		Random random = new Random(5);
+		int[] hot = { 7, 3, 11 };
+		int[] counts = { 5000, 3000, 2000 };
+		int[] left = counts.clone();
+		for (int i = 0; i < 100000; i++) {
+			int pick = random.nextInt(100000);
+			if (pick < 10000) {
+				int which = pick < 5000 ? 0 : pick < 8000 ? 1 : 2;
+				if (left[which]-- > 0) {
+					hitters.record(hot[which], now);
+					continue;
+				}
+			}
+			hitters.record(1000 + random.nextInt(50000), now);
+		}
+		for (int which = 0; which < hot.length; which++) {
+			while (left[which]-- > 0) {
+				hitters.record(hot[which], now);
+			}
+		}
+
+		HeavyHitters.Top top = hitters.top(3, 5 * MINUTE, now);
+		assertArrayEquals(hot, top.keys);
+		for (int i = 0; i < hot.length; i++) {
+			// never under, over by at most e / width of the stream
+			assertTrue(top.counts[i] >= counts[i]);
+			assertTrue(top.counts[i] <= counts[i] + 110000 * Math.E / 256);
+		}
+	}
+
+	@Test
+	public void testFindHotKeysInASample() {
+		HeavyHitters hitters = new HeavyHitters(60, MINUTE, 4, 256, 16, 8);
+		long now = 1000 * MINUTE;
+		Random random = new Random(5);
+		int[] hot = { 7, 3, 11 };
+		int[] counts = { 5000, 3000, 1500 };
+		int total = 0;
+		for (int which = 0; which < hot.length; which++) {
+			for (int i = 0; i < counts[which]; i++) {
+				hitters.record(hot[which], now);
+				hitters.record(1000 + random.nextInt(50000), now);
+			}
+			total += 2 * counts[which];
+		}
+
+		HeavyHitters.Top top = hitters.top(3, 5 * MINUTE, now);
+		assertArrayEquals(hot, top.keys);
+		for (int i = 0; i < hot.length; i++) {
+			// counted with the weight of the sample, near the true count
+			assertEquals(0, top.counts[i] % 8);
+			assertTrue(top.counts[i] >= 0.75 * counts[i]);
+			assertTrue(top.counts[i] <= 1.25 * counts[i] + total * Math.E / 256);
+		}
+	}
+
+	@Test
+	public void testCountsDecayWithTheWindow() {
+		HeavyHitters hitters = new HeavyHitters(60, MINUTE, 4, 256, 16);
+		long now = 1000 * MINUTE;
+		for (int i = 0; i < 10; i++) {
+			hitters.record(42, now - 30 * MINUTE);
+			hitters.record(8, now);
+		}
+		hitters.record(42, now);
+
+		assertArrayEquals(new int[] { 8, 42 }, hitters.top(5, 5 * MINUTE, now).keys);
+		HeavyHitters.Top hour = hitters.top(5, 60 * MINUTE, now);
+		assertArrayEquals(new int[] { 42, 8 }, hour.keys);
+		assertEquals(11, hour.counts[0]);
+
+		// the ring moved past both panes
+		assertEquals(0, hitters.top(5, 60 * MINUTE, now + 90 * MINUTE).keys.length);
+	}
+}
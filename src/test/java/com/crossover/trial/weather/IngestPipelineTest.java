@@ -0,0 +1,276 @@
+package com.crossover.trial.weather;
+
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.atmosphericInformation;
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.getAirportDataIdx;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.InternalServerErrorException;
+import javax.ws.rs.core.Response;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IngestPipelineTest {
+
+	private static final String[] AIRPORTS = { "BOS", "EWR", "JFK", "LGA", "MMU" };
+
+	/** disabled, commits nothing */
+	private AtmosphericStateStore _store = new AtmosphericStateStore(null, 0, 0, false);
+
+	private ExecutorService _threads = Executors.newCachedThreadPool();
+
+	@Before
+	public void setUp() throws Exception {
+		RestWeatherQueryEndpoint.init();
+	}
+
+	@After
+	public void tearDown() {
+		_threads.shutdownNow();
+	}
+
+	@Test
+	public void testNoUpdateLostAndLastWriteKept() throws Exception {
+		IngestPipeline pipeline = new IngestPipeline("test-producers", 2, 64, _store);
+		int producers = 4;
+		int writes = 2000;
+		List<Future<Integer>> submitted = new ArrayList<>();
+		for (int p = 0; p < producers; p++) {
+			int producer = p;
+			submitted.add(_threads.submit(() -> {
+				// each (airport, point type) has one producer, writing counts 1 to writes
+				List<IngestPipeline.Update> updates = new ArrayList<>();
+				for (int count = 1; count <= writes; count++) {
+					int key = 0;
+					for (String iata : AIRPORTS) {
+						for (DataPointType type : DataPointType.values()) {
+							if (key++ % producers == producer) {
+								updates.add(pipeline.submit(getAirportDataIdx(iata), type,
+										new DataPoint.Builder().withMean(1).withCount(count).build()));
+							}
+						}
+					}
+				}
+				// awaited by their producer, the one the consumers unpark
+				int applied = 0;
+				for (IngestPipeline.Update update : updates) {
+					if (update.await() == IngestPipeline.Status.APPLIED) {
+						applied++;
+					}
+				}
+				return applied;
+			}));
+		}
+		int total = 0;
+		for (Future<Integer> future : submitted) {
+			total += future.get(30, TimeUnit.SECONDS);
+		}
+		assertEquals(AIRPORTS.length * DataPointType.values().length * writes, total);
+
+		for (String iata : AIRPORTS) {
+			AtmosphericInformation ai = atmosphericInformation.get(getAirportDataIdx(iata));
+			for (DataPointType type : DataPointType.values()) {
+				assertEquals(iata + " " + type, writes, ai.get(type).getCount());
+			}
+		}
+		assertEquals((long) total, pipeline.stats().get("applied"));
+		assertEquals(0L, pipeline.stats().get("failed"));
+		assertEquals(0L, pipeline.stats().get("queued"));
+	}
+
+	@Test
+	public void testCoalescesWithinABatch() throws Exception {
+		IngestPipeline pipeline = new IngestPipeline("test-coalesce", 1, 64, _store);
+		int slot = getAirportDataIdx("BOS");
+		List<IngestPipeline.Update> updates = new ArrayList<>();
+		CountDownLatch gate = new CountDownLatch(1);
+		// the consumer waits on the first one, the others make one batch
+		updates.add(pipeline.submit(slot, DataPointType.WIND, gated(gate)));
+		awaitQueued(pipeline, 0);
+		for (int count = 2; count <= 50; count++) {
+			updates.add(submit(pipeline, slot, count));
+		}
+		gate.countDown();
+		for (IngestPipeline.Update update : updates) {
+			assertSame(IngestPipeline.Status.APPLIED, update.await());
+		}
+		assertEquals(50, atmosphericInformation.get(slot).getWind().getCount());
+		assertEquals(48L, pipeline.stats().get("coalesced"));
+		assertEquals(2L, pipeline.stats().get("batches"));
+	}
+
+	@Test
+	public void testBackPressureWhenTheRingIsFull() throws Exception {
+		IngestPipeline pipeline = new IngestPipeline("test-full", 1, 4, _store);
+		int slot = getAirportDataIdx("JFK");
+		List<IngestPipeline.Update> updates = new ArrayList<>();
+		CountDownLatch gate = new CountDownLatch(1);
+		updates.add(pipeline.submit(slot, DataPointType.WIND, gated(gate)));
+		awaitQueued(pipeline, 0);
+		for (int count = 2; count <= 5; count++) {
+			updates.add(submit(pipeline, slot, count));
+		}
+		assertEquals(4L, pipeline.stats().get("queued"));
+
+		CountDownLatch submitting = new CountDownLatch(1);
+		Future<IngestPipeline.Status> blocked = _threads.submit(() -> {
+			submitting.countDown();
+			return submit(pipeline, slot, 6).await();
+		});
+		assertTrue(submitting.await(5, TimeUnit.SECONDS));
+		Thread.sleep(200);
+		assertFalse("a producer doesn't overwrite a full ring", blocked.isDone());
+		assertEquals(4L, pipeline.stats().get("queued"));
+
+		gate.countDown();
+		assertSame(IngestPipeline.Status.APPLIED, blocked.get(5, TimeUnit.SECONDS));
+		for (IngestPipeline.Update update : updates) {
+			assertSame(IngestPipeline.Status.APPLIED, update.await());
+		}
+		assertEquals(6, atmosphericInformation.get(slot).getWind().getCount());
+	}
+
+	@Test
+	public void testWakesUpASleepingConsumer() throws Exception {
+		IngestPipeline pipeline = new IngestPipeline("test-sleep", 1, 16, _store);
+		int slot = getAirportDataIdx("LGA");
+		for (int count = 1; count <= 20; count++) {
+			// long enough for the consumer to find its ring empty and park
+			Thread.sleep(count % 5 == 0 ? 50 : 0);
+			int next = count;
+			// awaited by its producer, the one the consumer unparks
+			Future<IngestPipeline.Status> status = _threads.submit(() -> submit(pipeline, slot, next).await());
+			assertSame(IngestPipeline.Status.APPLIED, status.get(5, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void testFailedApplyAnswers500() throws Exception {
+		IngestPipeline pipeline = new IngestPipeline("test-failure", 1, 16, _store);
+		int slot = getAirportDataIdx("MMU");
+		AtmosphericInformation before = failing(slot, 1);
+		assertSame(IngestPipeline.Status.FAILED, submit(pipeline, slot, 1).await());
+		assertSame(before, atmosphericInformation.get(slot));
+		assertEquals(1L, pipeline.stats().get("failed"));
+		// and the next batch goes through
+		assertSame(IngestPipeline.Status.APPLIED, submit(pipeline, slot, 1).await());
+
+		DataPoint dp = new DataPoint.Builder().withMean(1).withCount(1).build();
+		WeatherCollectorEndpointCallableTask task = new WeatherCollectorEndpointCallableTask();
+		failing(slot, 2);
+		try {
+			task.addDataPoint("MMU", "wind", dp);
+			fail("a failed update is not applied");
+		} catch (InternalServerErrorException e) {
+			// expected
+		}
+		EndpointExecutor executor = new EndpointExecutor("test-failure", ExecutionStrategy.INLINE,
+				1, 1);
+		assertEquals(500, executor.execute(() -> {
+			task.addDataPoint("MMU", "wind", dp);
+			return Response.ok().build();
+		}).getStatus());
+	}
+
+	@Test
+	public void testFailedAirportLeavesTheOthersApplied() throws Exception {
+		IngestPipeline pipeline = new IngestPipeline("test-partial", 1, 64, _store);
+		CountDownLatch gate = new CountDownLatch(1);
+		IngestPipeline.Update first = pipeline.submit(getAirportDataIdx("BOS"), DataPointType.WIND, gated(gate));
+		awaitQueued(pipeline, 0);
+		// one batch: published, failed, published
+		IngestPipeline.Update jfk = submit(pipeline, getAirportDataIdx("JFK"), 1);
+		failing(getAirportDataIdx("MMU"), 1);
+		IngestPipeline.Update mmu = submit(pipeline, getAirportDataIdx("MMU"), 1);
+		IngestPipeline.Update lga = submit(pipeline, getAirportDataIdx("LGA"), 1);
+		gate.countDown();
+
+		assertSame(IngestPipeline.Status.APPLIED, first.await());
+		assertSame(IngestPipeline.Status.APPLIED, jfk.await());
+		assertSame(IngestPipeline.Status.FAILED, mmu.await());
+		assertSame(IngestPipeline.Status.APPLIED, lga.await());
+		assertNull(atmosphericInformation.get(getAirportDataIdx("MMU")).getWind());
+		assertEquals(1, atmosphericInformation.get(getAirportDataIdx("LGA")).getWind().getCount());
+		assertEquals(1L, pipeline.stats().get("failed"));
+		assertEquals(3L, pipeline.stats().get("applied"));
+
+		// recorded once, a failure elsewhere asks no retry
+		long now = System.currentTimeMillis();
+		assertEquals(1, RestWeatherQueryEndpoint.weatherHistory.read(getAirportDataIdx("JFK"), DataPointType.WIND,
+				now - 60000, now + 60000, WeatherHistory.Resolution.RAW).size());
+
+		// and the failed airport takes the next batch
+		assertSame(IngestPipeline.Status.APPLIED, submit(pipeline, getAirportDataIdx("MMU"), 2).await());
+	}
+
+	/**
+	 * Replace the snapshot of an airport by one the consumers can't read.
+	 *
+	 * @param slot
+	 *            the airport slot
+	 * @param failures
+	 *            how many times the consumers fail to read it
+	 * @return the failing snapshot
+	 */
+	private static AtmosphericInformation failing(int slot, int failures) {
+		AtomicInteger left = new AtomicInteger(failures);
+		AtmosphericInformation retval = new AtmosphericInformation() {
+			@Override
+			DataPoint get(DataPointType type) {
+				if (Thread.currentThread().getName().startsWith("weather-") && left.getAndDecrement() > 0) {
+					throw new IllegalStateException("can't read the snapshot");
+				}
+				return super.get(type);
+			}
+		};
+		atmosphericInformation.put(slot, retval);
+		return retval;
+	}
+
+	private static IngestPipeline.Update submit(IngestPipeline pipeline, int slot, int count) {
+		return pipeline.submit(slot, DataPointType.WIND, new DataPoint.Builder().withMean(1).withCount(count).build());
+	}
+
+	/** a data point the consumers can't read until the gate opens */
+	private static DataPoint gated(CountDownLatch gate) {
+		return new DataPoint(1, 0, 0, 0, 1) {
+			@Override
+			public double getMean() {
+				if (Thread.currentThread().getName().startsWith("weather-")) {
+					try {
+						gate.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return super.getMean();
+			}
+		};
+	}
+
+	/** wait for the consumer to take what is queued */
+	private static void awaitQueued(IngestPipeline pipeline, long queued) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while ((long) pipeline.stats().get("queued") != queued) {
+			if (System.nanoTime() > deadline) {
+				fail("still " + pipeline.stats().get("queued") + " queued");
+			}
+			Thread.sleep(1);
+		}
+	}
+}
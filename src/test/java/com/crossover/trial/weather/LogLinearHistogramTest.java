@@ -0,0 +1,55 @@
+package com.crossover.trial.weather;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LogLinearHistogramTest {
+
+	@Test
+	public void testBucketsCoverTheValuesInOrder() {
+		int previous = -1;
+		for (long value = 0; value < 1 << 16; value++) {
+			int bucket = LogLinearHistogram.bucket(value);
+			assertTrue(bucket == previous || bucket == previous + 1);
+			assertTrue(value <= LogLinearHistogram.highestValue(bucket));
+			if (bucket > 0) {
+				assertTrue(value > LogLinearHistogram.highestValue(bucket - 1));
+			}
+			previous = bucket;
+		}
+		assertEquals(LogLinearHistogram.BUCKETS - 1, LogLinearHistogram.bucket(Long.MAX_VALUE));
+		assertEquals(LogLinearHistogram.BUCKETS - 2,
+				LogLinearHistogram.bucket((1L << LogLinearHistogram.MAX_EXPONENT + 1) - 1));
+	}
+
+	@Test
+	public void testQuantilesWithinTheBucketError() {
+		LogLinearHistogram histogram = new LogLinearHistogram();
+		assertEquals(-1, histogram.snapshot().valueAt(0.5));
+
+		Random random = new Random(3);
+		long[] values = new long[100000];
+		long sum = 0;
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (long) (1e6 * Math.exp(3 * random.nextGaussian()));
+			histogram.record(values[i]);
+			sum += values[i];
+		}
+		Arrays.sort(values);
+
+		LogLinearHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(values.length, snapshot.count());
+		assertEquals(sum, snapshot.sum());
+		for (double quantile : new double[] { 0.5, 0.99, 0.999 }) {
+			long exact = values[(int) Math.ceil(quantile * values.length) - 1];
+			long estimate = snapshot.valueAt(quantile);
+			assertTrue(estimate >= exact);
+			assertTrue(estimate <= exact + exact / LogLinearHistogram.SUB_BUCKETS);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.crossover.trial.weather;
+
+import static com.crossover.trial.weather.RestWeatherQueryEndpoint.atmosphericInformation;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RadiusScanTest {
+
+	private static final int AIRPORTS = 4 * RadiusScan.PARALLEL_THRESHOLD;
+
+	private AirportRegistry _registry = new AirportRegistry();
+
+	private AirportCoordinates _coordinates = new AirportCoordinates();
+
+	private int[] _all = new int[AIRPORTS];
+
+	@Before
+	public void setUp() {
+		Random random = new Random(3);
+		atmosphericInformation.reset(AIRPORTS);
+		for (int slot = 0; slot < AIRPORTS; slot++) {
+			double latitude = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+			double longitude = 360 * random.nextDouble() - 180;
+			_registry.register(new AirportData(String.format("%04d", slot), latitude, longitude));
+			_all[slot] = slot;
+			// every other airport has a reading, the others are scanned but not found
+			if (slot % 2 == 0) {
+				atmosphericInformation.put(slot, new AtmosphericInformation().with(DataPointType.WIND,
+						new DataPoint.Builder().withMean(slot).withCount(1).build(), 0));
+			}
+		}
+		_coordinates.rebuild(_registry);
+	}
+
+	@After
+	public void tearDown() {
+		atmosphericInformation.clear();
+	}
+
+	@Test
+	public void testParallelMatchesSequential() {
+		for (double radius : new double[] { 100, 2000, 8000, 15000, 30000 }) {
+			for (int center : new int[] { 0, 1, AIRPORTS / 2, AIRPORTS - 1 }) {
+				RadiusScan sequential = RadiusScan.scan(_coordinates, center, radius, _all, Integer.MAX_VALUE);
+				RadiusScan parallel = RadiusScan.scan(_coordinates, center, radius, _all, 0);
+				assertArrayEquals(radius + " km around " + center, sequential.slots(), parallel.slots());
+				assertEquals(sequential.found(), parallel.found());
+			}
+		}
+	}
+
+	@Test
+	public void testDefaultThresholdGoesParallel() {
+		RadiusScan sequential = RadiusScan.scan(_coordinates, 0, 30000, _all, Integer.MAX_VALUE);
+		RadiusScan scan = RadiusScan.scan(_coordinates, 0, 30000, _all);
+
+		// the whole globe, in slot order, the found ones in slot order too
+		assertEquals(AIRPORTS, scan.slots().length);
+		assertArrayEquals(sequential.slots(), scan.slots());
+		List<AtmosphericInformation> found = scan.found();
+		assertEquals(AIRPORTS / 2, found.size());
+		for (int i = 0; i < found.size(); i++) {
+			assertSame(atmosphericInformation.get(2 * i), found.get(i));
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package com.crossover.trial.weather;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class StripedCountersTest {
+
+	@Test
+	public void testConcurrentIncrementsAddUp() throws Exception {
+		StripedCounters counters = new StripedCounters(100, 4);
+		Thread[] threads = new Thread[6];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 30000; i++) {
+					// spans three chunks
+					counters.increment(i % 300);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		long[] snapshot = counters.snapshot(301);
+		for (int i = 0; i < 300; i++) {
+			assertEquals(600, snapshot[i]);
+		}
+		assertEquals(0, snapshot[300]);
+		assertEquals(600, counters.get(299));
+
+		counters.clear();
+		assertEquals(0, counters.get(299));
+	}
+}
@@ -1,17 +1,25 @@
 package com.crossover.trial.weather;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
+import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import static com.crossover.trial.weather.AirportLoader.*;
 import static com.crossover.trial.weather.RestWeatherQueryEndpoint.numIatasFound;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.validation.constraints.AssertTrue;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class WeatherEndpointTest {
 
@@ -23,8 +31,13 @@ public class WeatherEndpointTest {
 
 	private DataPoint _dp;
 
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
 	@Before
 	public void setUp() throws Exception {
+		// the airports added and removed are journaled next to a copy
+		upload(AirportCatalogJournalTest.airportsDat(_folder));
 		RestWeatherQueryEndpoint.init();
 		/// mean, first, second, thrid and count keys
 		_dp = new DataPoint.Builder().withCount(10).withFirst(10).withSecond(20).withMean(22).withThird(30).build();
@@ -32,13 +45,25 @@ public class WeatherEndpointTest {
 		_query.weather("BOS", "0").getEntity();
 	}
 
+	@After
+	public void tearDown() throws Exception {
+		setUpToDateFlag(false);
+		upload(getAirportsDatFile());
+	}
+
 	@Test
 	public void testPing() throws Exception {
 		String ping = _query.ping();
 		JsonElement pingResult = new JsonParser().parse(ping);
-		assertEquals(airports.size(), pingResult.getAsJsonObject().get("datasize").getAsInt());
+		// only BOS has been updated, every airport has its own information
+		assertEquals(1, pingResult.getAsJsonObject().get("datasize").getAsInt());
 		assertEquals(airports.size(),
 				pingResult.getAsJsonObject().get("iata_freq").getAsJsonObject().entrySet().size());
+		assertEquals(1.0, pingResult.getAsJsonObject().get("iata_freq").getAsJsonObject().get("BOS").getAsDouble(), 0);
+		assertEquals(0.0, pingResult.getAsJsonObject().get("iata_freq").getAsJsonObject().get("JFK").getAsDouble(), 0);
+		JsonArray radii = pingResult.getAsJsonObject().get("radius_freq").getAsJsonArray();
+		assertEquals(WeatherHealth.RADIUS_BUCKETS, radii.size());
+		assertEquals(1, radii.get(0).getAsInt());
 	}
 
 	@Test
@@ -63,6 +88,18 @@ public class WeatherEndpointTest {
 
 	}
 
+	@Test
+	public void testGetNearbyAfterUpdate() throws Exception {
+		_update.updateWeather("JFK", "wind", _gson.toJson(_dp));
+		List<AtmosphericInformation> ais = (List<AtmosphericInformation>) _query.weather("JFK", "200").getEntity();
+		assertEquals(1, ais.size());
+
+		// EWR is in the circle, the cached result must not be served
+		_update.updateWeather("EWR", "wind", _gson.toJson(_dp));
+		ais = (List<AtmosphericInformation>) _query.weather("JFK", "200").getEntity();
+		assertEquals(2, ais.size());
+	}
+
 	@Test
 	public void testUpdate() throws Exception {
 
@@ -73,7 +110,7 @@ public class WeatherEndpointTest {
 
 		String ping = _query.ping();
 		JsonElement pingResult = new JsonParser().parse(ping);
-		assertEquals(airports.size(), pingResult.getAsJsonObject().get("datasize").getAsInt());
+		assertEquals(1, pingResult.getAsJsonObject().get("datasize").getAsInt());
 
 		DataPoint cloudCoverDp = new DataPoint.Builder().withCount(4).withFirst(10).withSecond(60).withMean(50)
 				.withThird(30).build();
@@ -84,6 +121,85 @@ public class WeatherEndpointTest {
 		assertEquals(ais.get(0).getCloudCover(), cloudCoverDp);
 	}
 
+	@Test
+	public void testConcurrentUpdatesOfOneAirport() throws Exception {
+		// a valid mean for every point type
+		int[] means = { 10, 20, 50, 700, 50, 50 };
+		List<Thread> collectors = new ArrayList<>();
+		for (DataPointType type : DataPointType.values()) {
+			Thread collector = new Thread(() -> {
+				for (int count = 1; count <= 200; count++) {
+					DataPoint dp = new DataPoint.Builder().withMean(means[type.ordinal()]).withCount(count).build();
+					_update.updateWeather("JFK", type.name().toLowerCase(), _gson.toJson(dp));
+				}
+			});
+			collector.start();
+			collectors.add(collector);
+		}
+		for (Thread collector : collectors) {
+			collector.join();
+		}
+
+		AtmosphericInformation ai = ((List<AtmosphericInformation>) _query.weather("JFK", "0").getEntity()).get(0);
+		for (DataPointType type : DataPointType.values()) {
+			assertEquals(type.name(), 200, ai.get(type).getCount());
+		}
+	}
+
+	@Test
+	public void testUpdateIsPerAirport() throws Exception {
+		List<AtmosphericInformation> ais = (List<AtmosphericInformation>) _query.weather("JFK", "0").getEntity();
+		assertNull(ais.get(0).getWind());
+
+		_update.addAirport("TST", "40.0", "-73.0");
+		_update.updateWeather("TST", "wind", _gson.toJson(_dp));
+		_update.deleteAirport("TST");
+
+		// removing an airport doesn't move the information of the others
+		ais = (List<AtmosphericInformation>) _query.weather("BOS", "0").getEntity();
+		assertEquals(_dp, ais.get(0).getWind());
+	}
+
+	@Test
+	public void testUpdateBulk() throws Exception {
+		String records = "{\"iata\":\"JFK\",\"pointType\":\"wind\",\"mean\":40.0,\"first\":10,\"second\":20,\"third\":30,\"count\":10}\n"
+				+ "{\"iata\":\"JFK\",\"pointType\":\"temperature\",\"mean\":20.0,\"first\":10,\"second\":20,\"third\":30,\"count\":10}\n"
+				+ "\n"
+				+ "{\"iata\":\"XXX\",\"pointType\":\"wind\",\"mean\":40.0,\"first\":10,\"second\":20,\"third\":30,\"count\":10}\n"
+				+ "{\"iata\":\"JFK\",\"pointType\":\"pressure\",\"mean\":1.0,\"first\":10,\"second\":20,\"third\":30,\"count\":10}\n"
+				+ "not json\n";
+		String summary = (String) _update
+				.updateWeatherBulk(new ByteArrayInputStream(records.getBytes("UTF-8"))).getEntity();
+		assertEquals("{\"received\":5,\"applied\":2,\"rejected\":[{\"line\":4,\"reason\":\"unknown airport\"},"
+				+ "{\"line\":5,\"reason\":\"out of range\"},{\"line\":6,\"reason\":\"malformed\"}]}", summary);
+
+		List<AtmosphericInformation> ais = (List<AtmosphericInformation>) _query.weather("JFK", "0").getEntity();
+		assertEquals(40.0, ais.get(0).getWind().getMean(), 0);
+		assertEquals(20.0, ais.get(0).getTemperature().getMean(), 0);
+		assertNull(ais.get(0).getPressure());
+	}
+
+	@Test
+	public void testHistory() throws Exception {
+		_dp.setMean(30);
+		_update.updateWeather("BOS", "wind", _gson.toJson(_dp));
+
+		JsonArray raw = new JsonParser().parse((String) _query.history("BOS", "wind", null, null, "raw").getEntity())
+				.getAsJsonArray();
+		assertEquals(2, raw.size());
+		assertEquals(22.0, raw.get(0).getAsJsonObject().get("mean").getAsDouble(), 0);
+		assertEquals(30.0, raw.get(1).getAsJsonObject().get("mean").getAsDouble(), 0);
+
+		JsonArray hours = new JsonParser().parse((String) _query.history("BOS", "wind", null, null, "1h").getEntity())
+				.getAsJsonArray();
+		int samples = 0;
+		for (JsonElement bucket : hours) {
+			samples += bucket.getAsJsonObject().get("samples").getAsInt();
+		}
+		assertEquals(2, samples);
+		assertEquals(404, _query.history("XXX", "wind", null, null, null).getStatus());
+	}
+
 	// ---- insert and delete airports to the airports.dat
 	@Test
 	public void testInsertAndRemove() throws Exception {
@@ -97,4 +213,30 @@ public class WeatherEndpointTest {
 		assertEquals(airportData.getIata(), "REC");
 	}
 
+	@Test
+	public void testMetrics() throws Exception {
+		String weather = "weather_request_duration_seconds_count{endpoint=\"query\",operation=\"weather\",radius=\"1000\"}";
+		String wind = "weather_request_duration_seconds_count{endpoint=\"collect\",operation=\"updateWeather\",pointType=\"WIND\"}";
+		WeatherMetricsEndpoint metrics = new RestWeatherMetricsEndpoint();
+		String before = metrics.metrics();
+
+		_query.weather("JFK", "200");
+		_update.updateWeather("BOS", "wind", _gson.toJson(_dp));
+
+		String after = metrics.metrics();
+		assertEquals(sample(before, weather) + 1, sample(after, weather), 0);
+		assertEquals(sample(before, wind) + 1, sample(after, wind), 0);
+		assertTrue(after.contains("# TYPE weather_queue_wait_seconds summary\n"));
+	}
+
+	/** @return the value of a sample in a Prometheus text exposition */
+	private static double sample(String exposition, String series) {
+		for (String line : exposition.split("\n")) {
+			if (line.startsWith(series + " ")) {
+				return Double.parseDouble(line.substring(series.length() + 1));
+			}
+		}
+		throw new AssertionError(series + " not exposed");
+	}
+
 }
\ No newline at end of file
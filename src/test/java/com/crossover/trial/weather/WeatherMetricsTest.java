@@ -0,0 +1,18 @@
+package com.crossover.trial.weather;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class WeatherMetricsTest {
+
+	@Test
+	public void testUtf8LengthMatchesTheEncoding() {
+		for (String text : new String[] { "", "{\"mean\":22.0}", "caf\u00e9", "\u00a3\u07ff\u0800",
+				"\u20ac10 \u6c17\u6e29", "\ud83c\udf21 \ud83d\udca8", "\ud83c", "x\udf21y", "\udf21\ud83c" }) {
+			assertEquals(text, text.getBytes(StandardCharsets.UTF_8).length, WeatherMetrics.utf8Length(text));
+		}
+	}
+}
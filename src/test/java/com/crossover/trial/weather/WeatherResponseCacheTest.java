@@ -0,0 +1,107 @@
+package com.crossover.trial.weather;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class WeatherResponseCacheTest {
+
+	private AirportRegistry _registry = new AirportRegistry();
+
+	private AirportSpatialIndex _index = new AirportSpatialIndex();
+
+	private WeatherResponseCache _cache = new WeatherResponseCache();
+
+	private AirportData _bos = new AirportData("BOS", 42.364347, -71.005181);
+
+	private AirportData _ewr = new AirportData("EWR", 40.6925, -74.168667);
+
+	private AirportData _lhr = new AirportData("LHR", 51.4775, -0.461389);
+
+	private List<AtmosphericInformation> _result = Arrays.asList(new AtmosphericInformation());
+
+	@Before
+	public void setUp() {
+		_registry.register(_bos);
+		_registry.register(_ewr);
+		_registry.register(_lhr);
+		_index.rebuild(_registry);
+	}
+
+	@Test
+	public void testHitUntilUpdatedInTheCircle() {
+		int[] cells = _index.cells(_bos, 500);
+		_cache.put(_cache.generation(), 0, 500, cells, _cache.stamp(cells), _result);
+		assertSame(_result, _cache.get(0, 500));
+
+		// outside the circle
+		_cache.updated(_lhr);
+		assertSame(_result, _cache.get(0, 500));
+
+		_cache.updated(_ewr);
+		assertNull(_cache.get(0, 500));
+	}
+
+	@Test
+	public void testStaleWhenUpdatedDuringTheQuery() {
+		int[] cells = _index.cells(_bos, 500);
+		long stamp = _cache.stamp(cells);
+		// published while the weather was being read
+		_cache.updated(_bos);
+		_cache.put(_cache.generation(), 0, 500, cells, stamp, _result);
+		assertNull(_cache.get(0, 500));
+	}
+
+	@Test
+	public void testInvalidateAll() {
+		long generation = _cache.generation();
+		int[] cells = _index.cells(_lhr, 100);
+		_cache.put(generation, 2, 100, cells, _cache.stamp(cells), _result);
+		assertNotNull(_cache.get(2, 100));
+
+		_cache.invalidateAll();
+		assertNull(_cache.get(2, 100));
+
+		// computed on the catalog before the change
+		_cache.put(generation, 2, 100, cells, _cache.stamp(cells), _result);
+		assertNull(_cache.get(2, 100));
+	}
+
+	@Test
+	public void testEvictsTheLeastRecentlyHit() {
+		// entries of a cell and an airport, ten of them fill the cache
+		WeatherResponseCache cache = new WeatherResponseCache(20);
+		int[] cells = { 0 };
+		for (int slot = 0; slot < 10; slot++) {
+			cache.put(cache.generation(), slot, 100, cells, cache.stamp(cells), _result);
+		}
+		assertSame(_result, cache.get(0, 100));
+
+		// over the bound, the two oldest not hit since go
+		cache.put(cache.generation(), 10, 100, cells, cache.stamp(cells), _result);
+		assertSame(_result, cache.get(0, 100));
+		assertNull(cache.get(1, 100));
+		assertNull(cache.get(2, 100));
+		for (int slot = 3; slot <= 10; slot++) {
+			assertSame(_result, cache.get(slot, 100));
+		}
+		assertEquals(2L, cache.stats().get("evictions"));
+		assertEquals(18, cache.stats().get("weight"));
+	}
+
+	@Test
+	public void testWholeGlobeCoversEveryAirport() {
+		int[] cells = _index.cells(_bos, 30000);
+		_cache.put(_cache.generation(), 0, 30000, cells, _cache.stamp(cells), _result);
+		assertSame(_result, _cache.get(0, 30000));
+		_cache.updated(_lhr);
+		assertNull(_cache.get(0, 30000));
+	}
+}